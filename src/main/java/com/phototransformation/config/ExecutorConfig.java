@@ -0,0 +1,101 @@
+package com.phototransformation.config;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+
+@Configuration
+public class ExecutorConfig {
+
+    /**
+     * CPU bound pool for decode, resize and encrypt work of uploaded files. It is
+     * shared by all requests so concurrent uploads cannot oversubscribe the CPU;
+     * once its queue is full the submitting request thread runs the task itself.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService photoProcessingExecutor(PhotoConfiguration photoConfiguration) {
+        var upload = photoConfiguration.getUpload();
+        var threads = upload.getParallelism() > 0
+                ? upload.getParallelism()
+                : Runtime.getRuntime().availableProcessors();
+
+        return new ThreadPoolExecutor(
+                threads,
+                threads,
+                60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(upload.getQueueCapacity()),
+                namedThreadFactory("photo-processing-"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * I/O bound pool that reads and decrypts photos ahead of a running ZIP
+     * export. Each export keeps at most photo.export.prefetch-window tasks in
+     * flight; if the queue still fills up the exporting thread fetches itself.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService photoExportExecutor(PhotoConfiguration photoConfiguration) {
+        var export = photoConfiguration.getExport();
+        var threads = Math.max(1, export.getThreads());
+
+        return new ThreadPoolExecutor(
+                threads,
+                threads,
+                60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(threads * Math.max(1, export.getPrefetchWindow()) * 4),
+                namedThreadFactory("photo-export-"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Workers of async uploads. The queue itself is unbounded because the
+     * number of waiting jobs is already capped by photo.jobs.max-queued when
+     * they are accepted, and a job must never fall back to the request thread.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService photoUploadJobExecutor(PhotoConfiguration photoConfiguration) {
+        var threads = Math.max(1, photoConfiguration.getJobs().getConcurrency());
+
+        return new ThreadPoolExecutor(
+                threads,
+                threads,
+                60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                namedThreadFactory("photo-upload-job-"));
+    }
+
+    /**
+     * Queue depth, active threads and completed tasks of the pools above as
+     * {@code executor.*{name=...}}
+     */
+    @Bean
+    public MeterBinder photoExecutorMetrics(@Qualifier("photoProcessingExecutor") ExecutorService photoProcessingExecutor,
+                                            @Qualifier("photoExportExecutor") ExecutorService photoExportExecutor,
+                                            @Qualifier("photoUploadJobExecutor") ExecutorService photoUploadJobExecutor) {
+        return registry -> {
+            new ExecutorServiceMetrics(photoProcessingExecutor, "photo-processing", Tags.empty()).bindTo(registry);
+            new ExecutorServiceMetrics(photoExportExecutor, "photo-export", Tags.empty()).bindTo(registry);
+            new ExecutorServiceMetrics(photoUploadJobExecutor, "photo-upload-job", Tags.empty()).bindTo(registry);
+        };
+    }
+
+    static ThreadFactory namedThreadFactory(String prefix) {
+        var counter = new AtomicInteger();
+        return runnable -> {
+            var thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
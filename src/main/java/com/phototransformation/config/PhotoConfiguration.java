@@ -1,5 +1,8 @@
 package com.phototransformation.config;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
@@ -11,10 +14,27 @@ public class PhotoConfiguration {
     private Upload upload = new Upload();
     private Storage storage = new Storage();
     private Imagemagick imagemagick = new Imagemagick();
+    private Listing listing = new Listing();
+    private Export export = new Export();
+    private Download download = new Download();
+    private Cache cache = new Cache();
+    private Jobs jobs = new Jobs();
+    private Render render = new Render();
+    private Encoding encoding = new Encoding();
+    private Spool spool = new Spool();
+    private Admission admission = new Admission();
+    private List<Rendition> renditions = new ArrayList<>();
     
     public static class Resize {
         private Integer maxWidth;
         private Integer maxHeight;
+        private String engine = "auto";
+        private String filter = "lanczos3";
+        private int threads;
+        private boolean scaleOnDecode = true;
+        private long javaMaxPixels = 4000000;
+        private int breakerFailureThreshold = 3;
+        private long breakerOpenMs = 60000;
         
         public Integer getMaxWidth() {
             return maxWidth;
@@ -31,11 +51,69 @@ public class PhotoConfiguration {
         public void setMaxHeight(Integer maxHeight) {
             this.maxHeight = maxHeight;
         }
+        
+        public String getEngine() {
+            return engine;
+        }
+        
+        public void setEngine(String engine) {
+            this.engine = engine;
+        }
+        
+        public String getFilter() {
+            return filter;
+        }
+        
+        public void setFilter(String filter) {
+            this.filter = filter;
+        }
+        
+        public int getThreads() {
+            return threads;
+        }
+        
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+        
+        public boolean isScaleOnDecode() {
+            return scaleOnDecode;
+        }
+        
+        public void setScaleOnDecode(boolean scaleOnDecode) {
+            this.scaleOnDecode = scaleOnDecode;
+        }
+        
+        public long getJavaMaxPixels() {
+            return javaMaxPixels;
+        }
+        
+        public void setJavaMaxPixels(long javaMaxPixels) {
+            this.javaMaxPixels = javaMaxPixels;
+        }
+        
+        public int getBreakerFailureThreshold() {
+            return breakerFailureThreshold;
+        }
+        
+        public void setBreakerFailureThreshold(int breakerFailureThreshold) {
+            this.breakerFailureThreshold = breakerFailureThreshold;
+        }
+        
+        public long getBreakerOpenMs() {
+            return breakerOpenMs;
+        }
+        
+        public void setBreakerOpenMs(long breakerOpenMs) {
+            this.breakerOpenMs = breakerOpenMs;
+        }
     }
     
     public static class Upload {
         private Integer maxSize;
         private String allowedFormats;
+        private int parallelism;
+        private int queueCapacity = 256;
         
         public Integer getMaxSize() {
             return maxSize;
@@ -52,10 +130,40 @@ public class PhotoConfiguration {
         public void setAllowedFormats(String allowedFormats) {
             this.allowedFormats = allowedFormats;
         }
+        
+        public int getParallelism() {
+            return parallelism;
+        }
+        
+        public void setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+        }
+        
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+        
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
     }
     
     public static class Storage {
         private String path;
+        private Fsync fsync = Fsync.FILE_AND_DIRECTORY;
+        private boolean sweepOrphans = true;
+        
+        /**
+         * How hard the blob store pushes a new blob to disk before reporting it stored
+         */
+        public enum Fsync {
+            /** Leave flushing to the operating system */
+            NONE,
+            /** Force the blob's contents before it is renamed into place */
+            FILE,
+            /** Also force the directory so the rename itself survives a crash */
+            FILE_AND_DIRECTORY
+        }
         
         public String getPath() {
             return path;
@@ -64,10 +172,335 @@ public class PhotoConfiguration {
         public void setPath(String path) {
             this.path = path;
         }
+        
+        public Fsync getFsync() {
+            return fsync;
+        }
+        
+        public void setFsync(Fsync fsync) {
+            this.fsync = fsync;
+        }
+        
+        public boolean isSweepOrphans() {
+            return sweepOrphans;
+        }
+        
+        public void setSweepOrphans(boolean sweepOrphans) {
+            this.sweepOrphans = sweepOrphans;
+        }
     }
     
     public static class Imagemagick {
         private String path;
+        private int workers = 2;
+        private int maxQueued = 64;
+        private long queueTimeoutMs = 30000;
+        private long jobTimeoutMs = 60000;
+        private long healthCheckIntervalMs = 30000;
+        
+        public String getPath() {
+            return path;
+        }
+        
+        public void setPath(String path) {
+            this.path = path;
+        }
+        
+        public int getWorkers() {
+            return workers;
+        }
+        
+        public void setWorkers(int workers) {
+            this.workers = workers;
+        }
+        
+        public int getMaxQueued() {
+            return maxQueued;
+        }
+        
+        public void setMaxQueued(int maxQueued) {
+            this.maxQueued = maxQueued;
+        }
+        
+        public long getQueueTimeoutMs() {
+            return queueTimeoutMs;
+        }
+        
+        public void setQueueTimeoutMs(long queueTimeoutMs) {
+            this.queueTimeoutMs = queueTimeoutMs;
+        }
+        
+        public long getJobTimeoutMs() {
+            return jobTimeoutMs;
+        }
+        
+        public void setJobTimeoutMs(long jobTimeoutMs) {
+            this.jobTimeoutMs = jobTimeoutMs;
+        }
+        
+        public long getHealthCheckIntervalMs() {
+            return healthCheckIntervalMs;
+        }
+        
+        public void setHealthCheckIntervalMs(long healthCheckIntervalMs) {
+            this.healthCheckIntervalMs = healthCheckIntervalMs;
+        }
+    }
+    
+    public static class Listing {
+        private int defaultPageSize = 50;
+        private int maxPageSize = 500;
+        
+        public int getDefaultPageSize() {
+            return defaultPageSize;
+        }
+        
+        public void setDefaultPageSize(int defaultPageSize) {
+            this.defaultPageSize = defaultPageSize;
+        }
+        
+        public int getMaxPageSize() {
+            return maxPageSize;
+        }
+        
+        public void setMaxPageSize(int maxPageSize) {
+            this.maxPageSize = maxPageSize;
+        }
+    }
+    
+    public static class Export {
+        private int prefetchWindow = 8;
+        private int threads = 4;
+        
+        public int getPrefetchWindow() {
+            return prefetchWindow;
+        }
+        
+        public void setPrefetchWindow(int prefetchWindow) {
+            this.prefetchWindow = prefetchWindow;
+        }
+        
+        public int getThreads() {
+            return threads;
+        }
+        
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+    }
+    
+    public static class Download {
+        private long cacheMaxAgeSeconds = 31536000;
+        
+        public long getCacheMaxAgeSeconds() {
+            return cacheMaxAgeSeconds;
+        }
+        
+        public void setCacheMaxAgeSeconds(long cacheMaxAgeSeconds) {
+            this.cacheMaxAgeSeconds = cacheMaxAgeSeconds;
+        }
+    }
+    
+    public static class Cache {
+        private boolean enabled = true;
+        private long maxBytes = 268435456;
+        private long maxEntryBytes = 16777216;
+        private boolean offHeap;
+        
+        public boolean isEnabled() {
+            return enabled;
+        }
+        
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+        
+        public long getMaxBytes() {
+            return maxBytes;
+        }
+        
+        public void setMaxBytes(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+        
+        public long getMaxEntryBytes() {
+            return maxEntryBytes;
+        }
+        
+        public void setMaxEntryBytes(long maxEntryBytes) {
+            this.maxEntryBytes = maxEntryBytes;
+        }
+        
+        public boolean isOffHeap() {
+            return offHeap;
+        }
+        
+        public void setOffHeap(boolean offHeap) {
+            this.offHeap = offHeap;
+        }
+    }
+    
+    public static class Jobs {
+        private int concurrency = 2;
+        private int maxQueued = 100;
+        private long retryAfterSeconds = 30;
+        
+        public int getConcurrency() {
+            return concurrency;
+        }
+        
+        public void setConcurrency(int concurrency) {
+            this.concurrency = concurrency;
+        }
+        
+        public int getMaxQueued() {
+            return maxQueued;
+        }
+        
+        public void setMaxQueued(int maxQueued) {
+            this.maxQueued = maxQueued;
+        }
+        
+        public long getRetryAfterSeconds() {
+            return retryAfterSeconds;
+        }
+        
+        public void setRetryAfterSeconds(long retryAfterSeconds) {
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+    }
+    
+    /**
+     * Extra smaller copy stored next to every photo and served with ?size=name
+     */
+    public static class Rendition {
+        private String name;
+        private Integer maxWidth;
+        private Integer maxHeight;
+        
+        public String getName() {
+            return name;
+        }
+        
+        public void setName(String name) {
+            this.name = name;
+        }
+        
+        public Integer getMaxWidth() {
+            return maxWidth;
+        }
+        
+        public void setMaxWidth(Integer maxWidth) {
+            this.maxWidth = maxWidth;
+        }
+        
+        public Integer getMaxHeight() {
+            return maxHeight;
+        }
+        
+        public void setMaxHeight(Integer maxHeight) {
+            this.maxHeight = maxHeight;
+        }
+    }
+    
+    public static class Render {
+        private String cachePath = "./render-cache";
+        private long cacheMaxBytes = 536870912;
+        private int maxDimension = 4000;
+        
+        public String getCachePath() {
+            return cachePath;
+        }
+        
+        public void setCachePath(String cachePath) {
+            this.cachePath = cachePath;
+        }
+        
+        public long getCacheMaxBytes() {
+            return cacheMaxBytes;
+        }
+        
+        public void setCacheMaxBytes(long cacheMaxBytes) {
+            this.cacheMaxBytes = cacheMaxBytes;
+        }
+        
+        public int getMaxDimension() {
+            return maxDimension;
+        }
+        
+        public void setMaxDimension(int maxDimension) {
+            this.maxDimension = maxDimension;
+        }
+    }
+    
+    public static class Encoding {
+        private int jpegQuality = 75;
+        private boolean jpegProgressive = true;
+        private boolean jpegOptimizeHuffman = true;
+        private String jpegSubsampling = "4:2:0";
+        private int webpQuality = 80;
+        private int avifQuality = 60;
+        private String negotiatedFormats = "";
+        
+        public int getJpegQuality() {
+            return jpegQuality;
+        }
+        
+        public void setJpegQuality(int jpegQuality) {
+            this.jpegQuality = jpegQuality;
+        }
+        
+        public boolean isJpegProgressive() {
+            return jpegProgressive;
+        }
+        
+        public void setJpegProgressive(boolean jpegProgressive) {
+            this.jpegProgressive = jpegProgressive;
+        }
+        
+        public boolean isJpegOptimizeHuffman() {
+            return jpegOptimizeHuffman;
+        }
+        
+        public void setJpegOptimizeHuffman(boolean jpegOptimizeHuffman) {
+            this.jpegOptimizeHuffman = jpegOptimizeHuffman;
+        }
+        
+        public String getJpegSubsampling() {
+            return jpegSubsampling;
+        }
+        
+        public void setJpegSubsampling(String jpegSubsampling) {
+            this.jpegSubsampling = jpegSubsampling;
+        }
+        
+        public int getWebpQuality() {
+            return webpQuality;
+        }
+        
+        public void setWebpQuality(int webpQuality) {
+            this.webpQuality = webpQuality;
+        }
+        
+        public int getAvifQuality() {
+            return avifQuality;
+        }
+        
+        public void setAvifQuality(int avifQuality) {
+            this.avifQuality = avifQuality;
+        }
+        
+        public String getNegotiatedFormats() {
+            return negotiatedFormats;
+        }
+        
+        public void setNegotiatedFormats(String negotiatedFormats) {
+            this.negotiatedFormats = negotiatedFormats;
+        }
+    }
+    
+    public static class Spool {
+        private String path;
         
         public String getPath() {
             return path;
@@ -78,6 +511,54 @@ public class PhotoConfiguration {
         }
     }
     
+    public static class Admission {
+        private boolean enabled = true;
+        private long maxBytes;
+        private int bytesPerPixel = 4;
+        private int maxQueued = 32;
+        private long maxWaitMs = 30000;
+        
+        public boolean isEnabled() {
+            return enabled;
+        }
+        
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+        
+        public long getMaxBytes() {
+            return maxBytes;
+        }
+        
+        public void setMaxBytes(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+        
+        public int getBytesPerPixel() {
+            return bytesPerPixel;
+        }
+        
+        public void setBytesPerPixel(int bytesPerPixel) {
+            this.bytesPerPixel = bytesPerPixel;
+        }
+        
+        public int getMaxQueued() {
+            return maxQueued;
+        }
+        
+        public void setMaxQueued(int maxQueued) {
+            this.maxQueued = maxQueued;
+        }
+        
+        public long getMaxWaitMs() {
+            return maxWaitMs;
+        }
+        
+        public void setMaxWaitMs(long maxWaitMs) {
+            this.maxWaitMs = maxWaitMs;
+        }
+    }
+    
     // Getters and setters
     public Resize getResize() {
         return resize;
@@ -110,4 +591,84 @@ public class PhotoConfiguration {
     public void setImagemagick(Imagemagick imagemagick) {
         this.imagemagick = imagemagick;
     }
+    
+    public Listing getListing() {
+        return listing;
+    }
+    
+    public void setListing(Listing listing) {
+        this.listing = listing;
+    }
+    
+    public Export getExport() {
+        return export;
+    }
+    
+    public void setExport(Export export) {
+        this.export = export;
+    }
+    
+    public Download getDownload() {
+        return download;
+    }
+    
+    public void setDownload(Download download) {
+        this.download = download;
+    }
+    
+    public Cache getCache() {
+        return cache;
+    }
+    
+    public void setCache(Cache cache) {
+        this.cache = cache;
+    }
+    
+    public Jobs getJobs() {
+        return jobs;
+    }
+    
+    public void setJobs(Jobs jobs) {
+        this.jobs = jobs;
+    }
+    
+    public List<Rendition> getRenditions() {
+        return renditions;
+    }
+    
+    public void setRenditions(List<Rendition> renditions) {
+        this.renditions = renditions;
+    }
+    
+    public Render getRender() {
+        return render;
+    }
+    
+    public void setRender(Render render) {
+        this.render = render;
+    }
+    
+    public Encoding getEncoding() {
+        return encoding;
+    }
+    
+    public void setEncoding(Encoding encoding) {
+        this.encoding = encoding;
+    }
+    
+    public Spool getSpool() {
+        return spool;
+    }
+    
+    public void setSpool(Spool spool) {
+        this.spool = spool;
+    }
+    
+    public Admission getAdmission() {
+        return admission;
+    }
+    
+    public void setAdmission(Admission admission) {
+        this.admission = admission;
+    }
 }
\ No newline at end of file
@@ -1,7 +1,10 @@
 package com.phototransformation.config;
 
+import org.springframework.boot.actuate.autoconfigure.security.servlet.EndpointRequest;
+import org.springframework.boot.actuate.health.HealthEndpoint;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.web.SecurityFilterChain;
@@ -15,10 +18,14 @@ public class SecurityConfig {
         http
                 .csrf(csrf -> csrf.disable())
                 .authorizeHttpRequests(authz -> authz
+                        // Probes only need health; metrics and prometheus need the spring.security.user credentials
+                        .requestMatchers(EndpointRequest.to(HealthEndpoint.class)).permitAll()
+                        .requestMatchers(EndpointRequest.toAnyEndpoint()).hasRole("ACTUATOR")
                         .anyRequest().permitAll() // Nem biztonságos, viszont nagyon sok szívás volt a security
                                                   // beállításokkal és csak így működik jelenleg. Elnézést kérek, ez egy
                                                   // ismert hiba.
                 )
+                .httpBasic(Customizer.withDefaults())
                 .headers(headers -> headers
                         .frameOptions(frameOptions -> frameOptions.sameOrigin()));
 
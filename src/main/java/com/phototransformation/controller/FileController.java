@@ -1,6 +1,11 @@
 package com.phototransformation.controller;
 
+import java.time.LocalDateTime;
+import java.util.List;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.Resource;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
@@ -8,12 +13,17 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import com.phototransformation.controller.service.PhotoService;
+import com.phototransformation.dto.PhotoPageDTO;
 import com.phototransformation.dto.PhotoUploadResponseDTO;
+import com.phototransformation.dto.UploadJobDTO;
 
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
@@ -44,25 +54,100 @@ public class FileController {
         return photoService.upload(files);
     }
 
-    @Operation(summary = "Download photo", description = "Download the actual photo file (decrypted) as an attachment")
+    @Operation(summary = "Upload photos in the background", description = "Store the files and return one job per file right away. Decoding, resizing and encryption run on a bounded worker pool; poll the job to see when the photo is ready.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "202", description = "Files accepted, jobs queued"),
+            @ApiResponse(responseCode = "400", description = "No files provided"),
+            @ApiResponse(responseCode = "413", description = "File size exceeds limit"),
+            @ApiResponse(responseCode = "429", description = "Upload queue is full, retry after the Retry-After header"),
+            @ApiResponse(responseCode = "500", description = "Internal server error")
+    })
+    @PostMapping(value = "/upload-async", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<List<UploadJobDTO>> uploadPhotosAsync(
+            @RequestPart("files") MultipartFile[] files) {
+        return photoService.uploadAsync(files);
+    }
+
+    @Operation(summary = "Get upload job", description = "Status of an async upload: QUEUED, PROCESSING, COMPLETED (with the stored file name) or FAILED (with the reason).")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Job status returned"),
+            @ApiResponse(responseCode = "404", description = "Job not found"),
+            @ApiResponse(responseCode = "500", description = "Internal server error")
+    })
+    @GetMapping("/jobs/{jobId}")
+    public ResponseEntity<UploadJobDTO> getUploadJob(
+            @Parameter(description = "Job ID returned by the async upload", required = true) @PathVariable String jobId) {
+        return photoService.getUploadJob(jobId);
+    }
+
+    @Operation(summary = "List photos", description = "List photo metadata newest first, one page at a time. Pass the returned nextCursor to get the following page.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Page returned successfully"),
+            @ApiResponse(responseCode = "400", description = "Invalid cursor, page size or time range"),
+            @ApiResponse(responseCode = "500", description = "Internal server error")
+    })
+    @GetMapping
+    public ResponseEntity<PhotoPageDTO> listPhotos(
+            @Parameter(description = "Cursor from the previous page, omit for the first page") @RequestParam(required = false) String cursor,
+            @Parameter(description = "Page size, capped by photo.listing.max-page-size", example = "50") @RequestParam(required = false) Integer limit,
+            @Parameter(description = "Only photos that were (or were not) resized") @RequestParam(required = false) Boolean processed,
+            @Parameter(description = "Uploaded at or after, ISO date-time", example = "2024-01-01T00:00:00") @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime uploadedFrom,
+            @Parameter(description = "Uploaded at or before, ISO date-time", example = "2024-12-31T23:59:59") @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime uploadedTo) {
+        return photoService.listPhotos(cursor, limit, processed, uploadedFrom, uploadedTo);
+    }
+
+    @Operation(summary = "Download photo", description = "Download the actual photo file (decrypted) as an attachment. Supports Range requests for partial and resumed downloads, and If-None-Match / If-Modified-Since for conditional requests.")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Photo downloaded successfully", content = @Content(mediaType = "image/png, image/jpeg")),
+            @ApiResponse(responseCode = "206", description = "Requested byte range of the photo"),
+            @ApiResponse(responseCode = "304", description = "Photo not modified since the ETag or date sent by the client"),
+            @ApiResponse(responseCode = "400", description = "Unknown size"),
             @ApiResponse(responseCode = "404", description = "Photo not found"),
+            @ApiResponse(responseCode = "416", description = "Requested range not satisfiable"),
             @ApiResponse(responseCode = "500", description = "Internal server error")
     })
     @GetMapping("/download/{fileName}")
-    public ResponseEntity<byte[]> downloadPhoto(
-            @Parameter(description = "Photo name", required = true, example = "weddingPhoto") @PathVariable String fileName) {
-     return photoService.downloadFile(fileName);
+    public ResponseEntity<Resource> downloadPhoto(
+            @Parameter(description = "Photo name", required = true, example = "weddingPhoto") @PathVariable String fileName,
+            @Parameter(description = "Rendition name from photo.renditions, omit for the full photo", example = "thumbnail") @RequestParam(required = false) String size,
+            WebRequest webRequest) {
+     return photoService.downloadFile(fileName, size, webRequest);
+    }
+
+    @Operation(summary = "Render photo", description = "Resize the photo to any size on the fly. The first request for a size renders it, later requests are served from a disk cache. Images are never enlarged. Without format the response may be negotiated from Accept, see photo.encoding.negotiated-formats.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Rendered photo", content = @Content(mediaType = "image/png, image/jpeg, image/webp, image/avif")),
+            @ApiResponse(responseCode = "304", description = "Rendered photo not modified since the ETag or date sent by the client"),
+            @ApiResponse(responseCode = "400", description = "Invalid size, fit, format or quality"),
+            @ApiResponse(responseCode = "404", description = "Photo not found"),
+            @ApiResponse(responseCode = "406", description = "The format needs ImageMagick, which is not available right now"),
+            @ApiResponse(responseCode = "500", description = "Internal server error"),
+            @ApiResponse(responseCode = "503", description = "Too many renders in progress, retry after the Retry-After header")
+    })
+    @GetMapping("/{fileName}/render")
+    public ResponseEntity<Resource> renderPhoto(
+            @Parameter(description = "Photo name", required = true, example = "weddingPhoto") @PathVariable String fileName,
+            @Parameter(description = "Width in pixels, at least one of w and h is required", example = "300") @RequestParam(name = "w", required = false) Integer width,
+            @Parameter(description = "Height in pixels", example = "200") @RequestParam(name = "h", required = false) Integer height,
+            @Parameter(description = "inside (default), cover or fill; cover and fill need both w and h", example = "cover") @RequestParam(required = false) String fit,
+            @Parameter(description = "jpg, png, webp or avif, defaults to the format of the photo; webp and avif are encoded with ImageMagick", example = "webp") @RequestParam(required = false) String format,
+            @Parameter(description = "Quality from 1 to 100 for jpg, webp and avif, defaults to photo.encoding.jpeg-quality, webp-quality or avif-quality; ignored for png, which is lossless", example = "80") @RequestParam(name = "q", required = false) Integer quality,
+            WebRequest webRequest) {
+        return photoService.renderFile(fileName, width, height, fit, format, quality, webRequest);
     }
 
-    @Operation(summary = "Download all photos as ZIP", description = "Download all photos as a ZIP archive (decrypted)")
+    @Operation(summary = "Download all photos as ZIP", description = "Download photos as a ZIP archive (decrypted). Without filters every photo is exported; ids and the upload time range narrow the export to a subset.")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "ZIP file downloaded successfully", content = @Content(mediaType = "application/zip")),
+            @ApiResponse(responseCode = "400", description = "Invalid time range"),
+            @ApiResponse(responseCode = "404", description = "No photo matches the filters"),
             @ApiResponse(responseCode = "500", description = "Internal server error")
     })
     @GetMapping("/download-all")
-    public ResponseEntity<byte[]> downloadAllPhotosAsZip() {
-        return photoService.downloadAllAsZip();
+    public ResponseEntity<StreamingResponseBody> downloadAllPhotosAsZip(
+            @Parameter(description = "Only these photo IDs", example = "1,2,3") @RequestParam(required = false) List<Long> ids,
+            @Parameter(description = "Uploaded at or after, ISO date-time", example = "2024-01-01T00:00:00") @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime uploadedFrom,
+            @Parameter(description = "Uploaded at or before, ISO date-time", example = "2024-12-31T23:59:59") @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime uploadedTo) {
+        return photoService.downloadAllAsZip(ids, uploadedFrom, uploadedTo);
     }
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package com.phototransformation.controller;
 
 import com.phototransformation.dto.PhotoUploadResponseDTO;
+import com.phototransformation.util.PipelineMetrics;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -10,9 +11,16 @@ import org.springframework.web.multipart.MaxUploadSizeExceededException;
 @RestControllerAdvice
 public class GlobalExceptionHandler {
 
+    private final PipelineMetrics pipelineMetrics;
+
+    public GlobalExceptionHandler(final PipelineMetrics pipelineMetrics) {
+        this.pipelineMetrics = pipelineMetrics;
+    }
+
     @ExceptionHandler(MaxUploadSizeExceededException.class)
     public ResponseEntity<PhotoUploadResponseDTO> handleMaxUploadSizeExceededException(
             MaxUploadSizeExceededException e) {
+        pipelineMetrics.rejected(PipelineMetrics.REJECTED_SIZE);
         var response = new PhotoUploadResponseDTO(
                 false,
                 "File size exceeds maximum allowed size",
@@ -1,22 +1,38 @@
 package com.phototransformation.controller.service;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
+import org.springframework.core.io.Resource;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import com.phototransformation.dto.PhotoMetadataDTO;
+import com.phototransformation.dto.PhotoPageDTO;
 import com.phototransformation.dto.PhotoUploadResponseDTO;
+import com.phototransformation.dto.UploadJobDTO;
 
 public interface PhotoService {
 
     ResponseEntity<PhotoUploadResponseDTO> upload(MultipartFile[] files);
 
-    ResponseEntity<byte[]> downloadFile(String fileName);
+    ResponseEntity<List<UploadJobDTO>> uploadAsync(MultipartFile[] files);
+
+    ResponseEntity<UploadJobDTO> getUploadJob(String jobId);
+
+    ResponseEntity<Resource> downloadFile(String fileName, String size, WebRequest webRequest);
+
+    ResponseEntity<Resource> renderFile(String fileName, Integer width, Integer height, String fit, String format,
+                                        Integer quality, WebRequest webRequest);
 
     ResponseEntity<List<PhotoMetadataDTO>> getAllPhotosMetadata();
 
-    ResponseEntity<byte[]> downloadAllAsZip();
+    ResponseEntity<PhotoPageDTO> listPhotos(String cursor, Integer limit, Boolean isProcessed,
+                                            LocalDateTime startDate, LocalDateTime endDate);
+
+    ResponseEntity<StreamingResponseBody> downloadAllAsZip(List<Long> ids, LocalDateTime startDate, LocalDateTime endDate);
 
     ResponseEntity<String> deletePhoto(Long id);
 }
@@ -1,29 +1,108 @@
 package com.phototransformation.controller.service;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.phototransformation.config.PhotoConfiguration;
 import com.phototransformation.dto.PhotoMetadataDTO;
+import com.phototransformation.dto.PhotoPageDTO;
+import com.phototransformation.dto.PhotoUploadFailureDTO;
 import com.phototransformation.dto.PhotoUploadResponseDTO;
+import com.phototransformation.dto.UploadJobDTO;
 import com.phototransformation.mapper.Mappers;
 import com.phototransformation.service.PhotoManagerService;
+import com.phototransformation.service.PhotoUploadResult;
+import com.phototransformation.service.RenderService;
+import com.phototransformation.service.RenderSpec;
+import com.phototransformation.service.UploadJobService;
+import com.phototransformation.service.TransformationCapacityException;
+import com.phototransformation.service.UploadQueueFullException;
+import com.phototransformation.util.FormatUnavailableException;
+import com.phototransformation.util.ImageFormat;
+import com.phototransformation.util.PipelineMetrics;
 
 @Service
 public class PhotoServiceImpl implements PhotoService {
 
+    private static final Logger log = LoggerFactory.getLogger(PhotoServiceImpl.class);
+
+    private static final int ZIP_BUFFER_SIZE = 64 * 1024;
+
     private final PhotoManagerService managerService;
+    private final UploadJobService uploadJobService;
+    private final RenderService renderService;
+    private final PhotoConfiguration photoConfiguration;
+    private final PipelineMetrics pipelineMetrics;
+    private final Executor photoExportExecutor;
+    private final CacheControl downloadCacheControl;
+    private final List<ImageFormat> negotiatedFormats;
 
-    public PhotoServiceImpl(final PhotoManagerService photoManagerService) {
+    public PhotoServiceImpl(final PhotoManagerService photoManagerService,
+                            final UploadJobService uploadJobService,
+                            final RenderService renderService,
+                            final PhotoConfiguration photoConfiguration,
+                            final PipelineMetrics pipelineMetrics,
+                            @Qualifier("photoExportExecutor") final Executor photoExportExecutor) {
         this.managerService = photoManagerService;
+        this.uploadJobService = uploadJobService;
+        this.renderService = renderService;
+        this.photoConfiguration = photoConfiguration;
+        this.pipelineMetrics = pipelineMetrics;
+        this.photoExportExecutor = photoExportExecutor;
+        this.downloadCacheControl = CacheControl
+                .maxAge(Duration.ofSeconds(photoConfiguration.getDownload().getCacheMaxAgeSeconds()))
+                .cachePublic()
+                .immutable();
+        this.negotiatedFormats = parseFormats(photoConfiguration.getEncoding().getNegotiatedFormats());
+    }
+
+    private static List<ImageFormat> parseFormats(String formats) {
+        if (formats == null || formats.isBlank()) {
+            return List.of();
+        }
+        return Arrays.stream(formats.split(","))
+                .map(String::trim)
+                .filter(name -> !name.isEmpty())
+                .map(ImageFormat::fromName)
+                .toList();
     }
 
     @Override
@@ -34,15 +113,42 @@ public class PhotoServiceImpl implements PhotoService {
                         .body(new PhotoUploadResponseDTO(false, "No files provided", null));
             }
 
-            var savedPhotos = managerService.processAndSavePhotos(files);
-            var photoDTOs = savedPhotos.stream()
-                    .map(Mappers::convertToDTO)
+            var results = managerService.processAndSavePhotos(files);
+            var photoDTOs = results.stream()
+                    .filter(PhotoUploadResult::isSuccess)
+                    .map(result -> Mappers.convertToDTO(result.getPhoto()))
+                    .toList();
+            var failures = results.stream()
+                    .filter(result -> !result.isSuccess())
+                    .map(result -> new PhotoUploadFailureDTO(result.getOriginalFileName(), failureMessage(result.getError())))
                     .toList();
 
-            var message = String.format("Successfully uploaded %d photo(s)", savedPhotos.size());
-            var response = new PhotoUploadResponseDTO(true, message, photoDTOs);
+            if (failures.isEmpty()) {
+                var message = String.format("Successfully uploaded %d photo(s)", photoDTOs.size());
+                return ResponseEntity.ok(new PhotoUploadResponseDTO(true, message, photoDTOs, failures));
+            }
 
-            return ResponseEntity.ok(response);
+            if (photoDTOs.isEmpty()) {
+                var busy = results.stream()
+                        .filter(result -> result.getError() instanceof TransformationCapacityException)
+                        .map(result -> (TransformationCapacityException) result.getError())
+                        .toList();
+                if (busy.size() == results.size()) {
+                    return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                            .header(HttpHeaders.RETRY_AFTER, String.valueOf(busy.get(0).getRetryAfterSeconds()))
+                            .body(new PhotoUploadResponseDTO(false, failures.get(0).getMessage(), photoDTOs, failures));
+                }
+                var clientError = results.stream()
+                        .allMatch(result -> result.getError() instanceof IllegalArgumentException);
+                var message = failures.size() == 1
+                        ? failures.get(0).getMessage()
+                        : String.format("All %d photo(s) failed to upload", failures.size());
+                return ResponseEntity.status(clientError ? HttpStatus.BAD_REQUEST : HttpStatus.INTERNAL_SERVER_ERROR)
+                        .body(new PhotoUploadResponseDTO(false, message, photoDTOs, failures));
+            }
+
+            var message = String.format("Uploaded %d of %d photo(s)", photoDTOs.size(), results.size());
+            return ResponseEntity.ok(new PhotoUploadResponseDTO(false, message, photoDTOs, failures));
 
         } catch (IllegalArgumentException e) {
             return ResponseEntity.badRequest()
@@ -53,28 +159,193 @@ public class PhotoServiceImpl implements PhotoService {
         }
     }
 
+    private String failureMessage(Exception error) {
+        return error instanceof IllegalArgumentException
+                ? error.getMessage()
+                : "Upload failed: " + error.getMessage();
+    }
+
+    @Override
+    public ResponseEntity<List<UploadJobDTO>> uploadAsync(MultipartFile[] files) {
+        try {
+            if (files == null || files.length == 0) {
+                return ResponseEntity.badRequest().build();
+            }
+
+            var jobs = uploadJobService.submit(files).stream()
+                    .map(Mappers::convertToDTO)
+                    .toList();
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(jobs);
+
+        } catch (UploadQueueFullException e) {
+            log.info(e.getMessage());
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .build();
+        } catch (Exception e) {
+            log.error("Async upload failed", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    @Override
+    public ResponseEntity<UploadJobDTO> getUploadJob(String jobId) {
+        try {
+            return ResponseEntity.ok(Mappers.convertToDTO(uploadJobService.getJob(jobId)));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.notFound().build();
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
     @Override
-    public ResponseEntity<byte[]> downloadFile(String fileName) {
+    public ResponseEntity<Resource> downloadFile(String fileName, String size, WebRequest webRequest) {
+        if (size != null && photoConfiguration.getRenditions().stream().noneMatch(r -> size.equals(r.getName()))) {
+            return ResponseEntity.badRequest().build();
+        }
+
         try {
             var photoMetadata = managerService.getPhotoMetadata(fileName);
-            var photoData = managerService.getPhotoData(fileName);
+            // Photos that already fit the requested size have no rendition, the original is served then
+            var rendition = size != null ? managerService.getRendition(fileName, size) : null;
+            var etag = rendition != null ? rendition.getEtag() : photoMetadata.getEtag();
 
+            // Answered from the metadata rows alone; checkNotModified also adds ETag and Last-Modified to the response
+            var lastModified = photoMetadata.getUploadedAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            var notModified = etag != null
+                    ? webRequest.checkNotModified(etag, lastModified)
+                    : webRequest.checkNotModified(lastModified);
+            if (notModified) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                        .cacheControl(downloadCacheControl)
+                        .build();
+            }
+
+            var photoResource = rendition != null
+                    ? managerService.getRenditionResource(rendition)
+                    : managerService.getPhotoResource(fileName);
+
+            // Content-Length, Accept-Ranges and 206 partial responses for Range requests are handled by Spring
             var headers = new HttpHeaders();
+            headers.setCacheControl(downloadCacheControl);
             headers.setContentType(MediaType.parseMediaType(photoMetadata.getContentType()));
             headers.setContentDispositionFormData("attachment", photoMetadata.getOriginalFileName());
-            headers.setContentLength(photoData.length);
+            // The whole photo, also when a Range request asks for a part of it
+            pipelineMetrics.bytesOut(photoResource.contentLength());
+
+            return ResponseEntity.ok()
+                    .headers(headers)
+                    .body(photoResource);
+
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.notFound().build();
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    @Override
+    public ResponseEntity<Resource> renderFile(String fileName, Integer width, Integer height, String fit,
+                                               String format, Integer quality, WebRequest webRequest) {
+        RenderSpec requested;
+        try {
+            requested = RenderSpec.parse(width, height, fit, format, quality,
+                    photoConfiguration.getRender().getMaxDimension());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        // Without an explicit format the response depends on Accept, shared caches must key on it
+        var negotiated = requested.getFormat() == null && !negotiatedFormats.isEmpty();
+        if (negotiated) {
+            var preferred = negotiateFormat(webRequest.getHeader(HttpHeaders.ACCEPT));
+            if (preferred != null) {
+                requested = requested.withFormat(preferred);
+            }
+        }
+
+        try {
+            var photoMetadata = managerService.getPhotoMetadata(fileName);
+            // The key of the resolved spec changes with photo.encoding, so do the ETag and the cache entry
+            var spec = renderService.resolve(requested.withDefaultFormat(photoMetadata.getContentType()));
+
+            // A variant is fully determined by the stored photo and the spec, so it is validated without rendering
+            var lastModified = photoMetadata.getUploadedAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            var notModified = photoMetadata.getEtag() != null
+                    ? webRequest.checkNotModified(photoMetadata.getEtag() + "-" + spec.key(), lastModified)
+                    : webRequest.checkNotModified(lastModified);
+            var headers = new HttpHeaders();
+            headers.setCacheControl(downloadCacheControl);
+            if (negotiated) {
+                headers.setVary(List.of(HttpHeaders.ACCEPT));
+            }
+            if (notModified) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                        .headers(headers)
+                        .build();
+            }
+
+            byte[] rendered;
+            try {
+                rendered = renderService.render(photoMetadata, spec);
+            } catch (TransformationCapacityException e) {
+                log.info(e.getMessage());
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                        .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                        .build();
+            } catch (FormatUnavailableException e) {
+                log.warn("Rendering {} as {} failed: {}", fileName, e.getFormat().getExtension(), e.getMessage());
+                return ResponseEntity.status(HttpStatus.NOT_ACCEPTABLE).build();
+            }
+
+            headers.setContentType(MediaType.parseMediaType(spec.getContentType()));
+            headers.setContentDisposition(ContentDisposition.inline().filename(spec.key()).build());
+            pipelineMetrics.bytesOut(rendered.length);
 
             return ResponseEntity.ok()
                     .headers(headers)
-                    .body(photoData);
+                    .body(new ByteArrayResource(rendered));
 
         } catch (IllegalArgumentException e) {
             return ResponseEntity.notFound().build();
         } catch (Exception e) {
+            log.error("Rendering {} failed", fileName, e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
 
+    /**
+     * Picks the first of photo.encoding.negotiated-formats that the client
+     * names in Accept. Wildcards do not count: browsers send image/* with every
+     * image request, only an explicit image/webp or image/avif shows support.
+     * Formats that cannot be encoded right now are skipped.
+     */
+    private ImageFormat negotiateFormat(String accept) {
+        if (accept == null) {
+            return null;
+        }
+        List<MediaType> accepted;
+        try {
+            accepted = MediaType.parseMediaTypes(accept);
+        } catch (InvalidMediaTypeException e) {
+            return null;
+        }
+        for (var format : negotiatedFormats) {
+            var mediaType = MediaType.parseMediaType(format.getContentType());
+            for (var candidate : accepted) {
+                if (!candidate.isWildcardSubtype() && candidate.getQualityValue() > 0 && candidate.includes(mediaType)) {
+                    // A format ImageMagick cannot write right now falls through to the next one
+                    if (renderService.canEncode(format)) {
+                        return format;
+                    }
+                    break;
+                }
+            }
+        }
+        return null;
+    }
+
     @Override
     public ResponseEntity<List<PhotoMetadataDTO>> getAllPhotosMetadata() {
         try {
@@ -86,43 +357,149 @@ public class PhotoServiceImpl implements PhotoService {
     }
 
     @Override
-    public ResponseEntity<byte[]> downloadAllAsZip() {
+    public ResponseEntity<PhotoPageDTO> listPhotos(String cursor, Integer limit, Boolean isProcessed,
+                                                   LocalDateTime startDate, LocalDateTime endDate) {
         try {
-            var allPhotos = managerService.getAllPhotosMetadata();
-
-            if (allPhotos.isEmpty()) {
-                return ResponseEntity.notFound().build();
-            }
-
-            var baos = new ByteArrayOutputStream();
-            var zos = new ZipOutputStream(baos);
+            return ResponseEntity.ok(managerService.getPhotosPage(cursor, limit, isProcessed, startDate, endDate));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
 
-            for (var photo : allPhotos) {
-                var photoData = managerService.getPhotoData(photo.getFileName());
+    @Override
+    public ResponseEntity<StreamingResponseBody> downloadAllAsZip(List<Long> ids, LocalDateTime startDate,
+                                                                  LocalDateTime endDate) {
+        try {
+            Iterator<PhotoMetadataDTO> photos = ids != null && !ids.isEmpty()
+                    ? managerService.getPhotosMetadataByIds(ids, startDate, endDate).iterator()
+                    : new PhotoPageIterator(startDate, endDate);
 
-                var entry = new ZipEntry(photo.getOriginalFileName());
-                zos.putNextEntry(entry);
-                zos.write(photoData);
-                zos.closeEntry();
+            if (!photos.hasNext()) {
+                return ResponseEntity.notFound().build();
             }
 
-            zos.close();
-            var zipData = baos.toByteArray();
+            StreamingResponseBody body = out -> writeZip(photos, out);
 
             var headers = new HttpHeaders();
             headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
             headers.setContentDispositionFormData("attachment", "photos.zip");
-            headers.setContentLength(zipData.length);
 
             return ResponseEntity.ok()
                     .headers(headers)
-                    .body(zipData);
+                    .body(body);
 
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
 
+    /**
+     * Writes the archive straight to the response. While one entry goes out,
+     * the next photo.export.prefetch-window photos are read and decrypted on the
+     * export pool; entries are still written in listing order, so memory holds
+     * at most window + 1 decrypted photos. Once the first bytes are sent the
+     * status can no longer change, so a failing photo aborts the stream and the
+     * client sees a truncated download.
+     */
+    private void writeZip(Iterator<PhotoMetadataDTO> photos, OutputStream out) throws IOException {
+        var zos = new ZipOutputStream(new BufferedOutputStream(out, ZIP_BUFFER_SIZE));
+        var entryNames = new HashSet<String>();
+        var window = Math.max(1, photoConfiguration.getExport().getPrefetchWindow());
+        var pending = new ArrayDeque<PrefetchedPhoto>(window);
+
+        try {
+            prefetch(photos, pending, window);
+            while (!pending.isEmpty()) {
+                var next = pending.poll();
+                var photoData = await(next);
+
+                // Top the window up before writing so the workers stay busy while this entry is sent
+                prefetch(photos, pending, window);
+
+                var photo = next.photo;
+                var entryStart = System.nanoTime();
+                writeEntry(zos, uniqueEntryName(photo.getOriginalFileName(), entryNames), photo.getContentType(), photoData);
+                pipelineMetrics.record(PipelineMetrics.ZIP_ENTRY, System.nanoTime() - entryStart);
+                pipelineMetrics.bytesOut(photoData.length);
+            }
+
+            zos.finish();
+            zos.flush();
+        } finally {
+            pending.forEach(prefetched -> prefetched.data.cancel(false));
+        }
+    }
+
+    private void prefetch(Iterator<PhotoMetadataDTO> photos, Deque<PrefetchedPhoto> pending, int window) {
+        while (pending.size() < window && photos.hasNext()) {
+            var photo = photos.next();
+            var data = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return managerService.getPhotoData(photo.getFileName());
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, photoExportExecutor);
+            pending.add(new PrefetchedPhoto(photo, data));
+        }
+    }
+
+    private static byte[] await(PrefetchedPhoto prefetched) throws IOException {
+        try {
+            return prefetched.data.join();
+        } catch (CompletionException | CancellationException e) {
+            var fileName = prefetched.photo.getFileName();
+            log.error("ZIP export aborted at photo {}", fileName, e);
+            throw new IOException("Could not export photo " + fileName, e.getCause() != null ? e.getCause() : e);
+        }
+    }
+
+    private static void writeEntry(ZipOutputStream zos, String name, String contentType, byte[] data) throws IOException {
+        var entry = new ZipEntry(name);
+        if (isCompressed(contentType)) {
+            // JPEG and PNG do not shrink any further, STORED skips the deflater entirely
+            var crc = new CRC32();
+            crc.update(data);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(data.length);
+            entry.setCompressedSize(data.length);
+            entry.setCrc(crc.getValue());
+        }
+        zos.putNextEntry(entry);
+        zos.write(data);
+        zos.closeEntry();
+    }
+
+    private static boolean isCompressed(String contentType) {
+        return contentType != null && (contentType.equalsIgnoreCase("image/jpeg")
+                || contentType.equalsIgnoreCase("image/jpg")
+                || contentType.equalsIgnoreCase("image/png"));
+    }
+
+    /**
+     * ZIP entries must be unique, but original file names are not
+     */
+    private static String uniqueEntryName(String originalFileName, Set<String> usedNames) {
+        var name = originalFileName != null && !originalFileName.isEmpty() ? originalFileName : "photo";
+        if (usedNames.add(name)) {
+            return name;
+        }
+
+        var dot = name.lastIndexOf('.');
+        var base = dot > 0 ? name.substring(0, dot) : name;
+        var extension = dot > 0 ? name.substring(dot) : "";
+        for (var i = 1; ; i++) {
+            var candidate = base + " (" + i + ")" + extension;
+            if (usedNames.add(candidate)) {
+                return candidate;
+            }
+        }
+    }
+
     @Override
     public ResponseEntity<String> deletePhoto(Long id) {
         try {
@@ -134,4 +511,52 @@ public class PhotoServiceImpl implements PhotoService {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
+
+    private static final class PrefetchedPhoto {
+
+        private final PhotoMetadataDTO photo;
+        private final CompletableFuture<byte[]> data;
+
+        PrefetchedPhoto(PhotoMetadataDTO photo, CompletableFuture<byte[]> data) {
+            this.photo = photo;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Walks the keyset listing lazily, loading the next page only when the
+     * current one is used up
+     */
+    private final class PhotoPageIterator implements Iterator<PhotoMetadataDTO> {
+
+        private final LocalDateTime startDate;
+        private final LocalDateTime endDate;
+        private Iterator<PhotoMetadataDTO> page = Collections.emptyIterator();
+        private String cursor;
+        private boolean lastPage;
+
+        PhotoPageIterator(LocalDateTime startDate, LocalDateTime endDate) {
+            this.startDate = startDate;
+            this.endDate = endDate;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!page.hasNext() && !lastPage) {
+                var next = managerService.getPhotosPage(cursor, null, null, startDate, endDate);
+                page = next.getPhotos().iterator();
+                cursor = next.getNextCursor();
+                lastPage = cursor == null;
+            }
+            return page.hasNext();
+        }
+
+        @Override
+        public PhotoMetadataDTO next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return page.next();
+        }
+    }
 }
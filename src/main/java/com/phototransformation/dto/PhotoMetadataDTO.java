@@ -16,6 +16,7 @@ public class PhotoMetadataDTO {
     private LocalDateTime uploadedAt;
     private LocalDateTime processedAt;
     private Boolean isProcessed;
+    private String etag;
     
     // Constructors
     public PhotoMetadataDTO() {}
@@ -116,4 +117,12 @@ public class PhotoMetadataDTO {
     public void setIsProcessed(Boolean isProcessed) {
         this.isProcessed = isProcessed;
     }
+    
+    public String getEtag() {
+        return etag;
+    }
+    
+    public void setEtag(String etag) {
+        this.etag = etag;
+    }
 }
\ No newline at end of file
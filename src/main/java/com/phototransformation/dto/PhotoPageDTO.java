@@ -0,0 +1,55 @@
+package com.phototransformation.dto;
+
+import java.util.List;
+
+public class PhotoPageDTO {
+    
+    private List<PhotoMetadataDTO> photos;
+    private int size;
+    private String nextCursor;
+    private boolean hasMore;
+    
+    public PhotoPageDTO() {}
+    
+    public PhotoPageDTO(List<PhotoMetadataDTO> photos, String nextCursor) {
+        this.photos = photos;
+        this.size = photos != null ? photos.size() : 0;
+        this.nextCursor = nextCursor;
+        this.hasMore = nextCursor != null;
+    }
+    
+    public List<PhotoMetadataDTO> getPhotos() {
+        return photos;
+    }
+    
+    public void setPhotos(List<PhotoMetadataDTO> photos) {
+        this.photos = photos;
+    }
+    
+    public int getSize() {
+        return size;
+    }
+    
+    public void setSize(int size) {
+        this.size = size;
+    }
+    
+    /**
+     * Opaque cursor to pass back for the next page, null on the last page
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+    
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+    
+    public boolean isHasMore() {
+        return hasMore;
+    }
+    
+    public void setHasMore(boolean hasMore) {
+        this.hasMore = hasMore;
+    }
+}
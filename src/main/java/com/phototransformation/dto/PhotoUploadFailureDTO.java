@@ -0,0 +1,30 @@
+package com.phototransformation.dto;
+
+public class PhotoUploadFailureDTO {
+    
+    private String originalFileName;
+    private String message;
+    
+    public PhotoUploadFailureDTO() {}
+    
+    public PhotoUploadFailureDTO(String originalFileName, String message) {
+        this.originalFileName = originalFileName;
+        this.message = message;
+    }
+    
+    public String getOriginalFileName() {
+        return originalFileName;
+    }
+    
+    public void setOriginalFileName(String originalFileName) {
+        this.originalFileName = originalFileName;
+    }
+    
+    public String getMessage() {
+        return message;
+    }
+    
+    public void setMessage(String message) {
+        this.message = message;
+    }
+}
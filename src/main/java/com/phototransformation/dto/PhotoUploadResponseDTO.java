@@ -8,6 +8,8 @@ public class PhotoUploadResponseDTO {
     private String message;
     private List<PhotoMetadataDTO> uploadedPhotos;
     private int totalUploaded;
+    private List<PhotoUploadFailureDTO> failedUploads;
+    private int totalFailed;
     
     public PhotoUploadResponseDTO() {}
     
@@ -18,6 +20,13 @@ public class PhotoUploadResponseDTO {
         this.totalUploaded = uploadedPhotos != null ? uploadedPhotos.size() : 0;
     }
     
+    public PhotoUploadResponseDTO(boolean success, String message, List<PhotoMetadataDTO> uploadedPhotos,
+                                  List<PhotoUploadFailureDTO> failedUploads) {
+        this(success, message, uploadedPhotos);
+        this.failedUploads = failedUploads;
+        this.totalFailed = failedUploads != null ? failedUploads.size() : 0;
+    }
+    
     public boolean isSuccess() {
         return success;
     }
@@ -50,4 +59,21 @@ public class PhotoUploadResponseDTO {
     public void setTotalUploaded(int totalUploaded) {
         this.totalUploaded = totalUploaded;
     }
+    
+    public List<PhotoUploadFailureDTO> getFailedUploads() {
+        return failedUploads;
+    }
+    
+    public void setFailedUploads(List<PhotoUploadFailureDTO> failedUploads) {
+        this.failedUploads = failedUploads;
+        this.totalFailed = failedUploads != null ? failedUploads.size() : 0;
+    }
+    
+    public int getTotalFailed() {
+        return totalFailed;
+    }
+    
+    public void setTotalFailed(int totalFailed) {
+        this.totalFailed = totalFailed;
+    }
 }
\ No newline at end of file
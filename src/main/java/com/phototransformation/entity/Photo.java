@@ -4,7 +4,13 @@ import jakarta.persistence.*;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "PHOTOS")
+@Table(name = "PHOTOS", indexes = {
+        @Index(name = "IDX_PHOTOS_FILE_NAME", columnList = "FILE_NAME"),
+        @Index(name = "IDX_PHOTOS_UPLOADED_AT_ID", columnList = "UPLOADED_AT, ID"),
+        @Index(name = "IDX_PHOTOS_PROCESSED_UPLOADED_AT_ID", columnList = "IS_PROCESSED, UPLOADED_AT, ID"),
+        @Index(name = "IDX_PHOTOS_CONTENT_HASH", columnList = "CONTENT_HASH"),
+        @Index(name = "IDX_PHOTOS_STORAGE_KEY", columnList = "STORAGE_KEY")
+})
 public class Photo {
    /*   Ezt az entity packaget alap esetben egy persistence/persistence-api modul alá
      szervezném. */
@@ -36,9 +42,17 @@ public class Photo {
     @Column(name = "RESIZED_HEIGHT")
     private Double resizedHeight;
 
-    @Lob
-    @Column(name = "ENCRYPTED_DATA", nullable = false, columnDefinition = "LONGBLOB")
-    private byte[] encryptedData;
+    // SHA-256 key of the encrypted blob in the photo storage, the bytes themselves live outside the table
+    @Column(name = "STORAGE_KEY", nullable = false, length = 64)
+    private String storageKey;
+
+    // SHA-256 of the decrypted photo bytes, served as the strong ETag of downloads
+    @Column(name = "ETAG", length = 64)
+    private String etag;
+
+    // SHA-256 of the uploaded bytes before any processing; uploads of the same bytes share the stored blobs
+    @Column(name = "CONTENT_HASH", length = 64)
+    private String contentHash;
 
     @Column(name = "UPLOADED_AT", nullable = false)
     private LocalDateTime uploadedAt;
@@ -125,12 +139,28 @@ public class Photo {
         this.resizedHeight = resizedHeight;
     }
 
-    public byte[] getEncryptedData() {
-        return encryptedData;
+    public String getStorageKey() {
+        return storageKey;
+    }
+
+    public void setStorageKey(String storageKey) {
+        this.storageKey = storageKey;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public void setEtag(String etag) {
+        this.etag = etag;
+    }
+
+    public String getContentHash() {
+        return contentHash;
     }
 
-    public void setEncryptedData(byte[] encryptedData) {
-        this.encryptedData = encryptedData;
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
     }
 
     public LocalDateTime getUploadedAt() {
@@ -0,0 +1,106 @@
+package com.phototransformation.entity;
+
+import jakarta.persistence.*;
+
+/**
+ * A smaller copy of a {@link Photo} generated at upload time for one of the
+ * configured renditions. Photos that already fit a rendition's bounds have no
+ * row for it; the original is served instead.
+ */
+@Entity
+@Table(name = "PHOTO_RENDITIONS", uniqueConstraints = {
+        @UniqueConstraint(name = "UK_PHOTO_RENDITIONS_PHOTO_ID_NAME", columnNames = { "PHOTO_ID", "NAME" })
+}, indexes = {
+        @Index(name = "IDX_PHOTO_RENDITIONS_STORAGE_KEY", columnList = "STORAGE_KEY")
+})
+public class PhotoRendition {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "PHOTO_ID", nullable = false)
+    private Long photoId;
+
+    @Column(name = "NAME", nullable = false, length = 32)
+    private String name;
+
+    @Column(name = "WIDTH", nullable = false)
+    private Integer width;
+
+    @Column(name = "HEIGHT", nullable = false)
+    private Integer height;
+
+    @Column(name = "FILE_SIZE", nullable = false)
+    private Long fileSize;
+
+    @Column(name = "STORAGE_KEY", nullable = false, length = 64)
+    private String storageKey;
+
+    @Column(name = "ETAG", length = 64)
+    private String etag;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getPhotoId() {
+        return photoId;
+    }
+
+    public void setPhotoId(Long photoId) {
+        this.photoId = photoId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public Integer getWidth() {
+        return width;
+    }
+
+    public void setWidth(Integer width) {
+        this.width = width;
+    }
+
+    public Integer getHeight() {
+        return height;
+    }
+
+    public void setHeight(Integer height) {
+        this.height = height;
+    }
+
+    public Long getFileSize() {
+        return fileSize;
+    }
+
+    public void setFileSize(Long fileSize) {
+        this.fileSize = fileSize;
+    }
+
+    public String getStorageKey() {
+        return storageKey;
+    }
+
+    public void setStorageKey(String storageKey) {
+        this.storageKey = storageKey;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public void setEtag(String etag) {
+        this.etag = etag;
+    }
+}
@@ -0,0 +1,151 @@
+package com.phototransformation.entity;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * An upload accepted in async mode. The raw file is kept encrypted in the
+ * photo storage under {@link #spoolKey} until a worker has turned it into a
+ * {@link Photo}, so queued jobs survive a restart together with the table.
+ */
+@Entity
+@Table(name = "UPLOAD_JOBS", indexes = {
+        @Index(name = "IDX_UPLOAD_JOBS_STATUS_CREATED_AT", columnList = "STATUS, CREATED_AT")
+})
+public class UploadJob {
+
+    public enum Status {
+        QUEUED,
+        PROCESSING,
+        COMPLETED,
+        FAILED
+    }
+
+    @Id
+    @Column(name = "ID", length = 36)
+    private String id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "STATUS", nullable = false, length = 16)
+    private Status status = Status.QUEUED;
+
+    @Column(name = "ORIGINAL_FILE_NAME")
+    private String originalFileName;
+
+    @Column(name = "CONTENT_TYPE")
+    private String contentType;
+
+    @Column(name = "FILE_SIZE", nullable = false)
+    private Long fileSize;
+
+    // Encrypted raw upload in the photo storage, removed once the job has finished
+    @Column(name = "SPOOL_KEY", length = 64)
+    private String spoolKey;
+
+    @Column(name = "PHOTO_FILE_NAME")
+    private String photoFileName;
+
+    @Column(name = "ERROR_MESSAGE", length = 1000)
+    private String errorMessage;
+
+    @Column(name = "CREATED_AT", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "STARTED_AT")
+    private LocalDateTime startedAt;
+
+    @Column(name = "FINISHED_AT")
+    private LocalDateTime finishedAt;
+
+    public UploadJob() {
+        this.createdAt = LocalDateTime.now();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public String getOriginalFileName() {
+        return originalFileName;
+    }
+
+    public void setOriginalFileName(String originalFileName) {
+        this.originalFileName = originalFileName;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public Long getFileSize() {
+        return fileSize;
+    }
+
+    public void setFileSize(Long fileSize) {
+        this.fileSize = fileSize;
+    }
+
+    public String getSpoolKey() {
+        return spoolKey;
+    }
+
+    public void setSpoolKey(String spoolKey) {
+        this.spoolKey = spoolKey;
+    }
+
+    public String getPhotoFileName() {
+        return photoFileName;
+    }
+
+    public void setPhotoFileName(String photoFileName) {
+        this.photoFileName = photoFileName;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public void setErrorMessage(String errorMessage) {
+        this.errorMessage = errorMessage;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public LocalDateTime getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(LocalDateTime startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    public LocalDateTime getFinishedAt() {
+        return finishedAt;
+    }
+
+    public void setFinishedAt(LocalDateTime finishedAt) {
+        this.finishedAt = finishedAt;
+    }
+}
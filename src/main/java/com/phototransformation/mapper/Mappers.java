@@ -1,7 +1,10 @@
 package com.phototransformation.mapper;
 
 import com.phototransformation.dto.PhotoMetadataDTO;
+import com.phototransformation.dto.UploadJobDTO;
 import com.phototransformation.entity.Photo;
+import com.phototransformation.entity.UploadJob;
+import com.phototransformation.repository.PhotoMetadataView;
 
 public class Mappers {
 
@@ -26,6 +29,44 @@ public class Mappers {
         dto.setUploadedAt(photo.getUploadedAt());
         dto.setProcessedAt(photo.getProcessedAt());
         dto.setIsProcessed(photo.getIsProcessed());
+        dto.setEtag(photo.getEtag());
+        return dto;
+    }
+
+    /**
+     * Convert metadata projection to DTO
+     */
+    public static PhotoMetadataDTO convertToDTO(PhotoMetadataView photo) {
+        var dto = new PhotoMetadataDTO();
+        dto.setId(photo.getId());
+        dto.setOriginalFileName(photo.getOriginalFileName());
+        dto.setFileName(photo.getFileName());
+        dto.setContentType(photo.getContentType());
+        dto.setFileSize(photo.getFileSize());
+        dto.setOriginalWidth(photo.getOriginalWidth());
+        dto.setOriginalHeight(photo.getOriginalHeight());
+        dto.setResizedWidth(photo.getResizedWidth());
+        dto.setResizedHeight(photo.getResizedHeight());
+        dto.setUploadedAt(photo.getUploadedAt());
+        dto.setProcessedAt(photo.getProcessedAt());
+        dto.setIsProcessed(photo.getIsProcessed());
+        dto.setEtag(photo.getEtag());
+        return dto;
+    }
+
+    /**
+     * Convert upload job to DTO
+     */
+    public static UploadJobDTO convertToDTO(UploadJob job) {
+        var dto = new UploadJobDTO();
+        dto.setJobId(job.getId());
+        dto.setStatus(job.getStatus().name());
+        dto.setOriginalFileName(job.getOriginalFileName());
+        dto.setFileName(job.getPhotoFileName());
+        dto.setMessage(job.getErrorMessage());
+        dto.setCreatedAt(job.getCreatedAt());
+        dto.setStartedAt(job.getStartedAt());
+        dto.setFinishedAt(job.getFinishedAt());
         return dto;
     }
 }
@@ -0,0 +1,37 @@
+package com.phototransformation.repository;
+
+import java.time.LocalDateTime;
+
+/**
+ * Closed projection over {@link com.phototransformation.entity.Photo} with the
+ * columns needed for metadata listings. Queries returning it select only these
+ * columns and create no managed entities.
+ */
+public interface PhotoMetadataView {
+
+    Long getId();
+
+    String getOriginalFileName();
+
+    String getFileName();
+
+    String getContentType();
+
+    Long getFileSize();
+
+    Double getOriginalWidth();
+
+    Double getOriginalHeight();
+
+    Double getResizedWidth();
+
+    Double getResizedHeight();
+
+    LocalDateTime getUploadedAt();
+
+    LocalDateTime getProcessedAt();
+
+    Boolean getIsProcessed();
+
+    String getEtag();
+}
@@ -0,0 +1,30 @@
+package com.phototransformation.repository;
+
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.phototransformation.entity.PhotoRendition;
+
+@Repository
+public interface PhotoRenditionRepository extends JpaRepository<PhotoRendition, Long> {
+
+    List<PhotoRendition> findByPhotoId(Long photoId);
+
+    /**
+     * @return Number of renditions referencing the blob
+     */
+    long countByStorageKey(String storageKey);
+
+    @Query("select r.storageKey from PhotoRendition r where r.storageKey is not null")
+    List<String> findAllStorageKeys();
+
+    @Query("""
+            select r from PhotoRendition r, Photo p
+            where p.fileName = :fileName and r.photoId = p.id and r.name = :name
+            """)
+    PhotoRendition findByPhotoFileNameAndName(@Param("fileName") String fileName, @Param("name") String name);
+}
@@ -1,9 +1,14 @@
 package com.phototransformation.repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import com.phototransformation.entity.Photo;
@@ -18,4 +23,59 @@ public interface PhotoRepository extends JpaRepository<Photo, Long> {
     List<Photo> findByOriginalFileNameContaining(String fileName);
     
     Photo findByFileName(String fileName);
+
+    boolean existsByFileName(String fileName);
+    
+    /**
+     * @return A photo uploaded with the same bytes, or null
+     */
+    Photo findFirstByContentHash(String contentHash);
+    
+    /**
+     * @return Number of photos referencing the blob; blobs are shared by
+     * photos uploaded with the same bytes
+     */
+    long countByStorageKey(String storageKey);
+
+    @Query("select p.storageKey from Photo p where p.storageKey is not null")
+    List<String> findAllStorageKeys();
+    
+    List<PhotoMetadataView> findAllProjectedBy();
+    
+    PhotoMetadataView findMetadataByFileName(String fileName);
+    
+    List<PhotoMetadataView> findProjectedByIdIn(Collection<Long> ids, Sort sort);
+    
+    /**
+     * One page of the metadata listing, newest first, using keyset pagination:
+     * rows are located through the (UPLOADED_AT, ID) index instead of skipped
+     * with OFFSET, so every page costs the same however deep it is. Null
+     * arguments disable the corresponding filter; the processed and upload time
+     * filters match findByIsProcessed and findByUploadedAtBetween
+     * @param afterUploadedAt Upload time of the last row on the previous page, null for the first page
+     * @param afterId Id of the last row on the previous page
+     * @param limit Page size; the page number is ignored, the cursor does the paging
+     */
+    @Query("""
+            select p.id as id, p.originalFileName as originalFileName, p.fileName as fileName,
+                   p.contentType as contentType, p.fileSize as fileSize,
+                   p.originalWidth as originalWidth, p.originalHeight as originalHeight,
+                   p.resizedWidth as resizedWidth, p.resizedHeight as resizedHeight,
+                   p.uploadedAt as uploadedAt, p.processedAt as processedAt, p.isProcessed as isProcessed,
+                   p.etag as etag
+            from Photo p
+            where (:isProcessed is null or p.isProcessed = :isProcessed)
+              and (:startDate is null or p.uploadedAt >= :startDate)
+              and (:endDate is null or p.uploadedAt <= :endDate)
+              and (:afterUploadedAt is null
+                   or p.uploadedAt < :afterUploadedAt
+                   or (p.uploadedAt = :afterUploadedAt and p.id < :afterId))
+            order by p.uploadedAt desc, p.id desc
+            """)
+    List<PhotoMetadataView> findPage(@Param("isProcessed") Boolean isProcessed,
+                                     @Param("startDate") LocalDateTime startDate,
+                                     @Param("endDate") LocalDateTime endDate,
+                                     @Param("afterUploadedAt") LocalDateTime afterUploadedAt,
+                                     @Param("afterId") Long afterId,
+                                     Pageable limit);
 }
\ No newline at end of file
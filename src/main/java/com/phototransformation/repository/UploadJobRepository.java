@@ -0,0 +1,19 @@
+package com.phototransformation.repository;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import com.phototransformation.entity.UploadJob;
+
+@Repository
+public interface UploadJobRepository extends JpaRepository<UploadJob, String> {
+
+    List<UploadJob> findByStatusInOrderByCreatedAtAsc(Collection<UploadJob.Status> statuses);
+
+    @Query("select j.spoolKey from UploadJob j where j.spoolKey is not null")
+    List<String> findAllSpoolKeys();
+}
@@ -0,0 +1,63 @@
+package com.phototransformation.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.springframework.core.io.AbstractResource;
+
+import com.phototransformation.util.EncryptionUtil;
+
+/**
+ * A stored photo that is decrypted while it is read. Every
+ * {@link #getInputStream()} opens its own seekable stream, so Spring can serve
+ * HTTP Range requests from it: skipping to a range start only decrypts the
+ * chunks from there on.
+ */
+public class EncryptedPhotoResource extends AbstractResource {
+
+    private final PhotoStorageService photoStorageService;
+    private final EncryptionUtil encryptionUtil;
+    private final String storageKey;
+    private final String fileName;
+    private final long contentLength;
+
+    public EncryptedPhotoResource(PhotoStorageService photoStorageService, EncryptionUtil encryptionUtil,
+                                  String storageKey, String fileName, long contentLength) {
+        this.photoStorageService = photoStorageService;
+        this.encryptionUtil = encryptionUtil;
+        this.storageKey = storageKey;
+        this.fileName = fileName;
+        this.contentLength = contentLength;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        var channel = photoStorageService.openChannel(storageKey);
+        try {
+            return encryptionUtil.openDecrypting(channel);
+        } catch (Exception e) {
+            channel.close();
+            throw e instanceof IOException ? (IOException) e : new IOException("Cannot decrypt photo " + fileName, e);
+        }
+    }
+
+    @Override
+    public long contentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public String getFilename() {
+        return fileName;
+    }
+
+    @Override
+    public boolean exists() {
+        return photoStorageService.exists(storageKey);
+    }
+
+    @Override
+    public String getDescription() {
+        return "Encrypted photo [" + fileName + "]";
+    }
+}
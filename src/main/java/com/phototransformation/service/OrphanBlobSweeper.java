@@ -0,0 +1,88 @@
+package com.phototransformation.service;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.stereotype.Component;
+
+import com.phototransformation.config.PhotoConfiguration;
+import com.phototransformation.repository.PhotoRenditionRepository;
+import com.phototransformation.repository.PhotoRepository;
+import com.phototransformation.repository.UploadJobRepository;
+
+/**
+ * Deletes blobs that no photo, rendition or upload job references. With the
+ * default in-memory database every blob is such an orphan after a restart.
+ * Runs once all beans exist and before the web server takes requests, so no
+ * upload can sit between storing its blob and saving its row. Switched off
+ * with {@code photo.storage.sweep-orphans: false}.
+ */
+@Component
+public class OrphanBlobSweeper implements SmartInitializingSingleton {
+
+    private static final Logger log = LoggerFactory.getLogger(OrphanBlobSweeper.class);
+
+    private final PhotoConfiguration photoConfiguration;
+    private final PhotoStorageService photoStorageService;
+    private final PhotoRepository photoRepository;
+    private final PhotoRenditionRepository photoRenditionRepository;
+    private final UploadJobRepository uploadJobRepository;
+
+    public OrphanBlobSweeper(final PhotoConfiguration photoConfiguration,
+                             final PhotoStorageService photoStorageService,
+                             final PhotoRepository photoRepository,
+                             final PhotoRenditionRepository photoRenditionRepository,
+                             final UploadJobRepository uploadJobRepository) {
+        this.photoConfiguration = photoConfiguration;
+        this.photoStorageService = photoStorageService;
+        this.photoRepository = photoRepository;
+        this.photoRenditionRepository = photoRenditionRepository;
+        this.uploadJobRepository = uploadJobRepository;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (!photoConfiguration.getStorage().isSweepOrphans()) {
+            return;
+        }
+        try {
+            var removed = sweep();
+            if (removed > 0) {
+                log.info("Removed {} unreferenced blob(s) from photo storage", removed);
+            }
+        } catch (IOException e) {
+            log.warn("Could not sweep unreferenced blobs from photo storage", e);
+        }
+    }
+
+    /**
+     * @return Number of blobs deleted
+     */
+    public int sweep() throws IOException {
+        var referenced = new HashSet<String>(photoRepository.findAllStorageKeys());
+        referenced.addAll(photoRenditionRepository.findAllStorageKeys());
+        referenced.addAll(uploadJobRepository.findAllSpoolKeys());
+
+        List<String> orphans;
+        try (var keys = photoStorageService.keys()) {
+            orphans = keys.filter(key -> !referenced.contains(key)).collect(Collectors.toList());
+        }
+
+        var removed = 0;
+        for (var key : orphans) {
+            try {
+                if (photoStorageService.delete(key)) {
+                    removed++;
+                }
+            } catch (IOException e) {
+                log.warn("Could not remove unreferenced blob {}", key, e);
+            }
+        }
+        return removed;
+    }
+}
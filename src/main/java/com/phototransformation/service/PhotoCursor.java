@@ -0,0 +1,49 @@
+package com.phototransformation.service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Keyset position in the photo listing: the (uploadedAt, id) of the last photo
+ * on a page. Encoded as URL safe Base64 so clients treat it as opaque.
+ */
+public final class PhotoCursor {
+
+    private final LocalDateTime uploadedAt;
+    private final Long id;
+
+    public PhotoCursor(LocalDateTime uploadedAt, Long id) {
+        this.uploadedAt = uploadedAt;
+        this.id = id;
+    }
+
+    public LocalDateTime getUploadedAt() {
+        return uploadedAt;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String encode() {
+        var raw = uploadedAt + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the cursor was not produced by {@link #encode()}
+     */
+    public static PhotoCursor decode(String cursor) {
+        try {
+            var raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            var separator = raw.indexOf('|');
+            return new PhotoCursor(
+                    LocalDateTime.parse(raw.substring(0, separator)),
+                    Long.valueOf(raw.substring(separator + 1)));
+        } catch (IllegalArgumentException | DateTimeParseException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+    }
+}
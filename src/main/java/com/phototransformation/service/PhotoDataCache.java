@@ -0,0 +1,100 @@
+package com.phototransformation.service;
+
+import java.nio.ByteBuffer;
+
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.phototransformation.config.PhotoConfiguration;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Decrypted photo bytes keyed by file name, bounded by
+ * {@code photo.cache.max-bytes}. Caffeine's W-TinyLFU policy only admits a new
+ * photo over an existing one if it is requested more often, so a ZIP export of
+ * the whole library cannot flush the popular photos. With
+ * {@code photo.cache.off-heap} the bytes are kept in direct buffers outside the
+ * garbage collected heap, at the cost of one copy per hit.
+ */
+@Component
+public class PhotoDataCache implements MeterBinder {
+
+    private static final String CACHE_NAME = "photo-data";
+
+    private final Cache<String, ByteBuffer> cache;
+    private final boolean enabled;
+    private final long maxEntryBytes;
+    private final boolean offHeap;
+
+    public PhotoDataCache(final PhotoConfiguration photoConfiguration) {
+        var config = photoConfiguration.getCache();
+        this.enabled = config.isEnabled() && config.getMaxBytes() > 0;
+        this.maxEntryBytes = Math.min(config.getMaxEntryBytes(), Integer.MAX_VALUE);
+        this.offHeap = config.isOffHeap();
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(Math.max(0, config.getMaxBytes()))
+                .weigher((String fileName, ByteBuffer data) -> data.capacity())
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @return Whether a photo of this many bytes would be kept
+     */
+    public boolean accepts(long length) {
+        return enabled && length <= maxEntryBytes;
+    }
+
+    /**
+     * @return The cached bytes, or null on a miss. The returned array must not
+     * be modified.
+     */
+    public byte[] get(String fileName) {
+        if (!enabled) {
+            return null;
+        }
+        var data = cache.getIfPresent(fileName);
+        if (data == null) {
+            return null;
+        }
+        if (data.hasArray()) {
+            return data.array();
+        }
+        var copy = new byte[data.capacity()];
+        data.duplicate().get(copy);
+        return copy;
+    }
+
+    public void put(String fileName, byte[] data) {
+        if (!accepts(data.length)) {
+            return;
+        }
+        ByteBuffer value;
+        if (offHeap) {
+            value = ByteBuffer.allocateDirect(data.length).put(data).flip();
+        } else {
+            value = ByteBuffer.wrap(data);
+        }
+        cache.put(fileName, value);
+    }
+
+    public void invalidate(String fileName) {
+        cache.invalidate(fileName);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        // cache.gets{result=hit|miss}, cache.evictions, cache.eviction.weight and cache.size
+        CaffeineCacheMetrics.monitor(registry, cache, CACHE_NAME);
+        Gauge.builder("photo.cache.weighted.size", cache,
+                        c -> c.policy().eviction().map(e -> e.weightedSize().orElse(0L)).orElse(0L))
+                .description("Bytes held by the decrypted photo cache")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+}
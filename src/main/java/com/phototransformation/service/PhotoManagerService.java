@@ -1,23 +1,50 @@
 package com.phototransformation.service;
 
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
+import org.springframework.core.io.Resource;
 import org.springframework.web.multipart.MultipartFile;
 
 import com.phototransformation.dto.PhotoMetadataDTO;
+import com.phototransformation.dto.PhotoPageDTO;
 import com.phototransformation.entity.Photo;
+import com.phototransformation.entity.PhotoRendition;
 
 public interface PhotoManagerService {
 
-    List<Photo> processAndSavePhotos(MultipartFile[] files) throws Exception;
+    List<PhotoUploadResult> processAndSavePhotos(MultipartFile[] files);
 
     Photo processAndSavePhoto(MultipartFile file) throws Exception;
 
+    /**
+     * Processes and saves an upload that was spooled to a file
+     * @param source The uploaded bytes; read, not moved or deleted
+     */
+    Photo processAndSavePhoto(String originalFileName, String contentType, Path source) throws Exception;
+
     byte[] getPhotoData(String fileName) throws Exception;
 
+    Resource getPhotoResource(String fileName) throws Exception;
+
+    /**
+     * @return The named rendition of the photo, or null if the photo has none
+     * because it already fits the rendition's bounds
+     */
+    PhotoRendition getRendition(String fileName, String name);
+
+    Resource getRenditionResource(PhotoRendition rendition) throws Exception;
+
     PhotoMetadataDTO getPhotoMetadata(String fileName) throws Exception;
 
     List<PhotoMetadataDTO> getAllPhotosMetadata();
 
+    PhotoPageDTO getPhotosPage(String cursor, Integer limit, Boolean isProcessed,
+                               LocalDateTime startDate, LocalDateTime endDate);
+
+    List<PhotoMetadataDTO> getPhotosMetadataByIds(Collection<Long> ids, LocalDateTime startDate, LocalDateTime endDate);
+
     void deletePhoto(Long id) throws Exception;
 }
\ No newline at end of file
@@ -1,132 +1,595 @@
 package com.phototransformation.service;
 
+import java.awt.Dimension;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
 
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import com.phototransformation.config.PhotoConfiguration;
 import com.phototransformation.dto.PhotoMetadataDTO;
+import com.phototransformation.dto.PhotoPageDTO;
 import com.phototransformation.entity.Photo;
+import com.phototransformation.entity.PhotoRendition;
 import com.phototransformation.mapper.Mappers;
+import com.phototransformation.repository.PhotoRenditionRepository;
 import com.phototransformation.repository.PhotoRepository;
 import com.phototransformation.util.EncryptionUtil;
+import com.phototransformation.util.ImageFormat;
 import com.phototransformation.util.ImageProcessingUtil;
+import com.phototransformation.util.PipelineMetrics;
+import com.phototransformation.util.SpoolDirectory;
 
 @Service
 public class PhotoManagerServiceImpl implements PhotoManagerService {
 
+    private static final Sort LISTING_ORDER = Sort.by(Sort.Direction.DESC, "uploadedAt", "id");
+
+    private final PhotoConfiguration photoConfiguration;
     private final PhotoRepository photoRepository;
+    private final PhotoRenditionRepository photoRenditionRepository;
     private final ImageProcessingUtil imageProcessingUtil;
     private final EncryptionUtil encryptionUtil;
+    private final PhotoStorageService photoStorageService;
+    private final PhotoDataCache photoDataCache;
+    private final RenderCache renderCache;
+    private final SpoolDirectory spoolDirectory;
+    private final TransformationAdmission transformationAdmission;
+    private final PipelineMetrics pipelineMetrics;
+    private final Executor photoProcessingExecutor;
+    // Held while blob references are added or dropped, so a blob is never freed under a new reference
+    private final Object blobReferences = new Object();
+    // Lazy re-encryptions in progress, keyed by photo name, so concurrent readers migrate a photo once
+    private final ConcurrentMap<String, CompletableFuture<Void>> migrations = new ConcurrentHashMap<>();
 
-    public PhotoManagerServiceImpl(final PhotoRepository photoRepository,
+    public PhotoManagerServiceImpl(final PhotoConfiguration photoConfiguration,
+                                   final PhotoRepository photoRepository,
+                                   final PhotoRenditionRepository photoRenditionRepository,
                                    final ImageProcessingUtil imageProcessingUtil,
-                                   final EncryptionUtil encryptionUtil) {
+                                   final EncryptionUtil encryptionUtil,
+                                   final PhotoStorageService photoStorageService,
+                                   final PhotoDataCache photoDataCache,
+                                   final RenderCache renderCache,
+                                   final SpoolDirectory spoolDirectory,
+                                   final TransformationAdmission transformationAdmission,
+                                   final PipelineMetrics pipelineMetrics,
+                                   @Qualifier("photoProcessingExecutor") final Executor photoProcessingExecutor) {
+        this.photoConfiguration = photoConfiguration;
         this.photoRepository = photoRepository;
+        this.photoRenditionRepository = photoRenditionRepository;
         this.imageProcessingUtil = imageProcessingUtil;
         this.encryptionUtil = encryptionUtil;
+        this.photoStorageService = photoStorageService;
+        this.photoDataCache = photoDataCache;
+        this.renderCache = renderCache;
+        this.spoolDirectory = spoolDirectory;
+        this.transformationAdmission = transformationAdmission;
+        this.pipelineMetrics = pipelineMetrics;
+        this.photoProcessingExecutor = photoProcessingExecutor;
     }
 
     @Override
-    public List<Photo> processAndSavePhotos(MultipartFile[] files) throws Exception {
-        var savedPhotos = new ArrayList<Photo>();
+    public List<PhotoUploadResult> processAndSavePhotos(MultipartFile[] files) {
+        var pending = new ArrayList<CompletableFuture<PhotoUploadResult>>();
 
         for (var file : files) {
             if (!file.isEmpty()) {
-                var photo = processAndSavePhoto(file);
-                savedPhotos.add(photo);
+                pending.add(CompletableFuture.supplyAsync(() -> processSafely(file), photoProcessingExecutor));
             }
         }
 
-        return savedPhotos;
+        return pending.stream()
+                .map(CompletableFuture::join)
+                .collect(Collectors.toList());
+    }
+
+    private PhotoUploadResult processSafely(MultipartFile file) {
+        try {
+            return PhotoUploadResult.success(file.getOriginalFilename(), processAndSavePhoto(file));
+        } catch (Exception e) {
+            return PhotoUploadResult.failure(file.getOriginalFilename(), e);
+        }
     }
 
     @Override
     public Photo processAndSavePhoto(MultipartFile file) throws Exception {
-        if (!imageProcessingUtil.isValidImageFormat(file.getContentType())) {
-            throw new IllegalArgumentException("Invalid file format. Only PNG and JPG are allowed.");
+        // Both the declared type and the leading bytes are checked before anything is spooled or hashed
+        checkFormat(file.getContentType());
+        Path source = null;
+        try {
+            String contentHash;
+            try (var in = new PushbackInputStream(file.getInputStream(), ImageFormat.SIGNATURE_LENGTH)) {
+                var header = in.readNBytes(ImageFormat.SIGNATURE_LENGTH);
+                checkSignature(file.getContentType(), header);
+                in.unread(header);
+
+                // The part is copied to a spool file through a fixed buffer and hashed on the way, never held in the heap
+                source = spoolDirectory.createFile("upload_", ".tmp");
+                var digest = MessageDigest.getInstance("SHA-256");
+                Files.copy(new DigestInputStream(in, digest), source, StandardCopyOption.REPLACE_EXISTING);
+                contentHash = HexFormat.of().formatHex(digest.digest());
+            }
+            return processAndSavePhoto(file.getOriginalFilename(), file.getContentType(), source, contentHash);
+        } finally {
+            if (source != null) {
+                Files.deleteIfExists(source);
+            }
         }
+    }
+
+    @Override
+    public Photo processAndSavePhoto(String originalFileName, String contentType, Path source) throws Exception {
+        checkFormat(contentType);
+        try (var in = Files.newInputStream(source)) {
+            checkSignature(contentType, in.readNBytes(ImageFormat.SIGNATURE_LENGTH));
+        }
+        var digest = MessageDigest.getInstance("SHA-256");
+        try (var in = new DigestInputStream(Files.newInputStream(source), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return processAndSavePhoto(originalFileName, contentType, source, HexFormat.of().formatHex(digest.digest()));
+    }
 
-        var originalData = file.getBytes();
+    private Photo processAndSavePhoto(String originalFileName, String contentType, Path source,
+                                      String contentHash) throws Exception {
+        var fileSize = Files.size(source);
+        pipelineMetrics.bytesIn(fileSize);
 
-        var originalDimensions = imageProcessingUtil.getImageDimensions(originalData);
+        var duplicate = saveDuplicate(originalFileName, contentHash);
+        if (duplicate != null) {
+            return duplicate;
+        }
+
+        var originalDimensions = pipelineMetrics.time(PipelineMetrics.PROBE,
+                () -> imageProcessingUtil.getImageDimensions(source));
         var originalWidth = originalDimensions.width;
         var originalHeight = originalDimensions.height;
 
         if (!imageProcessingUtil.isValidImageSize(originalWidth, originalHeight)) {
+            pipelineMetrics.rejected(PipelineMetrics.REJECTED_DIMENSIONS);
             throw new IllegalArgumentException("Image size exceeds maximum allowed dimensions (5000x5000).");
         }
 
         var photo = new Photo();
-        photo.setOriginalFileName(file.getOriginalFilename());
-        photo.setFileName(generateUniqueFileName(file.getOriginalFilename()));
-        photo.setContentType(file.getContentType());
-        photo.setFileSize(file.getSize());
+        photo.setOriginalFileName(originalFileName);
+        photo.setFileName(generateUniqueFileName(originalFileName));
+        photo.setContentType(contentType);
+        photo.setFileSize(fileSize);
         photo.setOriginalWidth((double) originalWidth);
         photo.setOriginalHeight((double) originalHeight);
+        photo.setContentHash(contentHash);
 
         var newDimensions = imageProcessingUtil.calculateNewDimensions(originalWidth, originalHeight);
-        var finalImageData = originalData;
+        byte[] resizedData = null;
+        List<PhotoRendition> renditions;
+
+        // Decoding needs memory in proportion to the pixels, so it waits for its share of the budget
+        try (var permit = transformationAdmission.acquire(originalWidth, originalHeight)) {
+            if (newDimensions != null) {
+                // Bounded by photo.resize, unlike the original
+                resizedData = imageProcessingUtil.resizeImage(
+                        source,
+                        originalDimensions,
+                        newDimensions.width,
+                        newDimensions.height,
+                        contentType
+                );
+                photo.setResizedWidth((double) newDimensions.width);
+                photo.setResizedHeight((double) newDimensions.height);
+                photo.setProcessedAt(LocalDateTime.now());
+                photo.setIsProcessed(true);
+            } else {
+                photo.setResizedWidth((double) originalWidth);
+                photo.setResizedHeight((double) originalHeight);
+                photo.setIsProcessed(false);
+            }
+
+            renditions = pipelineMetrics.time(PipelineMetrics.RENDITIONS,
+                    () -> createRenditions(source, originalWidth, originalHeight, contentType));
+        }
+
+        // Stored bytes never change afterwards, so their hash is a strong validator for conditional downloads;
+        // an original stored as is already has its hash
+        photo.setEtag(resizedData != null ? sha256Hex(resizedData) : contentHash);
+
+        // Encrypted chunk by chunk while the store reads it
+        try (var in = resizedData != null ? new ByteArrayInputStream(resizedData) : Files.newInputStream(source)) {
+            photo.setStorageKey(pipelineMetrics.time(PipelineMetrics.ENCRYPT,
+                    () -> photoStorageService.store(encryptionUtil.openEncrypting(in))));
+        } catch (Exception e) {
+            deleteRenditionBlobs(renditions);
+            throw e;
+        }
+
+        Photo savedPhoto = null;
+        var saveStart = System.nanoTime();
+        try {
+            savedPhoto = photoRepository.save(photo);
+            if (!renditions.isEmpty()) {
+                for (var rendition : renditions) {
+                    rendition.setPhotoId(savedPhoto.getId());
+                }
+                photoRenditionRepository.saveAll(renditions);
+            }
+            pipelineMetrics.record(PipelineMetrics.DB_SAVE, System.nanoTime() - saveStart);
+            return savedPhoto;
+        } catch (RuntimeException e) {
+            if (savedPhoto != null) {
+                photoRepository.delete(savedPhoto);
+            }
+            photoStorageService.delete(photo.getStorageKey());
+            deleteRenditionBlobs(renditions);
+            throw e;
+        }
+    }
 
-        if (newDimensions != null) {
-            finalImageData = imageProcessingUtil.resizeImage(
-                    originalData,
-                    newDimensions.width,
-                    newDimensions.height,
-                    file.getContentType()
-            );
-            photo.setResizedWidth((double) newDimensions.width);
-            photo.setResizedHeight((double) newDimensions.height);
-            photo.setProcessedAt(LocalDateTime.now());
-            photo.setIsProcessed(true);
-        } else {
-            photo.setResizedWidth((double) originalWidth);
-            photo.setResizedHeight((double) originalHeight);
-            photo.setIsProcessed(false);
+    private void checkFormat(String contentType) {
+        if (!imageProcessingUtil.isValidImageFormat(contentType)) {
+            pipelineMetrics.rejected(PipelineMetrics.REJECTED_FORMAT);
+            throw new IllegalArgumentException("Invalid file format. Only PNG and JPG are allowed.");
+        }
+    }
+
+    /**
+     * The declared type is only a claim of the client, the leading bytes must
+     * carry the signature of that format too
+     */
+    private void checkSignature(String contentType, byte[] header) {
+        if (ImageFormat.fromSignature(header) != ImageFormat.fromContentType(contentType)) {
+            pipelineMetrics.rejected(PipelineMetrics.REJECTED_FORMAT);
+            throw new IllegalArgumentException("File content does not match its declared type " + contentType + ".");
         }
+    }
+
+    /**
+     * Saves a new photo sharing the stored blobs of an earlier upload of the
+     * same bytes, skipping decoding, resizing and encryption
+     * @return The new photo, or null if these bytes were not uploaded before
+     */
+    private Photo saveDuplicate(String originalFileName, String contentHash) {
+        synchronized (blobReferences) {
+            var existing = photoRepository.findFirstByContentHash(contentHash);
+            if (existing == null) {
+                return null;
+            }
 
-        var encryptedData = encryptionUtil.encrypt(finalImageData);
-        photo.setEncryptedData(encryptedData);
+            var photo = new Photo();
+            photo.setOriginalFileName(originalFileName);
+            photo.setFileName(generateUniqueFileName(originalFileName));
+            photo.setContentType(existing.getContentType());
+            photo.setFileSize(existing.getFileSize());
+            photo.setOriginalWidth(existing.getOriginalWidth());
+            photo.setOriginalHeight(existing.getOriginalHeight());
+            photo.setResizedWidth(existing.getResizedWidth());
+            photo.setResizedHeight(existing.getResizedHeight());
+            photo.setProcessedAt(existing.getProcessedAt());
+            photo.setIsProcessed(existing.getIsProcessed());
+            photo.setContentHash(contentHash);
+            photo.setEtag(existing.getEtag());
+            photo.setStorageKey(existing.getStorageKey());
+            var savedPhoto = photoRepository.save(photo);
 
-        return photoRepository.save(photo);
+            var renditions = new ArrayList<PhotoRendition>();
+            for (var existingRendition : photoRenditionRepository.findByPhotoId(existing.getId())) {
+                var rendition = new PhotoRendition();
+                rendition.setPhotoId(savedPhoto.getId());
+                rendition.setName(existingRendition.getName());
+                rendition.setWidth(existingRendition.getWidth());
+                rendition.setHeight(existingRendition.getHeight());
+                rendition.setFileSize(existingRendition.getFileSize());
+                rendition.setEtag(existingRendition.getEtag());
+                rendition.setStorageKey(existingRendition.getStorageKey());
+                renditions.add(rendition);
+            }
+            if (!renditions.isEmpty()) {
+                photoRenditionRepository.saveAll(renditions);
+            }
+            return savedPhoto;
+        }
+    }
+
+    /**
+     * Generates and stores the configured renditions that are smaller than the
+     * original; the rows still need the photo id before they can be saved
+     */
+    private List<PhotoRendition> createRenditions(Path source, int width, int height, String contentType)
+            throws Exception {
+        var configured = new ArrayList<PhotoConfiguration.Rendition>();
+        var sizes = new ArrayList<Dimension>();
+        for (var rendition : photoConfiguration.getRenditions()) {
+            var size = imageProcessingUtil.calculateNewDimensions(width, height,
+                    rendition.getMaxWidth(), rendition.getMaxHeight());
+            if (size != null) {
+                configured.add(rendition);
+                sizes.add(size);
+            }
+        }
+        if (sizes.isEmpty()) {
+            return List.of();
+        }
+
+        var images = imageProcessingUtil.createRenditions(source, sizes, contentType);
+        var renditions = new ArrayList<PhotoRendition>();
+        try {
+            for (var i = 0; i < images.size(); i++) {
+                var data = images.get(i);
+                var rendition = new PhotoRendition();
+                rendition.setName(configured.get(i).getName());
+                rendition.setWidth(sizes.get(i).width);
+                rendition.setHeight(sizes.get(i).height);
+                rendition.setFileSize((long) data.length);
+                rendition.setEtag(sha256Hex(data));
+                rendition.setStorageKey(photoStorageService.store(encryptionUtil.encrypt(data)));
+                renditions.add(rendition);
+            }
+        } catch (Exception e) {
+            deleteRenditionBlobs(renditions);
+            throw e;
+        }
+        return renditions;
+    }
+
+    private void deleteRenditionBlobs(List<PhotoRendition> renditions) throws IOException {
+        for (var rendition : renditions) {
+            photoStorageService.delete(rendition.getStorageKey());
+        }
     }
 
     @Override
     public byte[] getPhotoData(String fileName) throws Exception {
+        var cached = photoDataCache.get(fileName);
+        if (cached != null) {
+            return cached;
+        }
+
         var photo = photoRepository.findByFileName(fileName);
         if (photo == null) {
             throw new IllegalArgumentException("Photo not found with name: " + fileName);
         }
+        return readPhotoData(photo);
+    }
 
-        return encryptionUtil.decrypt(photo.getEncryptedData());
+    private byte[] readPhotoData(Photo photo) throws Exception {
+        var storageKey = photo.getStorageKey();
+        var encryptedData = photoStorageService.read(storageKey);
+        var data = pipelineMetrics.time(PipelineMetrics.DECRYPT, () -> encryptionUtil.decrypt(encryptedData));
+
+        // Legacy CBC blobs and blobs sealed with a retired key are migrated on first read
+        if (encryptionUtil.needsReEncryption(encryptedData)) {
+            migrate(photo, storageKey, data);
+        }
+
+        if (photoDataCache.accepts(data.length)) {
+            photoDataCache.put(photo.getFileName(), data);
+            // A deletePhoto that ran while this read was in flight invalidated the
+            // entry before it was put; checked after the put so no order is missed
+            if (!photoRepository.existsByFileName(photo.getFileName())) {
+                photoDataCache.invalidate(photo.getFileName());
+            }
+        }
+        return data;
     }
 
     @Override
-    public PhotoMetadataDTO getPhotoMetadata(String fileName) throws Exception {
+    public Resource getPhotoResource(String fileName) throws Exception {
+        var cached = photoDataCache.get(fileName);
+        if (cached != null) {
+            return new ByteArrayResource(cached, "Cached photo [" + fileName + "]");
+        }
+
         var photo = photoRepository.findByFileName(fileName);
         if (photo == null) {
             throw new IllegalArgumentException("Photo not found with name: " + fileName);
         }
+
+        byte[] header;
+        try (var in = photoStorageService.open(photo.getStorageKey())) {
+            header = in.readNBytes(EncryptionUtil.HEADER_LENGTH);
+        }
+        if (encryptionUtil.needsReEncryption(header)) {
+            // Legacy CBC blobs cannot be read chunk by chunk, migrate first so this and later downloads can stream
+            readPhotoData(photo);
+            return getPhotoResource(fileName);
+        }
+
+        var contentLength = encryptionUtil.plaintextLength(header, photoStorageService.size(photo.getStorageKey()));
+        if (photoDataCache.accepts(contentLength)) {
+            // Decrypt it in full once so the following downloads are served from memory
+            return new ByteArrayResource(readPhotoData(photo), "Cached photo [" + fileName + "]");
+        }
+        return new EncryptedPhotoResource(photoStorageService, encryptionUtil,
+                photo.getStorageKey(), photo.getOriginalFileName(), contentLength);
+    }
+
+    @Override
+    public PhotoRendition getRendition(String fileName, String name) {
+        return photoRenditionRepository.findByPhotoFileNameAndName(fileName, name);
+    }
+
+    @Override
+    public Resource getRenditionResource(PhotoRendition rendition) throws Exception {
+        // Renditions are small, they are always decrypted in full and cached under their storage key
+        var data = photoDataCache.get(rendition.getStorageKey());
+        if (data == null) {
+            var encryptedData = photoStorageService.read(rendition.getStorageKey());
+            data = pipelineMetrics.time(PipelineMetrics.DECRYPT, () -> encryptionUtil.decrypt(encryptedData));
+            photoDataCache.put(rendition.getStorageKey(), data);
+        }
+        return new ByteArrayResource(data, "Photo rendition [" + rendition.getName() + "]");
+    }
+
+    @Override
+    public PhotoMetadataDTO getPhotoMetadata(String fileName) throws Exception {
+        var photo = photoRepository.findMetadataByFileName(fileName);
+        if (photo == null) {
+            throw new IllegalArgumentException("Photo not found with name: " + fileName);
+        }
         return Mappers.convertToDTO(photo);
     }
 
     @Override
     public List<PhotoMetadataDTO> getAllPhotosMetadata() {
-        return photoRepository.findAll().stream()
+        return photoRepository.findAllProjectedBy().stream()
+                .map(Mappers::convertToDTO)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public PhotoPageDTO getPhotosPage(String cursor, Integer limit, Boolean isProcessed,
+                                      LocalDateTime startDate, LocalDateTime endDate) {
+        var listing = photoConfiguration.getListing();
+        var pageSize = limit != null ? limit : listing.getDefaultPageSize();
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be at least 1.");
+        }
+        pageSize = Math.min(pageSize, listing.getMaxPageSize());
+        if (startDate != null && endDate != null && startDate.isAfter(endDate)) {
+            throw new IllegalArgumentException("Upload time range start must not be after its end.");
+        }
+
+        var after = cursor != null && !cursor.isEmpty() ? PhotoCursor.decode(cursor) : null;
+
+        // One extra row tells whether another page follows without a count query
+        var rows = photoRepository.findPage(isProcessed, startDate, endDate,
+                after != null ? after.getUploadedAt() : null,
+                after != null ? after.getId() : null,
+                PageRequest.of(0, pageSize + 1));
+
+        var hasMore = rows.size() > pageSize;
+        var page = hasMore ? rows.subList(0, pageSize) : rows;
+        String nextCursor = null;
+        if (hasMore) {
+            var last = page.get(page.size() - 1);
+            nextCursor = new PhotoCursor(last.getUploadedAt(), last.getId()).encode();
+        }
+
+        return new PhotoPageDTO(page.stream()
+                .map(Mappers::convertToDTO)
+                .collect(Collectors.toList()), nextCursor);
+    }
+
+    @Override
+    public List<PhotoMetadataDTO> getPhotosMetadataByIds(Collection<Long> ids,
+                                                         LocalDateTime startDate, LocalDateTime endDate) {
+        if (startDate != null && endDate != null && startDate.isAfter(endDate)) {
+            throw new IllegalArgumentException("Upload time range start must not be after its end.");
+        }
+
+        // Same order as the listing so exports of a subset look like exports of everything
+        return photoRepository.findProjectedByIdIn(ids, LISTING_ORDER).stream()
+                .filter(photo -> startDate == null || !photo.getUploadedAt().isBefore(startDate))
+                .filter(photo -> endDate == null || !photo.getUploadedAt().isAfter(endDate))
                 .map(Mappers::convertToDTO)
                 .collect(Collectors.toList());
     }
 
     @Override
     public void deletePhoto(Long id) throws Exception {
-        if (!photoRepository.existsById(id)) {
-            throw new IllegalArgumentException("Photo not found with ID: " + id);
+        var photo = photoRepository.findById(id)
+                .orElseThrow(() -> new IllegalArgumentException("Photo not found with ID: " + id));
+
+        synchronized (blobReferences) {
+            var renditions = photoRenditionRepository.findByPhotoId(id);
+            if (!renditions.isEmpty()) {
+                photoRenditionRepository.deleteAll(renditions);
+            }
+            photoRepository.deleteById(id);
+            photoDataCache.invalidate(photo.getFileName());
+            renderCache.invalidate(photo.getFileName());
+
+            // Blobs shared with duplicate uploads stay until their last photo is deleted
+            releasePhotoBlob(photo.getStorageKey());
+            for (var rendition : renditions) {
+                if (photoRenditionRepository.countByStorageKey(rendition.getStorageKey()) == 0) {
+                    photoDataCache.invalidate(rendition.getStorageKey());
+                    photoStorageService.delete(rendition.getStorageKey());
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes a photo blob that no photo references any more
+     */
+    /**
+     * Stores the photo sealed with the current key and points its row at the
+     * new blob. Readers that find a migration of the same photo running wait
+     * for it instead of storing a second blob; the row is checked again first,
+     * so a reader that read the old blob just before another one finished
+     * leaves it alone too
+     * @param storageKey The blob the data was read from
+     */
+    private void migrate(Photo photo, String storageKey, byte[] data) throws Exception {
+        var migration = new CompletableFuture<Void>();
+        var running = migrations.putIfAbsent(photo.getFileName(), migration);
+        if (running != null) {
+            try {
+                running.join();
+            } catch (CompletionException e) {
+                // The data is already decrypted, a later read tries the migration again
+            }
+            return;
+        }
+
+        try {
+            var current = photoRepository.findByFileName(photo.getFileName());
+            if (current != null && storageKey.equals(current.getStorageKey())) {
+                var migratedKey = photoStorageService.store(encryptionUtil.encrypt(data));
+                current.setStorageKey(migratedKey);
+                try {
+                    photoRepository.save(current);
+                } catch (RuntimeException e) {
+                    photoStorageService.delete(migratedKey);
+                    throw e;
+                }
+                photo.setStorageKey(migratedKey);
+                releasePhotoBlob(storageKey);
+            }
+            migration.complete(null);
+        } catch (Exception e) {
+            migration.completeExceptionally(e);
+            throw e;
+        } finally {
+            migrations.remove(photo.getFileName(), migration);
         }
-        photoRepository.deleteById(id);
+    }
+
+    private void releasePhotoBlob(String storageKey) throws IOException {
+        synchronized (blobReferences) {
+            if (photoRepository.countByStorageKey(storageKey) == 0) {
+                photoStorageService.delete(storageKey);
+            }
+        }
+    }
+
+    private static String sha256Hex(byte[] data) throws NoSuchAlgorithmException {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
     }
 
     private String generateUniqueFileName(String originalFilename) {
@@ -0,0 +1,35 @@
+package com.phototransformation.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed store for encrypted photo blobs. A blob's key is the
+ * SHA-256 of its bytes, so storing the same bytes twice yields the same key.
+ */
+public interface PhotoStorageService {
+
+    String store(byte[] data) throws IOException;
+
+    String store(InputStream data) throws IOException;
+
+    byte[] read(String key) throws IOException;
+
+    InputStream open(String key) throws IOException;
+
+    SeekableByteChannel openChannel(String key) throws IOException;
+
+    long size(String key) throws IOException;
+
+    boolean exists(String key);
+
+    boolean delete(String key) throws IOException;
+
+    /**
+     * @return Keys of every stored blob; the stream holds directory handles
+     * and must be closed
+     */
+    Stream<String> keys() throws IOException;
+}
@@ -0,0 +1,171 @@
+package com.phototransformation.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import com.phototransformation.config.PhotoConfiguration;
+import com.phototransformation.config.PhotoConfiguration.Storage.Fsync;
+
+/**
+ * File system blob store under {@code photo.storage.path}. Blobs live at
+ * {@code ab/cd/abcd...} (the first two byte pairs of the hash as shard
+ * directories) and are written to {@code tmp/} first, then renamed into place
+ * atomically, so readers never see a partial blob.
+ */
+@Service
+public class PhotoStorageServiceImpl implements PhotoStorageService {
+
+    private static final Logger log = LoggerFactory.getLogger(PhotoStorageServiceImpl.class);
+
+    private static final Pattern KEY_PATTERN = Pattern.compile("[0-9a-f]{64}");
+    private static final String DEFAULT_PATH = "./storage";
+
+    private final Path root;
+    private final Path tempDir;
+    private final Fsync fsync;
+
+    public PhotoStorageServiceImpl(final PhotoConfiguration photoConfiguration) throws IOException {
+        var storage = photoConfiguration.getStorage();
+        var path = storage.getPath() != null && !storage.getPath().isEmpty() ? storage.getPath() : DEFAULT_PATH;
+
+        this.root = Path.of(path).toAbsolutePath().normalize();
+        this.tempDir = root.resolve("tmp");
+        this.fsync = storage.getFsync() != null ? storage.getFsync() : Fsync.FILE_AND_DIRECTORY;
+
+        Files.createDirectories(tempDir);
+        removeAbandonedTempFiles();
+    }
+
+    @Override
+    public String store(byte[] data) throws IOException {
+        return store(new ByteArrayInputStream(data));
+    }
+
+    @Override
+    public String store(InputStream data) throws IOException {
+        var temp = Files.createTempFile(tempDir, "blob_", ".tmp");
+        try {
+            var digest = sha256();
+            try (var channel = FileChannel.open(temp, StandardOpenOption.WRITE);
+                 var out = new DigestOutputStream(Channels.newOutputStream(channel), digest)) {
+                data.transferTo(out);
+                out.flush();
+                if (fsync != Fsync.NONE) {
+                    channel.force(true);
+                }
+            }
+
+            var key = HexFormat.of().formatHex(digest.digest());
+            var target = pathFor(key);
+            if (Files.exists(target)) {
+                return key;
+            }
+
+            var shard = target.getParent();
+            Files.createDirectories(shard);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+
+            if (fsync == Fsync.FILE_AND_DIRECTORY) {
+                forceDirectory(shard);
+                forceDirectory(shard.getParent());
+                forceDirectory(root);
+            }
+            return key;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public byte[] read(String key) throws IOException {
+        return Files.readAllBytes(pathFor(key));
+    }
+
+    @Override
+    public InputStream open(String key) throws IOException {
+        return Files.newInputStream(pathFor(key));
+    }
+
+    @Override
+    public SeekableByteChannel openChannel(String key) throws IOException {
+        return FileChannel.open(pathFor(key), StandardOpenOption.READ);
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        return Files.size(pathFor(key));
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return Files.isRegularFile(pathFor(key));
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        return Files.deleteIfExists(pathFor(key));
+    }
+
+    @Override
+    public Stream<String> keys() throws IOException {
+        // Blobs sit exactly three levels down, tmp/ files one level down
+        return Files.find(root, 3, (file, attributes) -> attributes.isRegularFile()
+                        && root.relativize(file).getNameCount() == 3
+                        && KEY_PATTERN.matcher(file.getFileName().toString()).matches())
+                .map(file -> file.getFileName().toString());
+    }
+
+    private Path pathFor(String key) {
+        if (key == null || !KEY_PATTERN.matcher(key).matches()) {
+            throw new IllegalArgumentException("Invalid storage key: " + key);
+        }
+        return root.resolve(key.substring(0, 2)).resolve(key.substring(2, 4)).resolve(key);
+    }
+
+    private void forceDirectory(Path directory) {
+        try (var channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not every platform can open a directory for syncing (Windows), the file itself was already forced
+            log.debug("Could not sync directory {}: {}", directory, e.getMessage());
+        }
+    }
+
+    private void removeAbandonedTempFiles() throws IOException {
+        try (var leftovers = Files.list(tempDir)) {
+            leftovers.forEach(file -> {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    log.warn("Could not remove abandoned temp file {}", file, e);
+                }
+            });
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.phototransformation.service;
+
+import com.phototransformation.entity.Photo;
+
+/**
+ * Outcome of processing one file of a batch upload: either the saved photo or
+ * the error that stopped it.
+ */
+public class PhotoUploadResult {
+
+    private final String originalFileName;
+    private final Photo photo;
+    private final Exception error;
+
+    private PhotoUploadResult(String originalFileName, Photo photo, Exception error) {
+        this.originalFileName = originalFileName;
+        this.photo = photo;
+        this.error = error;
+    }
+
+    public static PhotoUploadResult success(String originalFileName, Photo photo) {
+        return new PhotoUploadResult(originalFileName, photo, null);
+    }
+
+    public static PhotoUploadResult failure(String originalFileName, Exception error) {
+        return new PhotoUploadResult(originalFileName, null, error);
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    public String getOriginalFileName() {
+        return originalFileName;
+    }
+
+    public Photo getPhoto() {
+        return photo;
+    }
+
+    public Exception getError() {
+        return error;
+    }
+}
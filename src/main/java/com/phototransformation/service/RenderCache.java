@@ -0,0 +1,174 @@
+package com.phototransformation.service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.phototransformation.config.PhotoConfiguration;
+import com.phototransformation.util.EncryptionUtil;
+
+/**
+ * Disk cache of rendered variants under {@code photo.render.cache-path},
+ * bounded by {@code photo.render.cache-max-bytes}. Variants are encrypted like
+ * the stored photos and kept at {@code <hash of the photo name>/<spec key>},
+ * so every variant of a photo can be dropped together. The index of files and
+ * their sizes lives in Caffeine, which deletes the file of each entry it
+ * evicts; variants found on disk at startup are indexed again, oldest first.
+ */
+@Component
+public class RenderCache {
+
+    private static final Logger log = LoggerFactory.getLogger(RenderCache.class);
+
+    private static final String DEFAULT_PATH = "./render-cache";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final EncryptionUtil encryptionUtil;
+    private final Path root;
+    private final Cache<String, Long> entries;
+
+    public RenderCache(final PhotoConfiguration photoConfiguration, final EncryptionUtil encryptionUtil) throws IOException {
+        var render = photoConfiguration.getRender();
+        var path = render.getCachePath() != null && !render.getCachePath().isEmpty() ? render.getCachePath() : DEFAULT_PATH;
+
+        this.encryptionUtil = encryptionUtil;
+        this.root = Path.of(path).toAbsolutePath().normalize();
+        // Eviction runs on the calling thread, so the disk never holds much more than the budget
+        this.entries = Caffeine.newBuilder()
+                .maximumWeight(Math.max(0, render.getCacheMaxBytes()))
+                .weigher((String key, Long size) -> (int) Math.min(size, Integer.MAX_VALUE))
+                .evictionListener((String key, Long size, RemovalCause cause) -> deleteQuietly(key))
+                .executor(Runnable::run)
+                .build();
+
+        Files.createDirectories(root);
+        indexExistingFiles();
+    }
+
+    /**
+     * @return The rendered bytes, or null if the variant is not cached
+     */
+    public byte[] get(String fileName, RenderSpec spec) throws Exception {
+        var key = key(fileName, spec);
+        if (entries.getIfPresent(key) == null) {
+            return null;
+        }
+        try {
+            return encryptionUtil.decrypt(Files.readAllBytes(root.resolve(key)));
+        } catch (NoSuchFileException e) {
+            // Evicted between the lookup and the read
+            entries.invalidate(key);
+            return null;
+        }
+    }
+
+    public void put(String fileName, RenderSpec spec, byte[] data) throws Exception {
+        var key = key(fileName, spec);
+        var target = root.resolve(key);
+        Files.createDirectories(target.getParent());
+
+        var temp = Files.createTempFile(target.getParent(), "render_", TEMP_SUFFIX);
+        try {
+            Files.write(temp, encryptionUtil.encrypt(data));
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            entries.put(key, Files.size(target));
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Drops every cached variant of a photo
+     */
+    public void invalidate(String fileName) {
+        var directory = photoDirectory(fileName);
+        entries.asMap().keySet().removeIf(key -> key.startsWith(directory + "/"));
+        var path = root.resolve(directory);
+        if (!Files.isDirectory(path)) {
+            return;
+        }
+        try (var files = Files.list(path)) {
+            files.forEach(RenderCache::deleteQuietly);
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Could not remove rendered variants in {}", path, e);
+        }
+    }
+
+    private void indexExistingFiles() throws IOException {
+        Map<Path, Long> found;
+        try (var files = Files.find(root, 2, (file, attributes) -> attributes.isRegularFile())) {
+            found = files.collect(Collectors.toMap(file -> file, RenderCache::lastModified));
+        }
+        found.entrySet().stream()
+                .sorted(Map.Entry.comparingByValue(Comparator.naturalOrder()))
+                .forEach(entry -> {
+                    var file = entry.getKey();
+                    var relative = root.relativize(file);
+                    if (relative.getNameCount() != 2 || file.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+                        // Abandoned temp file of an interrupted put, or something that is not ours
+                        deleteQuietly(file);
+                        return;
+                    }
+                    try {
+                        entries.put(relative.getName(0) + "/" + relative.getName(1), Files.size(file));
+                    } catch (IOException e) {
+                        log.warn("Could not index rendered variant {}", file, e);
+                    }
+                });
+    }
+
+    private void deleteQuietly(String key) {
+        deleteQuietly(root.resolve(key));
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Could not remove rendered variant {}", file, e);
+        }
+    }
+
+    private static long lastModified(Path file) {
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class).lastModifiedTime().toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static String key(String fileName, RenderSpec spec) {
+        return photoDirectory(fileName) + "/" + spec.key();
+    }
+
+    /**
+     * Photo names come from the request path, hashing them keeps the cache
+     * layout independent of what characters they contain
+     */
+    private static String photoDirectory(String fileName) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256").digest(fileName.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.phototransformation.service;
+
+import com.phototransformation.dto.PhotoMetadataDTO;
+import com.phototransformation.util.ImageFormat;
+
+public interface RenderService {
+
+    /**
+     * Render a variant of the stored photo, or return it from the render cache.
+     * Concurrent requests for the same uncached variant share a single render.
+     *
+     * @param spec Render parameters with the format and the encoder settings
+     * already resolved, see {@link #resolve}
+     * @throws com.phototransformation.util.FormatUnavailableException if the
+     * variant is not cached and its format cannot be encoded right now
+     */
+    byte[] render(PhotoMetadataDTO photo, RenderSpec spec) throws Exception;
+
+    /**
+     * @return Whether variants in the format can currently be rendered; false
+     * for WebP and AVIF while ImageMagick is unavailable
+     */
+    boolean canEncode(ImageFormat format);
+
+    /**
+     * @param spec Render parameters with the format already resolved
+     * @return The spec with the current encoder settings of its format, whose
+     * key identifies the rendered bytes
+     */
+    RenderSpec resolve(RenderSpec spec);
+}
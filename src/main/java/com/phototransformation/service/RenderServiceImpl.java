@@ -0,0 +1,131 @@
+package com.phototransformation.service;
+
+import java.awt.Dimension;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.stereotype.Service;
+
+import com.phototransformation.dto.PhotoMetadataDTO;
+import com.phototransformation.util.FormatUnavailableException;
+import com.phototransformation.util.ImageFormat;
+import com.phototransformation.util.ImageProcessingUtil;
+
+/**
+ * Produces arbitrary sizes from the stored photo on first request and keeps
+ * them in the {@link RenderCache}. A render that is already running is joined
+ * instead of started again, so a burst of requests for a new variant (a page
+ * of thumbnails opened by many clients at once) costs one decode and resize.
+ */
+@Service
+public class RenderServiceImpl implements RenderService {
+
+    private final PhotoManagerService photoManagerService;
+    private final ImageProcessingUtil imageProcessingUtil;
+    private final RenderCache renderCache;
+    private final TransformationAdmission transformationAdmission;
+
+    // Renders in progress, keyed by photo name and spec key
+    private final ConcurrentMap<String, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+
+    public RenderServiceImpl(final PhotoManagerService photoManagerService,
+                             final ImageProcessingUtil imageProcessingUtil,
+                             final RenderCache renderCache,
+                             final TransformationAdmission transformationAdmission) {
+        this.photoManagerService = photoManagerService;
+        this.imageProcessingUtil = imageProcessingUtil;
+        this.renderCache = renderCache;
+        this.transformationAdmission = transformationAdmission;
+    }
+
+    @Override
+    public byte[] render(PhotoMetadataDTO photo, RenderSpec spec) throws Exception {
+        var fileName = photo.getFileName();
+        var cached = renderCache.get(fileName, spec);
+        if (cached != null) {
+            return cached;
+        }
+
+        var key = fileName + "/" + spec.key();
+        var render = new CompletableFuture<byte[]>();
+        var running = inFlight.putIfAbsent(key, render);
+        if (running != null) {
+            return await(running);
+        }
+
+        try {
+            // The render that was running when this request missed the cache may have finished since
+            var data = renderCache.get(fileName, spec);
+            if (data == null) {
+                data = renderNow(photo, spec);
+                renderCache.put(fileName, spec, data);
+            }
+            render.complete(data);
+            return data;
+        } catch (Exception e) {
+            render.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, render);
+        }
+    }
+
+    @Override
+    public boolean canEncode(ImageFormat format) {
+        return imageProcessingUtil.canEncode(format);
+    }
+
+    @Override
+    public RenderSpec resolve(RenderSpec spec) {
+        return spec.withEncoding(imageProcessingUtil.encoderSettingsHash(spec.getFormat(), spec.getQuality()));
+    }
+
+    private byte[] renderNow(PhotoMetadataDTO photo, RenderSpec spec) throws Exception {
+        // Checked before the photo is decrypted and decoded for nothing
+        if (!canEncode(spec.getFormat())) {
+            throw new FormatUnavailableException(spec.getFormat(),
+                    "No engine is available to encode " + spec.getFormat().getExtension());
+        }
+        var width = photo.getResizedWidth().intValue();
+        var height = photo.getResizedHeight().intValue();
+
+        Dimension scaled;
+        Dimension crop;
+        switch (spec.getFit()) {
+            case COVER: {
+                var scale = Math.min(1.0, Math.max((double) spec.getWidth() / width, (double) spec.getHeight() / height));
+                scaled = new Dimension(Math.max(1, (int) Math.round(width * scale)), Math.max(1, (int) Math.round(height * scale)));
+                crop = new Dimension(Math.min(spec.getWidth(), scaled.width), Math.min(spec.getHeight(), scaled.height));
+                break;
+            }
+            case FILL:
+                scaled = new Dimension(Math.min(spec.getWidth(), width), Math.min(spec.getHeight(), height));
+                crop = scaled;
+                break;
+            default: {
+                var fitted = imageProcessingUtil.calculateNewDimensions(width, height, spec.getWidth(), spec.getHeight());
+                scaled = fitted != null ? fitted : new Dimension(width, height);
+                crop = scaled;
+                break;
+            }
+        }
+
+        var data = photoManagerService.getPhotoData(photo.getFileName());
+        try (var permit = transformationAdmission.acquire(width, height)) {
+            return imageProcessingUtil.renderImage(data, scaled, crop, spec.getFormat(), spec.getQuality());
+        }
+    }
+
+    private static byte[] await(CompletableFuture<byte[]> render) throws Exception {
+        try {
+            return render.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
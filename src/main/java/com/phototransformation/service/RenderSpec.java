@@ -0,0 +1,186 @@
+package com.phototransformation.service;
+
+import java.util.Locale;
+import java.util.Objects;
+
+import com.phototransformation.util.ImageFormat;
+
+/**
+ * Parameters of an on-demand render. Width and height bound the result; how
+ * the image is fitted into them depends on {@link Fit}. Images are never
+ * enlarged. {@link #key()} is the canonical text form, used as the cache key
+ * and as the ETag suffix of the rendered variant. Once the encoder settings
+ * are resolved ({@link #withEncoding}) the key also carries a hash of them,
+ * so changing {@code photo.encoding} yields new keys instead of stale variants.
+ */
+public final class RenderSpec {
+
+    public enum Fit {
+        /** Scale down to fit within the box, keeping the aspect ratio */
+        INSIDE,
+        /** Scale down to cover the box, keeping the aspect ratio, and crop the overflow from the center */
+        COVER,
+        /** Scale to the box exactly, ignoring the aspect ratio */
+        FILL
+    }
+
+    private final Integer width;
+    private final Integer height;
+    private final Fit fit;
+    private final ImageFormat format;
+    private final Integer quality;
+    private final String encoding;
+
+    public RenderSpec(Integer width, Integer height, Fit fit, ImageFormat format, Integer quality) {
+        this(width, height, fit, format, quality, null);
+    }
+
+    private RenderSpec(Integer width, Integer height, Fit fit, ImageFormat format, Integer quality, String encoding) {
+        this.width = width;
+        this.height = height;
+        this.fit = fit;
+        this.format = format;
+        // PNG is lossless, dropping the quality keeps a single cache entry per PNG variant
+        this.quality = format == ImageFormat.PNG ? null : quality;
+        this.encoding = encoding;
+    }
+
+    /**
+     * Validates and normalizes request parameters. The format may be left
+     * null, to be negotiated or filled in from the photo later.
+     * @throws IllegalArgumentException if a parameter is out of range or unknown
+     */
+    public static RenderSpec parse(Integer width, Integer height, String fit, String format, Integer quality,
+                                   int maxDimension) {
+        if (width == null && height == null) {
+            throw new IllegalArgumentException("At least one of w and h is required");
+        }
+        checkDimension("w", width, maxDimension);
+        checkDimension("h", height, maxDimension);
+
+        Fit parsedFit;
+        try {
+            parsedFit = fit != null ? Fit.valueOf(fit.toUpperCase(Locale.ROOT)) : Fit.INSIDE;
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown fit: " + fit);
+        }
+        if (parsedFit != Fit.INSIDE && (width == null || height == null)) {
+            throw new IllegalArgumentException("Fit " + fit + " needs both w and h");
+        }
+
+        var parsedFormat = format != null ? ImageFormat.fromName(format) : null;
+
+        if (quality != null && (quality < 1 || quality > 100)) {
+            throw new IllegalArgumentException("q must be between 1 and 100");
+        }
+
+        return new RenderSpec(width, height, parsedFit, parsedFormat, quality);
+    }
+
+    private static void checkDimension(String name, Integer value, int maxDimension) {
+        if (value != null && (value < 1 || value > maxDimension)) {
+            throw new IllegalArgumentException(name + " must be between 1 and " + maxDimension);
+        }
+    }
+
+    /**
+     * @return A copy in the given format
+     */
+    public RenderSpec withFormat(ImageFormat newFormat) {
+        return new RenderSpec(width, height, fit, newFormat, quality);
+    }
+
+    /**
+     * @return This spec, or a copy in the format of the given content type if
+     * no format was requested
+     */
+    public RenderSpec withDefaultFormat(String contentType) {
+        return format != null ? this : withFormat(ImageFormat.fromContentType(contentType));
+    }
+
+    /**
+     * @param newEncoding Hash of the resolved encoder settings of the format,
+     * null if the format has none
+     * @return A copy whose key carries the encoder settings
+     */
+    public RenderSpec withEncoding(String newEncoding) {
+        return new RenderSpec(width, height, fit, format, quality, newEncoding);
+    }
+
+    public Integer getWidth() {
+        return width;
+    }
+
+    public Integer getHeight() {
+        return height;
+    }
+
+    public Fit getFit() {
+        return fit;
+    }
+
+    public ImageFormat getFormat() {
+        return format;
+    }
+
+    public Integer getQuality() {
+        return quality;
+    }
+
+    public String getEncoding() {
+        return encoding;
+    }
+
+    public String getContentType() {
+        return format.getContentType();
+    }
+
+    /**
+     * @return e.g. {@code w300-h200-cover-q80-e1f2e3d4c.jpg}; only characters
+     * that are safe in file names
+     */
+    public String key() {
+        var key = new StringBuilder();
+        if (width != null) {
+            key.append('w').append(width).append('-');
+        }
+        if (height != null) {
+            key.append('h').append(height).append('-');
+        }
+        key.append(fit.name().toLowerCase(Locale.ROOT));
+        if (quality != null) {
+            key.append("-q").append(quality);
+        }
+        if (encoding != null) {
+            key.append("-e").append(encoding);
+        }
+        return key.append('.').append(format.getExtension()).toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof RenderSpec)) {
+            return false;
+        }
+        var other = (RenderSpec) o;
+        return Objects.equals(width, other.width)
+                && Objects.equals(height, other.height)
+                && fit == other.fit
+                && Objects.equals(format, other.format)
+                && Objects.equals(quality, other.quality)
+                && Objects.equals(encoding, other.encoding);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(width, height, fit, format, quality, encoding);
+    }
+
+    @Override
+    public String toString() {
+        return key();
+    }
+}
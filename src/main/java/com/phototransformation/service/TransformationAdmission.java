@@ -0,0 +1,154 @@
+package com.phototransformation.service;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.stereotype.Component;
+
+import com.phototransformation.config.PhotoConfiguration;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Budget for the raster memory of the decodes and resizes running at once.
+ * Each one reserves width x height x {@code photo.admission.bytes-per-pixel}
+ * bytes of {@code photo.admission.max-bytes} (half the maximum heap by
+ * default) before it starts, and waits in arrival order while the budget is
+ * used up, so a burst of large uploads is processed a few at a time instead
+ * of running the JVM out of memory. An image larger than the whole budget
+ * runs alone. Callers beyond {@code photo.admission.max-queued}, and callers
+ * that wait longer than {@code photo.admission.max-wait-ms}, are rejected.
+ */
+@Component
+public class TransformationAdmission implements MeterBinder {
+
+    // The budget is counted in KiB so that it fits the int permits of the semaphore
+    private static final long UNIT_BYTES = 1024;
+
+    private final boolean enabled;
+    private final int bytesPerPixel;
+    private final int maxQueued;
+    private final long maxWaitMs;
+    private final int totalPermits;
+    private final Semaphore budget;
+
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    public TransformationAdmission(final PhotoConfiguration photoConfiguration) {
+        var config = photoConfiguration.getAdmission();
+        this.enabled = config.isEnabled();
+        this.bytesPerPixel = Math.max(1, config.getBytesPerPixel());
+        this.maxQueued = config.getMaxQueued();
+        this.maxWaitMs = config.getMaxWaitMs();
+
+        var maxBytes = config.getMaxBytes() > 0 ? config.getMaxBytes() : Runtime.getRuntime().maxMemory() / 2;
+        this.totalPermits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxBytes / UNIT_BYTES));
+        // Fair, so a large image is not starved by a stream of small ones
+        this.budget = new Semaphore(totalPermits, true);
+    }
+
+    /**
+     * Reserves the memory of decoding an image of the given size, waiting for
+     * it if necessary. The reservation is returned by closing the permit.
+     * @throws TransformationCapacityException if the wait queue is full or the
+     * memory did not become available in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Permit acquire(int width, int height) throws InterruptedException {
+        if (!enabled) {
+            return new Permit(0);
+        }
+
+        var permits = permits(width, height);
+        if (budget.tryAcquire(permits, 0, TimeUnit.NANOSECONDS)) {
+            admitted.increment();
+            return new Permit(permits);
+        }
+
+        if (waiting.incrementAndGet() > maxQueued) {
+            waiting.decrementAndGet();
+            rejected.increment();
+            throw new TransformationCapacityException(
+                    String.format("Too many images (%d) are waiting to be processed, try again later", maxQueued),
+                    retryAfterSeconds());
+        }
+
+        var start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = budget.tryAcquire(permits, maxWaitMs, TimeUnit.MILLISECONDS);
+        } finally {
+            waiting.decrementAndGet();
+            waitNanos.add(System.nanoTime() - start);
+        }
+        if (!acquired) {
+            rejected.increment();
+            throw new TransformationCapacityException(
+                    "Not enough memory became free to process the image in time, try again later",
+                    retryAfterSeconds());
+        }
+        admitted.increment();
+        return new Permit(permits);
+    }
+
+    int permits(int width, int height) {
+        var bytes = (long) width * height * bytesPerPixel;
+        var permits = (bytes + UNIT_BYTES - 1) / UNIT_BYTES;
+        return (int) Math.max(1, Math.min(totalPermits, permits));
+    }
+
+    private long retryAfterSeconds() {
+        return Math.max(1, TimeUnit.MILLISECONDS.toSeconds(maxWaitMs));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("photo.admission.queue", waiting, AtomicInteger::get)
+                .description("Image transformations waiting for pixel memory")
+                .register(registry);
+        Gauge.builder("photo.admission.reserved", this,
+                        admission -> (double) (admission.totalPermits - admission.budget.availablePermits()) * UNIT_BYTES)
+                .description("Pixel memory reserved by running image transformations")
+                .baseUnit("bytes")
+                .register(registry);
+        // Admissions that did not have to wait count as a zero wait
+        FunctionTimer.builder("photo.admission.wait", this,
+                        admission -> admission.admitted.sum() + admission.rejected.sum(),
+                        admission -> admission.waitNanos.sum(), TimeUnit.NANOSECONDS)
+                .description("Time image transformations waited for pixel memory")
+                .register(registry);
+        FunctionCounter.builder("photo.admission.rejected", rejected, LongAdder::sum)
+                .description("Image transformations rejected for lack of pixel memory")
+                .register(registry);
+    }
+
+    /**
+     * Reserved pixel memory, returned on {@link #close()}
+     */
+    public final class Permit implements AutoCloseable {
+
+        private final int permits;
+        private boolean released;
+
+        private Permit(int permits) {
+            this.permits = permits;
+        }
+
+        @Override
+        public void close() {
+            if (!released && permits > 0) {
+                released = true;
+                budget.release(permits);
+            }
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.phototransformation.service;
+
+/**
+ * Thrown when a decode or resize cannot get its pixel memory from
+ * {@link TransformationAdmission}: too many transformations are already
+ * waiting, or the budget did not free up within {@code photo.admission.max-wait-ms}.
+ */
+public class TransformationCapacityException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public TransformationCapacityException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
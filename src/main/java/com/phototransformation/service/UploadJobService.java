@@ -0,0 +1,19 @@
+package com.phototransformation.service;
+
+import java.util.List;
+
+import org.springframework.web.multipart.MultipartFile;
+
+import com.phototransformation.entity.UploadJob;
+
+public interface UploadJobService {
+
+    /**
+     * Store the files and queue one job per non-empty file
+     *
+     * @throws UploadQueueFullException if the queue has no room for the whole batch
+     */
+    List<UploadJob> submit(MultipartFile[] files) throws Exception;
+
+    UploadJob getJob(String jobId);
+}
@@ -0,0 +1,240 @@
+package com.phototransformation.service;
+
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import com.phototransformation.config.PhotoConfiguration;
+import com.phototransformation.entity.Photo;
+import com.phototransformation.entity.UploadJob;
+import com.phototransformation.repository.UploadJobRepository;
+import com.phototransformation.util.EncryptionUtil;
+import com.phototransformation.util.ImageProcessingUtil;
+import com.phototransformation.util.PipelineMetrics;
+import com.phototransformation.util.SpoolDirectory;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Runs uploads in the background. Accepting a file only encrypts and stores
+ * the raw bytes and inserts a job row; decode, resize and the final store run
+ * on {@code photoUploadJobExecutor}, at most {@code photo.jobs.concurrency} at
+ * a time. Jobs that were still waiting or running when the application
+ * stopped are picked up again on startup.
+ */
+@Service
+public class UploadJobServiceImpl implements UploadJobService, MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(UploadJobServiceImpl.class);
+
+    private static final List<UploadJob.Status> UNFINISHED = List.of(UploadJob.Status.QUEUED, UploadJob.Status.PROCESSING);
+
+    private final PhotoConfiguration photoConfiguration;
+    private final UploadJobRepository uploadJobRepository;
+    private final PhotoManagerService photoManagerService;
+    private final PhotoStorageService photoStorageService;
+    private final EncryptionUtil encryptionUtil;
+    private final ImageProcessingUtil imageProcessingUtil;
+    private final SpoolDirectory spoolDirectory;
+    private final PipelineMetrics pipelineMetrics;
+    private final Executor photoUploadJobExecutor;
+
+    // Jobs submitted to the executor that have not finished yet
+    private final AtomicInteger pending = new AtomicInteger();
+
+    public UploadJobServiceImpl(final PhotoConfiguration photoConfiguration,
+                                final UploadJobRepository uploadJobRepository,
+                                final PhotoManagerService photoManagerService,
+                                final PhotoStorageService photoStorageService,
+                                final EncryptionUtil encryptionUtil,
+                                final ImageProcessingUtil imageProcessingUtil,
+                                final SpoolDirectory spoolDirectory,
+                                final PipelineMetrics pipelineMetrics,
+                                @Qualifier("photoUploadJobExecutor") final Executor photoUploadJobExecutor) {
+        this.photoConfiguration = photoConfiguration;
+        this.uploadJobRepository = uploadJobRepository;
+        this.photoManagerService = photoManagerService;
+        this.photoStorageService = photoStorageService;
+        this.encryptionUtil = encryptionUtil;
+        this.imageProcessingUtil = imageProcessingUtil;
+        this.spoolDirectory = spoolDirectory;
+        this.pipelineMetrics = pipelineMetrics;
+        this.photoUploadJobExecutor = photoUploadJobExecutor;
+    }
+
+    @Override
+    public List<UploadJob> submit(MultipartFile[] files) throws Exception {
+        var accepted = new ArrayList<MultipartFile>();
+        for (var file : files) {
+            if (!file.isEmpty()) {
+                accepted.add(file);
+            }
+        }
+        reserve(accepted.size());
+
+        // Every file is spooled before any job row is inserted, and the rows go in
+        // together, so a failure part way leaves no QUEUED job behind that was
+        // never handed to a worker
+        var jobs = new ArrayList<UploadJob>();
+        var queued = new ArrayList<String>();
+        List<UploadJob> saved;
+        try {
+            for (var file : accepted) {
+                var job = new UploadJob();
+                job.setId(UUID.randomUUID().toString());
+                job.setOriginalFileName(file.getOriginalFilename());
+                job.setContentType(file.getContentType());
+                job.setFileSize(file.getSize());
+
+                if (imageProcessingUtil.isValidImageFormat(file.getContentType())) {
+                    try (var in = encryptionUtil.openEncrypting(file.getInputStream())) {
+                        job.setSpoolKey(photoStorageService.store(in));
+                    }
+                    queued.add(job.getId());
+                } else {
+                    // Rejected right away, it does not need a worker
+                    pipelineMetrics.rejected(PipelineMetrics.REJECTED_FORMAT);
+                    job.setStatus(UploadJob.Status.FAILED);
+                    job.setErrorMessage("Invalid file format. Only PNG and JPG are allowed.");
+                    job.setFinishedAt(LocalDateTime.now());
+                }
+                jobs.add(job);
+            }
+            saved = uploadJobRepository.saveAll(jobs);
+        } catch (Exception e) {
+            pending.addAndGet(-accepted.size());
+            deleteSpooled(jobs);
+            throw e;
+        }
+
+        // Slots reserved for files that failed validation are not needed
+        pending.addAndGet(queued.size() - accepted.size());
+        queued.forEach(this::enqueue);
+        return saved;
+    }
+
+    @Override
+    public UploadJob getJob(String jobId) {
+        return uploadJobRepository.findById(jobId)
+                .orElseThrow(() -> new IllegalArgumentException("Upload job not found with ID: " + jobId));
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void requeueUnfinishedJobs() {
+        var unfinished = uploadJobRepository.findByStatusInOrderByCreatedAtAsc(UNFINISHED);
+        if (unfinished.isEmpty()) {
+            return;
+        }
+        log.info("Requeueing {} unfinished upload job(s)", unfinished.size());
+        pending.addAndGet(unfinished.size());
+        for (var job : unfinished) {
+            enqueue(job.getId());
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("photo.jobs.pending", pending, AtomicInteger::get)
+                .description("Async upload jobs queued or running")
+                .register(registry);
+    }
+
+    private void deleteSpooled(List<UploadJob> jobs) {
+        for (var job : jobs) {
+            if (job.getSpoolKey() == null) {
+                continue;
+            }
+            try {
+                photoStorageService.delete(job.getSpoolKey());
+            } catch (Exception e) {
+                log.warn("Could not remove spooled upload {} of a failed batch", job.getSpoolKey(), e);
+            }
+        }
+    }
+
+    private void reserve(int count) {
+        var jobs = photoConfiguration.getJobs();
+        while (true) {
+            var current = pending.get();
+            if (current + count > jobs.getMaxQueued()) {
+                throw new UploadQueueFullException(
+                        String.format("Upload queue is full (%d job(s) waiting), try again later", current),
+                        jobs.getRetryAfterSeconds());
+            }
+            if (pending.compareAndSet(current, current + count)) {
+                return;
+            }
+        }
+    }
+
+    private void enqueue(String jobId) {
+        photoUploadJobExecutor.execute(() -> {
+            try {
+                process(jobId);
+            } finally {
+                pending.decrementAndGet();
+            }
+        });
+    }
+
+    private void process(String jobId) {
+        var job = uploadJobRepository.findById(jobId).orElse(null);
+        if (job == null || !UNFINISHED.contains(job.getStatus())) {
+            return;
+        }
+
+        job.setStatus(UploadJob.Status.PROCESSING);
+        job.setStartedAt(LocalDateTime.now());
+        job = uploadJobRepository.save(job);
+
+        try {
+            var photo = processSpooled(job);
+            job.setPhotoFileName(photo.getFileName());
+            job.setStatus(UploadJob.Status.COMPLETED);
+        } catch (Exception e) {
+            log.warn("Upload job {} ({}) failed", jobId, job.getOriginalFileName(), e);
+            var message = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            job.setErrorMessage(message.length() > 1000 ? message.substring(0, 1000) : message);
+            job.setStatus(UploadJob.Status.FAILED);
+        }
+        job.setFinishedAt(LocalDateTime.now());
+        uploadJobRepository.save(job);
+
+        try {
+            photoStorageService.delete(job.getSpoolKey());
+        } catch (Exception e) {
+            log.warn("Could not remove spooled upload of job {}", jobId, e);
+        }
+    }
+
+    /**
+     * Decrypts the spooled upload chunk by chunk into a plain temp file for the
+     * processing pipeline to read
+     */
+    private Photo processSpooled(UploadJob job) throws Exception {
+        var source = spoolDirectory.createFile("upload_", ".tmp");
+        try {
+            try (var in = photoStorageService.open(job.getSpoolKey());
+                 var out = Files.newOutputStream(source)) {
+                encryptionUtil.decrypt(in, out);
+            }
+            return photoManagerService.processAndSavePhoto(job.getOriginalFileName(), job.getContentType(), source);
+        } finally {
+            Files.deleteIfExists(source);
+        }
+    }
+}
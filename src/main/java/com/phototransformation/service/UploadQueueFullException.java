@@ -0,0 +1,19 @@
+package com.phototransformation.service;
+
+/**
+ * Thrown when an async upload would push the number of waiting jobs over
+ * {@code photo.jobs.max-queued}. Nothing of the rejected batch is stored.
+ */
+public class UploadQueueFullException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public UploadQueueFullException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
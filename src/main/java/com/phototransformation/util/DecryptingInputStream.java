@@ -0,0 +1,128 @@
+package com.phototransformation.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.security.GeneralSecurityException;
+import java.util.Objects;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+/**
+ * Plaintext view of a chunked AES-GCM envelope (see {@link EncryptionUtil}).
+ * Only the chunk under the current position is held in memory; it is
+ * authenticated before any of its bytes are returned. {@link #skip(long)}
+ * just moves the position, and the next read seeks straight to the chunk
+ * that holds it. Created by {@link EncryptionUtil#openDecrypting(SeekableByteChannel)}.
+ */
+public class DecryptingInputStream extends InputStream {
+
+    private final SeekableByteChannel channel;
+    private final SecretKey key;
+    private final byte[] header;
+    private final int chunkSize;
+    private final long length;
+    private final long lastChunk;
+
+    private final ByteBuffer sealed;
+    private final byte[] plain;
+    private long loadedChunk = -1;
+    private int loadedLength;
+    private long position;
+
+    DecryptingInputStream(SeekableByteChannel channel, SecretKey key, byte[] header, int chunkSize, long length) {
+        this.channel = channel;
+        this.key = key;
+        this.header = header;
+        this.chunkSize = chunkSize;
+        this.length = length;
+        this.lastChunk = length / chunkSize;
+        this.sealed = ByteBuffer.allocate(chunkSize + EncryptionUtil.TAG_LENGTH);
+        this.plain = new byte[chunkSize + EncryptionUtil.TAG_LENGTH];
+    }
+
+    /**
+     * @return Total plaintext length
+     */
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        var single = new byte[1];
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) {
+            return 0;
+        }
+        if (position >= length) {
+            if (loadedChunk != lastChunk) {
+                // The final chunk is empty when the length is a multiple of the chunk size; still authenticate it
+                // so a truncated blob is reported instead of ending early
+                load(lastChunk);
+            }
+            return -1;
+        }
+
+        var chunk = position / chunkSize;
+        if (chunk != loadedChunk) {
+            load(chunk);
+        }
+
+        var offset = (int) (position - chunk * chunkSize);
+        var count = Math.min(len, loadedLength - offset);
+        System.arraycopy(plain, offset, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public long skip(long n) {
+        var skipped = Math.max(0, Math.min(n, length - position));
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        var chunk = position / chunkSize;
+        return chunk == loadedChunk ? loadedLength - (int) (position - chunk * chunkSize) : 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void load(long chunk) throws IOException {
+        var last = chunk == lastChunk;
+        var expected = last
+                ? (int) (length - chunk * chunkSize) + EncryptionUtil.TAG_LENGTH
+                : chunkSize + EncryptionUtil.TAG_LENGTH;
+
+        sealed.clear().limit(expected);
+        channel.position(EncryptionUtil.HEADER_LENGTH + chunk * (chunkSize + EncryptionUtil.TAG_LENGTH));
+        while (sealed.hasRemaining()) {
+            if (channel.read(sealed) < 0) {
+                throw new IOException("Encrypted data is truncated");
+            }
+        }
+
+        try {
+            var cipher = EncryptionUtil.CIPHERS.get();
+            EncryptionUtil.initChunk(cipher, Cipher.DECRYPT_MODE, key, header, Math.toIntExact(chunk), last);
+            loadedLength = cipher.doFinal(sealed.array(), 0, expected, plain, 0);
+            loadedChunk = chunk;
+        } catch (GeneralSecurityException e) {
+            loadedChunk = -1;
+            throw new IOException("Chunk " + chunk + " failed authentication", e);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.phototransformation.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.util.Objects;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+/**
+ * Envelope view of a plaintext stream (see {@link EncryptionUtil}): reading it
+ * yields the header, then the sealed chunks, each one encrypted only when the
+ * previous one has been consumed. Only one chunk of plaintext and its sealed
+ * form are held in memory, so a stream of any length can be passed straight
+ * to a blob store. Created by {@link EncryptionUtil#openEncrypting(InputStream)}.
+ */
+public class EncryptingInputStream extends InputStream {
+
+    private final InputStream plaintext;
+    private final SecretKey key;
+    private final byte[] header;
+
+    private final byte[] plain;
+    private final byte[] sealed;
+    private int sealedLength;
+    private int sealedPosition;
+    private int nextChunk;
+    private boolean finished;
+
+    EncryptingInputStream(InputStream plaintext, SecretKey key, byte[] header, int chunkSize) {
+        this.plaintext = plaintext;
+        this.key = key;
+        this.header = header;
+        this.plain = new byte[chunkSize];
+        this.sealed = new byte[Math.max(chunkSize + EncryptionUtil.TAG_LENGTH, header.length)];
+
+        // The header is served first, from the same buffer as the chunks
+        System.arraycopy(header, 0, sealed, 0, header.length);
+        this.sealedLength = header.length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        var single = new byte[1];
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) {
+            return 0;
+        }
+        if (sealedPosition == sealedLength) {
+            if (finished) {
+                return -1;
+            }
+            seal();
+        }
+
+        var count = Math.min(len, sealedLength - sealedPosition);
+        System.arraycopy(sealed, sealedPosition, b, off, count);
+        sealedPosition += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return sealedLength - sealedPosition;
+    }
+
+    @Override
+    public void close() throws IOException {
+        plaintext.close();
+    }
+
+    private void seal() throws IOException {
+        var read = plaintext.readNBytes(plain, 0, plain.length);
+        var last = read < plain.length;
+
+        try {
+            var cipher = EncryptionUtil.CIPHERS.get();
+            EncryptionUtil.initChunk(cipher, Cipher.ENCRYPT_MODE, key, header, nextChunk, last);
+            sealedLength = cipher.doFinal(plain, 0, read, sealed, 0);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Chunk " + nextChunk + " could not be encrypted", e);
+        }
+        sealedPosition = 0;
+        nextChunk++;
+        finished = last;
+    }
+}
@@ -1,67 +1,404 @@
 package com.phototransformation.util;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
 import java.security.SecureRandom;
 import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+/**
+ * Encrypts photos into a versioned, chunked AES-256-GCM envelope:
+ *
+ * <pre>
+ * header: magic "PTEN" | version (1) | algorithm (1) | key id (8) | chunk size (4) | nonce prefix (8)
+ * body:   chunk 0 | chunk 1 | ... | last chunk      each chunk = ciphertext | 16 byte tag
+ * </pre>
+ *
+ * Every chunk holds chunk size bytes of plaintext except the last one, which
+ * holds the remainder (possibly nothing). Chunk i is sealed with nonce
+ * prefix || i and the header plus a last-chunk flag as associated data, so
+ * chunks cannot be reordered, truncated or moved between photos. Data can be
+ * streamed through fixed size buffers and any chunk can be located directly.
+ *
+ * Every key that becomes the current one is first appended to the keyring
+ * file of {@link SecretKeyGenerator}, which is loaded on startup, so blobs
+ * sealed with a key that has since been rotated out stay readable after a
+ * restart.
+ *
+ * Blobs written by the old AES/CBC format (16 byte IV followed by the
+ * ciphertext) are still decrypted, with the oldest key of the keyring: the
+ * one that was current before the envelope format existed.
+ * {@link #needsReEncryption(byte[])} tells callers to migrate them.
+ */
 @Component
 public class EncryptionUtil {
-    
-    private static final String TRANSFORMATION = "AES/CBC/PKCS5Padding";
-    private static final int IV_LENGTH = 16;
-    
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final String LEGACY_TRANSFORMATION = "AES/CBC/PKCS5Padding";
+    private static final int LEGACY_IV_LENGTH = 16;
+
+    private static final byte[] MAGIC = { 'P', 'T', 'E', 'N' };
+    private static final byte VERSION = 1;
+    private static final byte ALGORITHM_AES_256_GCM = 1;
+    private static final int KEY_ID_LENGTH = 8;
+    private static final int NONCE_PREFIX_LENGTH = 8;
+    private static final int CHUNK_SIZE_OFFSET = MAGIC.length + 2 + KEY_ID_LENGTH;
+    private static final int NONCE_PREFIX_OFFSET = CHUNK_SIZE_OFFSET + 4;
+
+    public static final int HEADER_LENGTH = NONCE_PREFIX_OFFSET + NONCE_PREFIX_LENGTH;
+    public static final int TAG_LENGTH = 16;
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private static final byte[] LAST_CHUNK = { 1 };
+    private static final byte[] INNER_CHUNK = { 0 };
+
+    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+
+    // Cipher instances are not thread safe, but re-initialising one is far cheaper than the provider lookup
+    static final ThreadLocal<Cipher> CIPHERS = ThreadLocal.withInitial(() -> newCipher(TRANSFORMATION));
+    private static final ThreadLocal<Cipher> LEGACY_CIPHERS = ThreadLocal.withInitial(() -> newCipher(LEGACY_TRANSFORMATION));
+
     @Autowired
     private SecretKeyGenerator secretKeyGenerator;
-    
+
+    /**
+     * The key new envelopes are sealed with and the id written into their
+     * header, published together so the two always match
+     */
+    private record CurrentKey(SecretKey key, byte[] id) {
+    }
+
+    private volatile CurrentKey currentKey;
+    // Key of the legacy CBC blobs, they carry no key id
+    private volatile SecretKey legacyKey;
+
+    // Keys of the keyring, so blobs written before a rotation stay readable
+    private final Map<String, SecretKey> keysById = new ConcurrentHashMap<>();
+
     /**
-     * Encrypts data using AES encryption
+     * Encrypts data into the chunked AES-GCM envelope
      * @param data The data to encrypt
-     * @return The encrypted data with IV prepended
+     * @return The envelope: header followed by the sealed chunks
      * @throws Exception if encryption fails
      */
     public byte[] encrypt(byte[] data) throws Exception {
-        var secretKey = secretKeyGenerator.loadOrGenerateSecretKey();
-        
-        var cipher = Cipher.getInstance(TRANSFORMATION);
-        
-        // Generate random IV
-        var iv = new byte[IV_LENGTH];
-        new SecureRandom().nextBytes(iv);
-        var ivSpec = new IvParameterSpec(iv);
-        
-        cipher.init(Cipher.ENCRYPT_MODE, secretKey, ivSpec);
-        var encryptedData = cipher.doFinal(data);
-        
-        // Prepend IV to encrypted data
-        var encryptedWithIv = new byte[IV_LENGTH + encryptedData.length];
-        System.arraycopy(iv, 0, encryptedWithIv, 0, IV_LENGTH);
-        System.arraycopy(encryptedData, 0, encryptedWithIv, IV_LENGTH, encryptedData.length);
-        
-        return encryptedWithIv;
-    }
-    
+        var out = new ByteArrayOutputStream((int) ciphertextLength(data.length, DEFAULT_CHUNK_SIZE));
+        encrypt(new ByteArrayInputStream(data), out);
+        return out.toByteArray();
+    }
+
     /**
-     * Decrypts data using AES decryption
-     * @param encryptedDataWithIv The encrypted data with IV prepended
+     * Encrypts a stream into the chunked AES-GCM envelope using fixed size buffers
+     * @param in Plaintext, read until end of stream
+     * @param out Receives the envelope; not closed
+     * @throws IOException if reading or writing fails
+     * @throws GeneralSecurityException if encryption fails
+     */
+    public void encrypt(InputStream in, OutputStream out) throws IOException, GeneralSecurityException {
+        var current = getCurrentKey();
+        var key = current.key();
+        var headerBytes = newHeader(current.id());
+        out.write(headerBytes);
+
+        var cipher = CIPHERS.get();
+        var plain = new byte[DEFAULT_CHUNK_SIZE];
+        var sealed = new byte[DEFAULT_CHUNK_SIZE + TAG_LENGTH];
+        for (var index = 0; ; index++) {
+            var read = in.readNBytes(plain, 0, plain.length);
+            var last = read < plain.length;
+
+            initChunk(cipher, Cipher.ENCRYPT_MODE, key, headerBytes, index, last);
+            var length = cipher.doFinal(plain, 0, read, sealed, 0);
+            out.write(sealed, 0, length);
+
+            if (last) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Opens a stream that reads as the envelope of the given plaintext, so it
+     * can be handed to anything that consumes an InputStream, such as the blob
+     * store, without the whole ciphertext ever being in memory
+     * @param in Plaintext, read chunk by chunk as the returned stream is read; closed with it
+     * @return Stream of the envelope
+     * @throws IOException if the key cannot be loaded
+     * @throws GeneralSecurityException if the key cannot be loaded
+     */
+    public InputStream openEncrypting(InputStream in) throws IOException, GeneralSecurityException {
+        var current = getCurrentKey();
+        return new EncryptingInputStream(in, current.key(), newHeader(current.id()), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Decrypts data written by either the current envelope or the legacy CBC format
+     * @param encryptedData The encrypted data
      * @return The decrypted data
-     * @throws Exception if decryption fails
+     * @throws Exception if decryption or authentication fails
+     */
+    public byte[] decrypt(byte[] encryptedData) throws Exception {
+        if (!isEnvelope(encryptedData)) {
+            return decryptLegacy(encryptedData);
+        }
+        var chunkSize = ByteBuffer.wrap(encryptedData, CHUNK_SIZE_OFFSET, 4).getInt();
+        var out = new ByteArrayOutputStream((int) plaintextLength(encryptedData.length, chunkSize));
+        decrypt(new ByteArrayInputStream(encryptedData), out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Decrypts a stream chunk by chunk using fixed size buffers. Legacy CBC data
+     * has no chunk structure and is decrypted in one piece
+     * @param in Encrypted data, read until end of stream
+     * @param out Receives the plaintext; not closed. On an authentication
+     *            failure it may already hold the chunks that verified
+     * @throws IOException if reading or writing fails
+     * @throws GeneralSecurityException if decryption or authentication fails
+     */
+    public void decrypt(InputStream in, OutputStream out) throws IOException, GeneralSecurityException {
+        var headerBytes = in.readNBytes(HEADER_LENGTH);
+        if (!isEnvelope(headerBytes)) {
+            var rest = in.readAllBytes();
+            var legacy = Arrays.copyOf(headerBytes, headerBytes.length + rest.length);
+            System.arraycopy(rest, 0, legacy, headerBytes.length, rest.length);
+            out.write(decryptLegacy(legacy));
+            return;
+        }
+
+        var header = ByteBuffer.wrap(headerBytes);
+        var key = keyFor(Arrays.copyOfRange(headerBytes, MAGIC.length + 2, CHUNK_SIZE_OFFSET));
+        var chunkSize = header.getInt(CHUNK_SIZE_OFFSET);
+        if (chunkSize <= 0) {
+            throw new GeneralSecurityException("Invalid chunk size in encryption header");
+        }
+
+        var cipher = CIPHERS.get();
+        var sealed = new byte[chunkSize + TAG_LENGTH];
+        var plain = new byte[chunkSize + TAG_LENGTH];
+        for (var index = 0; ; index++) {
+            var read = in.readNBytes(sealed, 0, sealed.length);
+            if (read < TAG_LENGTH) {
+                throw new GeneralSecurityException("Encrypted data is truncated");
+            }
+            var last = read < sealed.length;
+
+            initChunk(cipher, Cipher.DECRYPT_MODE, key, headerBytes, index, last);
+            var length = cipher.doFinal(sealed, 0, read, plain, 0);
+            out.write(plain, 0, length);
+
+            if (last) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Opens a decrypting stream over an envelope that holds one chunk in memory
+     * at a time. Skipping moves straight to the chunk containing the target
+     * position, so serving a byte range only decrypts the chunks it overlaps
+     * @param channel Envelope to read; closed with the returned stream
+     * @return Stream of the plaintext, its length is known up front
+     * @throws IOException if the header cannot be read
+     * @throws GeneralSecurityException if the data is not an envelope or its key is unknown
+     */
+    public DecryptingInputStream openDecrypting(SeekableByteChannel channel) throws IOException, GeneralSecurityException {
+        var header = ByteBuffer.allocate(HEADER_LENGTH);
+        channel.position(0);
+        while (header.hasRemaining() && channel.read(header) >= 0) {
+            // keep reading until the header is complete or the channel ends
+        }
+        var headerBytes = header.array();
+        if (header.hasRemaining() || !isEnvelope(headerBytes)) {
+            throw new GeneralSecurityException("Data is not a chunked encryption envelope");
+        }
+
+        var key = keyFor(Arrays.copyOfRange(headerBytes, MAGIC.length + 2, CHUNK_SIZE_OFFSET));
+        var chunkSize = header.getInt(CHUNK_SIZE_OFFSET);
+        if (chunkSize <= 0) {
+            throw new GeneralSecurityException("Invalid chunk size in encryption header");
+        }
+        return new DecryptingInputStream(channel, key, headerBytes, chunkSize,
+                plaintextLength(channel.size(), chunkSize));
+    }
+
+    /**
+     * Tells whether stored data should be rewritten with {@link #encrypt(byte[])}:
+     * it is in the legacy CBC format or sealed with a key other than the current one
+     * @param encryptedData The stored data
+     * @return true if the data should be migrated
+     * @throws Exception if the current key cannot be loaded
+     */
+    public boolean needsReEncryption(byte[] encryptedData) throws Exception {
+        if (!isEnvelope(encryptedData)) {
+            return true;
+        }
+        var keyId = Arrays.copyOfRange(encryptedData, MAGIC.length + 2, CHUNK_SIZE_OFFSET);
+        return !Arrays.equals(keyId, getCurrentKey().id());
+    }
+
+    /**
+     * Drops the cached key and loads it again from the key file. Call this after
+     * the key file has been replaced, e.g. as part of a key rotation. Keys used
+     * before stay in the keyring for decrypting data sealed with them
+     * @throws Exception if the key cannot be loaded
+     */
+    public void reloadSecretKey() throws Exception {
+        synchronized (this) {
+            if (currentKey == null) {
+                loadKeys();
+            } else {
+                useKey(secretKeyGenerator.loadOrGenerateSecretKey());
+            }
+        }
+    }
+
+    /**
+     * Plaintext length of a stored envelope
+     * @param header The first {@link #HEADER_LENGTH} bytes of the envelope
+     * @param ciphertextLength Total envelope length
+     * @throws IllegalArgumentException if the header is not an envelope header
+     */
+    public long plaintextLength(byte[] header, long ciphertextLength) {
+        if (!isEnvelope(header)) {
+            throw new IllegalArgumentException("Data is not a chunked encryption envelope");
+        }
+        return plaintextLength(ciphertextLength, ByteBuffer.wrap(header).getInt(CHUNK_SIZE_OFFSET));
+    }
+
+    /**
+     * Plaintext length of an envelope of the given total length
+     */
+    public static long plaintextLength(long ciphertextLength, int chunkSize) {
+        var body = ciphertextLength - HEADER_LENGTH;
+        var fullChunks = (body - TAG_LENGTH) / (chunkSize + TAG_LENGTH);
+        return body - (fullChunks + 1) * TAG_LENGTH;
+    }
+
+    /**
+     * Envelope length for a plaintext of the given length
      */
-    public byte[] decrypt(byte[] encryptedDataWithIv) throws Exception {
-        var secretKey = secretKeyGenerator.loadOrGenerateSecretKey();
-        
-        // Extract IV from the beginning of the data
-        var iv = Arrays.copyOfRange(encryptedDataWithIv, 0, IV_LENGTH);
-        var encryptedData = Arrays.copyOfRange(encryptedDataWithIv, IV_LENGTH, encryptedDataWithIv.length);
-        
-        var cipher = Cipher.getInstance(TRANSFORMATION);
-        var ivSpec = new IvParameterSpec(iv);
-        cipher.init(Cipher.DECRYPT_MODE, secretKey, ivSpec);
-        
-        return cipher.doFinal(encryptedData);
-    }
-}
\ No newline at end of file
+    public static long ciphertextLength(long plaintextLength, int chunkSize) {
+        return HEADER_LENGTH + plaintextLength + (plaintextLength / chunkSize + 1) * TAG_LENGTH;
+    }
+
+    /**
+     * Header for a new envelope under the given key id with a fresh nonce prefix
+     */
+    private static byte[] newHeader(byte[] keyId) {
+        var noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+        SECURE_RANDOM.nextBytes(noncePrefix);
+        return ByteBuffer.allocate(HEADER_LENGTH)
+                .put(MAGIC)
+                .put(VERSION)
+                .put(ALGORITHM_AES_256_GCM)
+                .put(keyId)
+                .putInt(DEFAULT_CHUNK_SIZE)
+                .put(noncePrefix)
+                .array();
+    }
+
+    private static boolean isEnvelope(byte[] data) {
+        return data.length >= HEADER_LENGTH
+                && Arrays.equals(data, 0, MAGIC.length, MAGIC, 0, MAGIC.length)
+                && data[MAGIC.length] == VERSION
+                && data[MAGIC.length + 1] == ALGORITHM_AES_256_GCM;
+    }
+
+    static void initChunk(Cipher cipher, int mode, SecretKey key, byte[] header, int index, boolean last)
+            throws GeneralSecurityException {
+        var nonce = ByteBuffer.allocate(NONCE_PREFIX_LENGTH + 4)
+                .put(header, NONCE_PREFIX_OFFSET, NONCE_PREFIX_LENGTH)
+                .putInt(index)
+                .array();
+        cipher.init(mode, key, new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+        cipher.updateAAD(header);
+        cipher.updateAAD(last ? LAST_CHUNK : INNER_CHUNK);
+    }
+
+    private byte[] decryptLegacy(byte[] encryptedDataWithIv) throws GeneralSecurityException, IOException {
+        var cipher = LEGACY_CIPHERS.get();
+        var ivSpec = new IvParameterSpec(encryptedDataWithIv, 0, LEGACY_IV_LENGTH);
+        getCurrentKey();
+        cipher.init(Cipher.DECRYPT_MODE, legacyKey, ivSpec);
+
+        return cipher.doFinal(encryptedDataWithIv, LEGACY_IV_LENGTH, encryptedDataWithIv.length - LEGACY_IV_LENGTH);
+    }
+
+    private SecretKey keyFor(byte[] keyId) throws GeneralSecurityException, IOException {
+        getCurrentKey();
+        var key = keysById.get(HexFormat.of().formatHex(keyId));
+        if (key == null) {
+            throw new GeneralSecurityException("Unknown encryption key id " + HexFormat.of().formatHex(keyId));
+        }
+        return key;
+    }
+
+    /**
+     * Read once per envelope, so a concurrent {@link #reloadSecretKey()} cannot
+     * pair the header of one key with data sealed by the other
+     */
+    private CurrentKey getCurrentKey() throws GeneralSecurityException, IOException {
+        var current = currentKey;
+        if (current == null) {
+            synchronized (this) {
+                if (currentKey == null) {
+                    loadKeys();
+                }
+                current = currentKey;
+            }
+        }
+        return current;
+    }
+
+    private void loadKeys() throws GeneralSecurityException, IOException {
+        var keyring = secretKeyGenerator.loadKeyring();
+        for (var key : keyring) {
+            keysById.put(HexFormat.of().formatHex(keyId(key)), key);
+        }
+        var current = secretKeyGenerator.loadOrGenerateSecretKey();
+        // Set before the current key is published, that is what readers check
+        legacyKey = keyring.isEmpty() ? current : keyring.get(0);
+        useKey(current);
+    }
+
+    private void useKey(SecretKey key) throws GeneralSecurityException, IOException {
+        var keyId = keyId(key);
+        var hexId = HexFormat.of().formatHex(keyId);
+        if (!keysById.containsKey(hexId)) {
+            // Persisted before anything is sealed with it, or a later rotation would lose it
+            secretKeyGenerator.addToKeyring(key);
+            keysById.put(hexId, key);
+        }
+        currentKey = new CurrentKey(key, keyId);
+    }
+
+    private static byte[] keyId(SecretKey key) throws GeneralSecurityException {
+        return Arrays.copyOf(MessageDigest.getInstance("SHA-256").digest(key.getEncoded()), KEY_ID_LENGTH);
+    }
+
+    private static Cipher newCipher(String transformation) {
+        try {
+            return Cipher.getInstance(transformation);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cipher " + transformation + " is not available", e);
+        }
+    }
+}
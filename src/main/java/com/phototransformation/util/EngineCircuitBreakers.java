@@ -0,0 +1,107 @@
+package com.phototransformation.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import com.phototransformation.config.PhotoConfiguration;
+
+/**
+ * One circuit breaker per external image engine, shared by everything that
+ * calls the engine, so resizes and WebP/AVIF encodes learn from each other's
+ * failures. A breaker opens after {@code photo.resize.breaker-failure-threshold}
+ * consecutive failures or a failed startup probe; while it is open the engine
+ * is not called for {@code photo.resize.breaker-open-ms}, then a single call
+ * is let through to try it again.
+ */
+@Component
+public class EngineCircuitBreakers {
+
+    private static final Logger log = LoggerFactory.getLogger(EngineCircuitBreakers.class);
+
+    private final PhotoConfiguration photoConfiguration;
+    private final Map<String, Breaker> breakers = new ConcurrentHashMap<>();
+
+    public EngineCircuitBreakers(final PhotoConfiguration photoConfiguration) {
+        this.photoConfiguration = photoConfiguration;
+    }
+
+    /**
+     * @return The breaker of the named engine, created closed on first use
+     */
+    public Breaker get(String engine) {
+        return breakers.computeIfAbsent(engine, Breaker::new);
+    }
+
+    public final class Breaker {
+
+        private final String engine;
+        private int failures;
+        private long openUntil;
+        private boolean trialRunning;
+
+        private Breaker(String engine) {
+            this.engine = engine;
+        }
+
+        /**
+         * @return Whether the engine may be called; while the breaker is open
+         * only one call is let through after the open period. A true result
+         * must be followed by {@link #succeeded()}, {@link #failed()} or
+         * {@link #release()}
+         */
+        public synchronized boolean tryAcquire() {
+            if (failures < threshold()) {
+                return true;
+            }
+            if (trialRunning || System.currentTimeMillis() < openUntil) {
+                return false;
+            }
+            trialRunning = true;
+            return true;
+        }
+
+        /**
+         * @return Whether a call would currently be let through, without
+         * taking the trial slot of an open breaker
+         */
+        public synchronized boolean isAvailable() {
+            return failures < threshold() || (!trialRunning && System.currentTimeMillis() >= openUntil);
+        }
+
+        public synchronized void succeeded() {
+            if (failures >= threshold()) {
+                log.info("Image engine {} works again", engine);
+            }
+            failures = 0;
+            trialRunning = false;
+        }
+
+        public synchronized void failed() {
+            failures++;
+            trialRunning = false;
+            if (failures >= threshold()) {
+                openUntil = System.currentTimeMillis() + photoConfiguration.getResize().getBreakerOpenMs();
+            }
+        }
+
+        /**
+         * Ends a call that says nothing about the health of the engine
+         */
+        public synchronized void release() {
+            trialRunning = false;
+        }
+
+        public synchronized void open() {
+            failures = Math.max(failures, threshold());
+            openUntil = System.currentTimeMillis() + photoConfiguration.getResize().getBreakerOpenMs();
+        }
+
+        private int threshold() {
+            return Math.max(1, photoConfiguration.getResize().getBreakerFailureThreshold());
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.phototransformation.util;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an output format needs an engine that is not available, such
+ * as WebP or AVIF while ImageMagick is missing or its circuit breaker is open.
+ */
+public class FormatUnavailableException extends IOException {
+
+    private final ImageFormat format;
+
+    public FormatUnavailableException(ImageFormat format, String message) {
+        super(message);
+        this.format = format;
+    }
+
+    public FormatUnavailableException(ImageFormat format, String message, Throwable cause) {
+        super(message, cause);
+        this.format = format;
+    }
+
+    public ImageFormat getFormat() {
+        return format;
+    }
+}
@@ -0,0 +1,263 @@
+package com.phototransformation.util;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.plugins.jpeg.JPEGImageWriteParam;
+
+import org.springframework.stereotype.Component;
+
+import com.phototransformation.config.PhotoConfiguration;
+
+/**
+ * Writes decoded images with the settings under {@code photo.encoding}. JPEG
+ * gets an explicit quality, optimized Huffman tables, optional progressive
+ * mode and the configured chroma subsampling; WebP and AVIF are handed to the
+ * ImageMagick workers through a lossless PNG, behind the same circuit breaker
+ * as ImageMagick resizes. {@link #imageMagickOptions}
+ * gives the same settings as ImageMagick options, so images resized by
+ * ImageMagick come out the same way.
+ */
+@Component
+public class ImageEncoder {
+
+    private static final String JPEG_METADATA_FORMAT = "javax_imageio_jpeg_image_1.0";
+
+    private final PhotoConfiguration photoConfiguration;
+    private final ImageMagickWorkerPool imageMagickWorkerPool;
+    private final EngineCircuitBreakers engineCircuitBreakers;
+    private final SpoolDirectory spoolDirectory;
+    private final int lumaHorizontalSampling;
+    private final int lumaVerticalSampling;
+
+    public ImageEncoder(final PhotoConfiguration photoConfiguration, final ImageMagickWorkerPool imageMagickWorkerPool,
+                        final EngineCircuitBreakers engineCircuitBreakers, final SpoolDirectory spoolDirectory) {
+        this.photoConfiguration = photoConfiguration;
+        this.imageMagickWorkerPool = imageMagickWorkerPool;
+        this.engineCircuitBreakers = engineCircuitBreakers;
+        this.spoolDirectory = spoolDirectory;
+
+        var subsampling = photoConfiguration.getEncoding().getJpegSubsampling();
+        switch (subsampling != null ? subsampling : "4:2:0") {
+            case "4:4:4":
+                lumaHorizontalSampling = 1;
+                lumaVerticalSampling = 1;
+                break;
+            case "4:2:2":
+                lumaHorizontalSampling = 2;
+                lumaVerticalSampling = 1;
+                break;
+            case "4:2:0":
+                lumaHorizontalSampling = 2;
+                lumaVerticalSampling = 2;
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported photo.encoding.jpeg-subsampling: " + subsampling
+                        + " (use 4:4:4, 4:2:2 or 4:2:0)");
+        }
+    }
+
+    /**
+     * Encodes an image
+     * @param image Image to encode; an alpha channel is flattened onto white for JPEG
+     * @param format Output format
+     * @param quality Quality from 1 to 100, null for the configured default of the format
+     * @return Encoded image
+     * @throws FormatUnavailableException if the format needs ImageMagick and it is not available
+     * @throws IOException if encoding fails
+     */
+    public byte[] encode(BufferedImage image, ImageFormat format, Integer quality) throws IOException {
+        switch (format) {
+            case JPEG:
+                return encodeJpeg(image, quality(format, quality));
+            case PNG:
+                return write(image, "png");
+            default:
+                return encodeWithImageMagick(image, format, quality);
+        }
+    }
+
+    /**
+     * @return Whether {@link #encode} can currently write the format; false
+     * for ImageMagick formats while its circuit breaker is open
+     */
+    public boolean canEncode(ImageFormat format) {
+        return !format.isImageMagickOnly()
+                || engineCircuitBreakers.get(ImageMagickResizeEngine.NAME).isAvailable();
+    }
+
+    /**
+     * @return The requested quality, or the configured default of the format;
+     * 0 for PNG, which is lossless
+     */
+    public int quality(ImageFormat format, Integer quality) {
+        if (quality != null) {
+            return quality;
+        }
+        var encoding = photoConfiguration.getEncoding();
+        switch (format) {
+            case JPEG:
+                return encoding.getJpegQuality();
+            case WEBP:
+                return encoding.getWebpQuality();
+            case AVIF:
+                return encoding.getAvifQuality();
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @return Short hash of every setting {@link #encode} applies to the
+     * format with the given quality, defaults resolved; null for PNG, which
+     * has none. Variants encoded with other settings hash differently.
+     */
+    public String settingsHash(ImageFormat format, Integer quality) {
+        var settings = imageMagickOptions(format, quality);
+        if (format == ImageFormat.JPEG) {
+            settings += " -optimize-huffman " + photoConfiguration.getEncoding().isJpegOptimizeHuffman();
+        }
+        if (settings.isEmpty()) {
+            return null;
+        }
+        try {
+            var digest = MessageDigest.getInstance("SHA-256").digest(settings.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 4);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * @return ImageMagick settings that encode like {@link #encode}, to be
+     * placed before {@code -write}; empty for PNG
+     */
+    public String imageMagickOptions(ImageFormat format, Integer quality) {
+        switch (format) {
+            case JPEG:
+                return "-quality " + quality(format, quality)
+                        + " -interlace " + (photoConfiguration.getEncoding().isJpegProgressive() ? "JPEG" : "none")
+                        + " -sampling-factor " + lumaHorizontalSampling + "x" + lumaVerticalSampling;
+            case PNG:
+                return "";
+            default:
+                return "-quality " + quality(format, quality);
+        }
+    }
+
+    private byte[] encodeJpeg(BufferedImage image, int quality) throws IOException {
+        var rgb = image.getColorModel().hasAlpha() ? flatten(image) : image;
+        var encoding = photoConfiguration.getEncoding();
+
+        var writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        var baos = new ByteArrayOutputStream();
+        try (var ios = ImageIO.createImageOutputStream(baos)) {
+            var param = (JPEGImageWriteParam) writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality / 100f);
+            param.setOptimizeHuffmanTables(encoding.isJpegOptimizeHuffman());
+            if (encoding.isJpegProgressive()) {
+                param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+            }
+
+            var metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(rgb), param);
+            applySubsampling(metadata);
+
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(rgb, null, metadata), param);
+        } finally {
+            writer.dispose();
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Sets the sampling factors of the luma component; the chroma components
+     * stay at 1x1, so 2x2 luma means 4:2:0
+     */
+    private void applySubsampling(IIOMetadata metadata) throws IOException {
+        var tree = (IIOMetadataNode) metadata.getAsTree(JPEG_METADATA_FORMAT);
+        var components = tree.getElementsByTagName("componentSpec");
+        for (var i = 0; i < components.getLength(); i++) {
+            var component = (IIOMetadataNode) components.item(i);
+            component.setAttribute("HsamplingFactor", String.valueOf(i == 0 ? lumaHorizontalSampling : 1));
+            component.setAttribute("VsamplingFactor", String.valueOf(i == 0 ? lumaVerticalSampling : 1));
+        }
+        metadata.setFromTree(JPEG_METADATA_FORMAT, tree);
+    }
+
+    private byte[] encodeWithImageMagick(BufferedImage image, ImageFormat format, Integer quality) throws IOException {
+        var breaker = engineCircuitBreakers.get(ImageMagickResizeEngine.NAME);
+        if (!breaker.isAvailable()) {
+            throw new FormatUnavailableException(format, "ImageMagick is not available to encode " + format.getExtension());
+        }
+
+        var tempInput = spoolDirectory.createFile("encode_", ".png");
+        var tempOutput = spoolDirectory.createFile("encoded_", "." + format.getExtension());
+        try {
+            // Written straight to the file, without an encoded copy in the heap
+            ImageIO.write(image, "png", tempInput.toFile());
+
+            if (!breaker.tryAcquire()) {
+                throw new FormatUnavailableException(format, "ImageMagick is not available to encode " + format.getExtension());
+            }
+            try {
+                imageMagickWorkerPool.convert(tempInput, tempOutput, imageMagickOptions(format, quality));
+                var encoded = Files.readAllBytes(tempOutput);
+                if (encoded.length == 0) {
+                    throw new IOException("ImageMagick produced no " + format.getExtension() + " output");
+                }
+                breaker.succeeded();
+                return encoded;
+            } catch (InterruptedException e) {
+                breaker.release();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for an ImageMagick worker");
+            } catch (RejectedExecutionException e) {
+                // Busy rather than broken, not counted as a failure
+                breaker.release();
+                throw e;
+            } catch (IOException | RuntimeException e) {
+                breaker.failed();
+                throw new FormatUnavailableException(format,
+                        "ImageMagick failed to encode " + format.getExtension() + ": " + e.getMessage(), e);
+            }
+        } finally {
+            Files.deleteIfExists(tempInput);
+            Files.deleteIfExists(tempOutput);
+        }
+    }
+
+    private static byte[] write(BufferedImage image, String formatName) throws IOException {
+        try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+            ImageIO.write(image, formatName, baos);
+            return baos.toByteArray();
+        }
+    }
+
+    private static BufferedImage flatten(BufferedImage image) {
+        var rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        var graphics = rgb.createGraphics();
+        try {
+            graphics.drawImage(image, 0, 0, Color.WHITE, null);
+        } finally {
+            graphics.dispose();
+        }
+        return rgb;
+    }
+}
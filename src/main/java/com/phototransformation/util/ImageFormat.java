@@ -0,0 +1,98 @@
+package com.phototransformation.util;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Output formats the application can encode. JPEG and PNG are written by the
+ * JDK; WebP and AVIF have no ImageIO writer and go through ImageMagick.
+ */
+public enum ImageFormat {
+
+    JPEG("jpg", "image/jpeg", false),
+    PNG("png", "image/png", false),
+    WEBP("webp", "image/webp", true),
+    AVIF("avif", "image/avif", true);
+
+    /** Number of leading bytes {@link #fromSignature} looks at */
+    public static final int SIGNATURE_LENGTH = 8;
+
+    private static final byte[] PNG_SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+
+    private final String extension;
+    private final String contentType;
+    private final boolean imageMagickOnly;
+
+    ImageFormat(String extension, String contentType, boolean imageMagickOnly) {
+        this.extension = extension;
+        this.contentType = contentType;
+        this.imageMagickOnly = imageMagickOnly;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public boolean isImageMagickOnly() {
+        return imageMagickOnly;
+    }
+
+    public boolean supportsAlpha() {
+        return this != JPEG;
+    }
+
+    /**
+     * @param name Extension or format name, jpg and jpeg are the same
+     * @throws IllegalArgumentException if the format is not supported
+     */
+    public static ImageFormat fromName(String name) {
+        var normalized = name.trim().toLowerCase(Locale.ROOT);
+        if (normalized.equals("jpeg")) {
+            return JPEG;
+        }
+        for (var format : values()) {
+            if (format.extension.equals(normalized)) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported format: " + name);
+    }
+
+    /**
+     * @param header The first {@link #SIGNATURE_LENGTH} bytes of a file, or
+     * fewer if the file is shorter
+     * @return JPEG or PNG if the header starts with its signature, null otherwise
+     */
+    public static ImageFormat fromSignature(byte[] header) {
+        if (header.length >= 3 && (header[0] & 0xFF) == 0xFF && (header[1] & 0xFF) == 0xD8 && (header[2] & 0xFF) == 0xFF) {
+            return JPEG;
+        }
+        if (header.length >= PNG_SIGNATURE.length && Arrays.equals(header, 0, PNG_SIGNATURE.length,
+                PNG_SIGNATURE, 0, PNG_SIGNATURE.length)) {
+            return PNG;
+        }
+        return null;
+    }
+
+    /**
+     * @return The format of the content type, JPEG for unknown or missing types
+     */
+    public static ImageFormat fromContentType(String contentType) {
+        if (contentType != null) {
+            var normalized = contentType.toLowerCase(Locale.ROOT);
+            if (normalized.equals("image/jpg")) {
+                return JPEG;
+            }
+            for (var format : values()) {
+                if (format.contentType.equals(normalized)) {
+                    return format;
+                }
+            }
+        }
+        return JPEG;
+    }
+}
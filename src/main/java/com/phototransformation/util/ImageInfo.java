@@ -0,0 +1,53 @@
+package com.phototransformation.util;
+
+import java.awt.Dimension;
+import java.awt.image.ColorModel;
+
+/**
+ * Header level description of an encoded image: everything that can be learned
+ * about it without decoding a single pixel.
+ */
+public class ImageInfo {
+
+    private final int width;
+    private final int height;
+    private final String formatName;
+    private final ColorModel colorModel;
+
+    public ImageInfo(int width, int height, String formatName, ColorModel colorModel) {
+        this.width = width;
+        this.height = height;
+        this.formatName = formatName;
+        this.colorModel = colorModel;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return Lower case format name reported by the image reader (png, jpeg)
+     */
+    public String getFormatName() {
+        return formatName;
+    }
+
+    /**
+     * @return Color model of the encoded image, or null if the reader cannot tell without decoding
+     */
+    public ColorModel getColorModel() {
+        return colorModel;
+    }
+
+    public boolean hasAlpha() {
+        return colorModel != null && colorModel.hasAlpha();
+    }
+
+    public Dimension getDimension() {
+        return new Dimension(width, height);
+    }
+}
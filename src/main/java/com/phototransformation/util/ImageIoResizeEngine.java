@@ -0,0 +1,107 @@
+package com.phototransformation.util;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+
+import org.springframework.stereotype.Component;
+
+import com.phototransformation.config.PhotoConfiguration;
+
+/**
+ * In-JVM resize engine: decodes with ImageIO, resamples with
+ * {@link JavaResizeEngine} and encodes with {@link ImageEncoder}. It needs
+ * nothing outside the JVM, so it is always available and the other engines
+ * fall back to it.
+ */
+@Component
+public class ImageIoResizeEngine implements ResizeEngine {
+
+    public static final String NAME = "java";
+
+    private final PhotoConfiguration photoConfiguration;
+    private final JavaResizeEngine javaResizeEngine;
+    private final ImageEncoder imageEncoder;
+
+    public ImageIoResizeEngine(final PhotoConfiguration photoConfiguration,
+                               final JavaResizeEngine javaResizeEngine,
+                               final ImageEncoder imageEncoder) {
+        this.photoConfiguration = photoConfiguration;
+        this.javaResizeEngine = javaResizeEngine;
+        this.imageEncoder = imageEncoder;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void probe() {
+        // Nothing outside the JVM to check
+    }
+
+    @Override
+    public byte[] resize(Path source, int newWidth, int newHeight, ImageFormat format) throws IOException {
+        var originalImage = decodeForResize(source.toFile(), newWidth, newHeight);
+
+        var filter = JavaResizeEngine.Filter.fromName(photoConfiguration.getResize().getFilter());
+        var resizedImage = javaResizeEngine.resize(originalImage, newWidth, newHeight, filter, format.supportsAlpha());
+
+        return imageEncoder.encode(resizedImage, format, null);
+    }
+
+    /**
+     * Decodes an image for resizing. Large JPEGs are decoded with power of two
+     * source subsampling so the decoded raster stays at least twice the target
+     * size, which leaves the final high quality resample a small job
+     * @param input File or stream accepted by {@link ImageIO#createImageInputStream}
+     * @param newWidth Target width
+     * @param newHeight Target height
+     * @return Decoded, possibly subsampled image
+     * @throws IOException if the image cannot be decoded
+     */
+    public BufferedImage decodeForResize(Object input, int newWidth, int newHeight) throws IOException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(input)) {
+            var readers = iis != null ? ImageIO.getImageReaders(iis) : null;
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("Unable to read image data");
+            }
+
+            var reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                var param = reader.getDefaultReadParam();
+
+                if (photoConfiguration.getResize().isScaleOnDecode()
+                        && "jpeg".equalsIgnoreCase(reader.getFormatName())) {
+                    var factor = decodeSubsampling(reader.getWidth(0), reader.getHeight(0), newWidth, newHeight);
+                    if (factor > 1) {
+                        param.setSourceSubsampling(factor, factor, 0, 0);
+                    }
+                }
+
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Picks the largest subsampling factor among 1, 2, 4 and 8 (the JPEG DCT
+     * scales) that keeps the decoded image at least twice the target size
+     */
+    static int decodeSubsampling(int width, int height, int newWidth, int newHeight) {
+        var factor = 1;
+        while (factor < 8
+                && width / (factor * 2) >= newWidth * 2
+                && height / (factor * 2) >= newHeight * 2) {
+            factor *= 2;
+        }
+        return factor;
+    }
+}
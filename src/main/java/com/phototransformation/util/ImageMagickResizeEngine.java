@@ -0,0 +1,83 @@
+package com.phototransformation.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.springframework.stereotype.Component;
+
+import com.phototransformation.config.PhotoConfiguration;
+
+/**
+ * Resizes on the pooled ImageMagick workers, which read the source file
+ * directly and write the result into the spool directory.
+ */
+@Component
+public class ImageMagickResizeEngine implements ResizeEngine {
+
+    public static final String NAME = "imagemagick";
+
+    private final PhotoConfiguration photoConfiguration;
+    private final ImageMagickWorkerPool imageMagickWorkerPool;
+    private final ImageEncoder imageEncoder;
+    private final SpoolDirectory spoolDirectory;
+
+    public ImageMagickResizeEngine(final PhotoConfiguration photoConfiguration,
+                                   final ImageMagickWorkerPool imageMagickWorkerPool,
+                                   final ImageEncoder imageEncoder,
+                                   final SpoolDirectory spoolDirectory) {
+        this.photoConfiguration = photoConfiguration;
+        this.imageMagickWorkerPool = imageMagickWorkerPool;
+        this.imageEncoder = imageEncoder;
+        this.spoolDirectory = spoolDirectory;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    /**
+     * Starts a worker and runs an empty script on it; the started worker
+     * stays in the pool for the first image
+     */
+    @Override
+    public void probe() throws IOException {
+        try {
+            imageMagickWorkerPool.execute("");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while probing ImageMagick");
+        }
+    }
+
+    /**
+     * @throws java.util.concurrent.RejectedExecutionException if no worker
+     * becomes available in time
+     */
+    @Override
+    public byte[] resize(Path source, int newWidth, int newHeight, ImageFormat format) throws IOException {
+        var tempOutput = spoolDirectory.createFile("output_", "." + format.getExtension());
+
+        try {
+            var jpegSizeHint = photoConfiguration.getResize().isScaleOnDecode() && format == ImageFormat.JPEG
+                    ? (newWidth * 2) + "x" + (newHeight * 2)
+                    : null;
+            imageMagickWorkerPool.resize(source, tempOutput, newWidth, newHeight, jpegSizeHint,
+                    imageEncoder.imageMagickOptions(format, null));
+
+            var resized = Files.readAllBytes(tempOutput);
+            if (resized.length == 0) {
+                throw new IOException("ImageMagick produced no output");
+            }
+            return resized;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for an ImageMagick worker");
+        } finally {
+            Files.deleteIfExists(tempOutput);
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.phototransformation.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+import com.phototransformation.config.PhotoConfiguration;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Bounded pool of long-lived ImageMagick processes running in script mode
+ * ({@code magick -script -}). Commands are written to a worker's stdin and a
+ * marker printed to stdout signals completion, so the process startup cost is
+ * paid once per worker instead of once per image.
+ */
+@Component
+public class ImageMagickWorkerPool implements DisposableBean, MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(ImageMagickWorkerPool.class);
+
+    private static final String DONE_MARKER = "@@done ";
+    private static final String PING_MARKER = "@@ping ";
+    // Encoder settings persist for the life of the script like any other setting
+    private static final String OUTPUT_RESET = "+quality +interlace +sampling-factor";
+
+    private final PhotoConfiguration photoConfiguration;
+    private final BlockingQueue<Worker> idleWorkers;
+    private final List<Worker> allWorkers = new ArrayList<>();
+    private final AtomicInteger waitingCallers = new AtomicInteger();
+    private final AtomicLong jobCounter = new AtomicLong();
+
+    public ImageMagickWorkerPool(final PhotoConfiguration photoConfiguration) {
+        this.photoConfiguration = photoConfiguration;
+
+        var size = Math.max(1, photoConfiguration.getImagemagick().getWorkers());
+        this.idleWorkers = new ArrayBlockingQueue<>(size);
+        for (var i = 0; i < size; i++) {
+            var worker = new Worker(i);
+            allWorkers.add(worker);
+            idleWorkers.add(worker);
+        }
+    }
+
+    /**
+     * Resizes an image file into another file on one of the pooled workers
+     * @param input Source image file
+     * @param output Target file, its extension selects the output format
+     * @param newWidth Target width
+     * @param newHeight Target height
+     * @param jpegSizeHint Optional WxH passed as jpeg:size so JPEG input is decoded
+     *                     at a reduced DCT scale no smaller than the hint, or null
+     * @param outputOptions Encoder settings such as -quality, or null for the defaults
+     * @throws IOException if the worker fails, crashes or times out
+     * @throws InterruptedException if interrupted while waiting for a worker
+     * @throws RejectedExecutionException if too many callers are already waiting
+     */
+    public void resize(Path input, Path output, int newWidth, int newHeight, String jpegSizeHint, String outputOptions)
+            throws IOException, InterruptedException {
+        var commands = new StringBuilder();
+        if (jpegSizeHint != null) {
+            commands.append("-define jpeg:size=").append(jpegSizeHint).append(' ');
+        }
+        commands.append("-read ").append(quote(input));
+        if (jpegSizeHint != null) {
+            // Settings persist for the life of the script, reset before the next job
+            commands.append(" +define jpeg:size");
+        }
+        commands.append(" -resize ").append(newWidth).append('x').append(newHeight);
+        appendWrite(commands, output, outputOptions);
+        execute(commands.toString());
+    }
+
+    /**
+     * Converts an image file to the format of the output file on one of the
+     * pooled workers
+     * @param input Source image file
+     * @param output Target file, its extension selects the output format
+     * @param outputOptions Encoder settings such as -quality, or null for the defaults
+     * @throws IOException if the worker fails, crashes or times out
+     * @throws InterruptedException if interrupted while waiting for a worker
+     * @throws RejectedExecutionException if too many callers are already waiting
+     */
+    public void convert(Path input, Path output, String outputOptions) throws IOException, InterruptedException {
+        var commands = new StringBuilder("-read ").append(quote(input));
+        appendWrite(commands, output, outputOptions);
+        execute(commands.toString());
+    }
+
+    private static void appendWrite(StringBuilder commands, Path output, String outputOptions) {
+        var hasOptions = outputOptions != null && !outputOptions.isEmpty();
+        if (hasOptions) {
+            commands.append(' ').append(outputOptions);
+        }
+        commands.append(" -write ").append(quote(output)).append(" +delete");
+        if (hasOptions) {
+            commands.append(' ').append(OUTPUT_RESET);
+        }
+    }
+
+    /**
+     * Runs a script fragment on a pooled worker and waits for it to finish
+     * @param commands ImageMagick script commands, must leave the image list empty
+     * @throws IOException if the worker fails, crashes or times out
+     * @throws InterruptedException if interrupted while waiting for a worker
+     */
+    public void execute(String commands) throws IOException, InterruptedException {
+        var worker = borrow();
+        try {
+            worker.run(commands, DONE_MARKER + jobCounter.incrementAndGet());
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            // The script may still be running, the next caller must get a fresh process
+            worker.stop();
+            throw e;
+        } finally {
+            idleWorkers.add(worker);
+        }
+    }
+
+    private Worker borrow() throws IOException, InterruptedException {
+        var worker = idleWorkers.poll();
+        if (worker == null) {
+            // Only callers that actually have to wait count against max-queued
+            var settings = photoConfiguration.getImagemagick();
+            if (waitingCallers.incrementAndGet() > settings.getMaxQueued()) {
+                waitingCallers.decrementAndGet();
+                throw new RejectedExecutionException("ImageMagick worker queue is full");
+            }
+            try {
+                worker = idleWorkers.poll(settings.getQueueTimeoutMs(), TimeUnit.MILLISECONDS);
+            } finally {
+                waitingCallers.decrementAndGet();
+            }
+            if (worker == null) {
+                throw new RejectedExecutionException("No ImageMagick worker became available in time");
+            }
+        }
+
+        try {
+            worker.ensureHealthy();
+            return worker;
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            worker.stop();
+            idleWorkers.add(worker);
+            throw e;
+        }
+    }
+
+    private String executable() {
+        var path = photoConfiguration.getImagemagick().getPath();
+        return path != null && !path.isEmpty() ? path : "magick";
+    }
+
+    private static String quote(Path path) {
+        return "\"" + path.toAbsolutePath().toString().replace('\\', '/') + "\"";
+    }
+
+    @Override
+    public void destroy() {
+        allWorkers.forEach(Worker::stop);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("photo.imagemagick.waiting", waitingCallers, AtomicInteger::get)
+                .description("Resizes waiting for an idle ImageMagick worker")
+                .register(registry);
+        Gauge.builder("photo.imagemagick.idle", idleWorkers, BlockingQueue::size)
+                .description("ImageMagick workers not running a resize")
+                .register(registry);
+    }
+
+    private class Worker {
+
+        private final int index;
+        private Process process;
+        private Writer stdin;
+        private BlockingQueue<String> stdout;
+        private long lastUsed;
+
+        Worker(int index) {
+            this.index = index;
+        }
+
+        void ensureHealthy() throws IOException, InterruptedException {
+            if (process != null && !process.isAlive()) {
+                log.warn("ImageMagick worker {} exited with code {}, restarting", index, process.exitValue());
+                stop();
+            }
+            if (process == null) {
+                start();
+                return;
+            }
+
+            var idleMillis = System.currentTimeMillis() - lastUsed;
+            if (idleMillis > photoConfiguration.getImagemagick().getHealthCheckIntervalMs()) {
+                run("", PING_MARKER + jobCounter.incrementAndGet());
+            }
+        }
+
+        void start() throws IOException {
+            var builder = new ProcessBuilder(executable(), "-script", "-");
+            builder.redirectError(ProcessBuilder.Redirect.DISCARD);
+
+            process = builder.start();
+            stdin = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8);
+            stdout = new LinkedBlockingQueue<>();
+
+            var lines = stdout;
+            var reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+            var pump = new Thread(() -> {
+                try {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        lines.add(line);
+                    }
+                } catch (IOException ignored) {
+                    // process went away, the waiting job times out or sees the dead process
+                }
+            }, "imagemagick-worker-" + index);
+            pump.setDaemon(true);
+            pump.start();
+
+            lastUsed = System.currentTimeMillis();
+            log.debug("Started ImageMagick worker {}", index);
+        }
+
+        void run(String commands, String marker) throws IOException, InterruptedException {
+            stdout.clear();
+            stdin.write(commands + " -print \"" + marker + "\\n\"\n");
+            stdin.flush();
+
+            var deadline = System.nanoTime()
+                    + TimeUnit.MILLISECONDS.toNanos(photoConfiguration.getImagemagick().getJobTimeoutMs());
+            while (true) {
+                var remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new IOException("ImageMagick worker " + index + " timed out");
+                }
+                var line = stdout.poll(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(100)), TimeUnit.NANOSECONDS);
+                if (line == null) {
+                    if (!process.isAlive()) {
+                        throw new IOException("ImageMagick worker " + index + " crashed");
+                    }
+                } else if (line.trim().equals(marker)) {
+                    lastUsed = System.currentTimeMillis();
+                    return;
+                }
+            }
+        }
+
+        void stop() {
+            if (process != null) {
+                process.destroyForcibly();
+                process = null;
+                stdin = null;
+                stdout = null;
+            }
+        }
+    }
+}
@@ -1,20 +1,18 @@
 package com.phototransformation.util;
 
 import java.awt.Dimension;
-import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
 
 import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
 
-import org.im4java.core.ConvertCmd;
-import org.im4java.core.IM4JavaException;
-import org.im4java.core.IMOperation;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -26,19 +24,78 @@ public class ImageProcessingUtil {
     @Autowired
     private PhotoConfiguration photoConfiguration;
     
+    @Autowired
+    private JavaResizeEngine javaResizeEngine;
+    
+    @Autowired
+    private ImageIoResizeEngine imageIoResizeEngine;
+    
+    @Autowired
+    private ResizeEngineRouter resizeEngineRouter;
+    
+    @Autowired
+    private ImageEncoder imageEncoder;
+    
     /**
-     * Gets image dimensions from byte array
-     * @param imageData The image data
+     * Gets image dimensions from an image file
+     * @param source The image file
      * @return Dimension object containing width and height
      * @throws IOException if image cannot be read
      */
-    public Dimension getImageDimensions(byte[] imageData) throws IOException {
-        try (ByteArrayInputStream bis = new ByteArrayInputStream(imageData)) {
-            BufferedImage image = ImageIO.read(bis);
-            if (image == null) {
+    public Dimension getImageDimensions(Path source) throws IOException {
+        return probeImage(source).getDimension();
+    }
+
+    /**
+     * Reads dimensions, format and color model from the image header only
+     * (PNG IHDR, JPEG SOFn), without decoding any pixel data
+     * @param imageData The image data
+     * @return ImageInfo describing the encoded image
+     * @throws IOException if no reader understands the data or the header is broken
+     */
+    public ImageInfo probeImage(byte[] imageData) throws IOException {
+        return probe(new ByteArrayInputStream(imageData));
+    }
+
+    /**
+     * Reads dimensions, format and color model from the header of an image
+     * file; only the first few kilobytes of the file are read
+     * @param source The image file
+     * @return ImageInfo describing the encoded image
+     * @throws IOException if no reader understands the data or the header is broken
+     */
+    public ImageInfo probeImage(Path source) throws IOException {
+        return probe(source.toFile());
+    }
+
+    private ImageInfo probe(Object input) throws IOException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(input)) {
+            if (iis == null) {
                 throw new IOException("Unable to read image data");
             }
-            return new Dimension(image.getWidth(), image.getHeight());
+            var readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) {
+                throw new IOException("Unable to read image data");
+            }
+
+            var reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+
+                var imageType = reader.getRawImageType(0);
+                if (imageType == null) {
+                    var imageTypes = reader.getImageTypes(0);
+                    imageType = imageTypes.hasNext() ? imageTypes.next() : null;
+                }
+
+                return new ImageInfo(
+                        reader.getWidth(0),
+                        reader.getHeight(0),
+                        reader.getFormatName().toLowerCase(),
+                        imageType != null ? imageType.getColorModel() : null);
+            } finally {
+                reader.dispose();
+            }
         }
     }
     
@@ -74,9 +131,19 @@ public class ImageProcessingUtil {
      * @return Dimension object with new dimensions, or null if no resize needed
      */
     public Dimension calculateNewDimensions(double originalWidth, double originalHeight) {
-        var maxWidth = photoConfiguration.getResize().getMaxWidth();
-        var maxHeight = photoConfiguration.getResize().getMaxHeight();
+        return calculateNewDimensions(originalWidth, originalHeight,
+                photoConfiguration.getResize().getMaxWidth(), photoConfiguration.getResize().getMaxHeight());
+    }
 
+    /**
+     * Calculates new dimensions that fit the given bounds while maintaining aspect ratio
+     * @param originalWidth Original image width
+     * @param originalHeight Original image height
+     * @param maxWidth Maximum width, null for no limit
+     * @param maxHeight Maximum height, null for no limit
+     * @return Dimension object with new dimensions, or null if no resize needed
+     */
+    public Dimension calculateNewDimensions(double originalWidth, double originalHeight, Integer maxWidth, Integer maxHeight) {
         if (maxWidth == null && maxHeight == null) {
             return null;
         }
@@ -97,124 +164,148 @@ public class ImageProcessingUtil {
     }
     
     /**
-     * Resizes image using ImageMagick
-     * @param imageData Original image data
-     * @param newWidth Target width
-     * @param newHeight Target height
-     * @param outputFormat Output format (jpg, png)
-     * @return Resized image data
-     * @throws IOException if file operations fail
-     * @throws InterruptedException if ImageMagick process is interrupted
-     * @throws IM4JavaException if ImageMagick operation fails
+     * Creates several smaller copies of an image from a single decode. The sizes
+     * are produced largest first and each one is resampled from the previous
+     * result: the image is halved with a box filter while it is at least twice
+     * the next size, and only the last step uses the configured kernel
+     * @param source Original image file
+     * @param sizes Target sizes, each smaller than the image
+     * @param contentType Original content type, the copies keep its format
+     * @return Encoded copies in the order of sizes
+     * @throws IOException if the image cannot be decoded or encoded
      */
-    public byte[] resizeImageWithImageMagick(byte[] imageData, int newWidth, int newHeight, String outputFormat) 
-            throws IOException, InterruptedException, IM4JavaException {
-        
-       
-        var tempInput = File.createTempFile("input_", ".tmp");
-        var tempOutput = File.createTempFile("output_", "." + outputFormat);
-        
-        try {
-            try (FileOutputStream fos = new FileOutputStream(tempInput)) {
-                fos.write(imageData);
-            }
-            
-            var imageMagickPath = photoConfiguration.getImagemagick().getPath();
-            if (imageMagickPath != null && !imageMagickPath.isEmpty()) {
-                System.setProperty("im4java.toolpath", new File(imageMagickPath).getParent());
-            }
-            
-            var op = new IMOperation();
-            op.addImage(tempInput.getAbsolutePath());
-            op.resize(newWidth, newHeight);
-            op.addImage(tempOutput.getAbsolutePath());
-            
-            var convert = new ConvertCmd();
-            convert.run(op);
-            
-            try (FileInputStream fis = new FileInputStream(tempOutput)) {
-                return fis.readAllBytes();
-            }
-            
-        } finally {
-            if (tempInput.exists()) {
-                tempInput.delete();
-            }
-            if (tempOutput.exists()) {
-                tempOutput.delete();
-            }
+    public List<byte[]> createRenditions(Path source, List<Dimension> sizes, String contentType) throws IOException {
+        if (sizes.isEmpty()) {
+            return List.of();
+        }
+
+        var format = ImageFormat.fromContentType(contentType);
+        var preserveAlpha = format.supportsAlpha();
+        var filter = JavaResizeEngine.Filter.fromName(photoConfiguration.getResize().getFilter());
+
+        var order = new ArrayList<Integer>();
+        for (var i = 0; i < sizes.size(); i++) {
+            order.add(i);
         }
+        order.sort(Comparator.comparingInt((Integer i) -> sizes.get(i).width * sizes.get(i).height).reversed());
+
+        var largest = sizes.get(order.get(0));
+        var current = decodeForResize(source, largest.width, largest.height);
+        var renditions = new byte[sizes.size()][];
+
+        for (var index : order) {
+            var size = sizes.get(index);
+            current = downscale(current, size.width, size.height, filter, preserveAlpha);
+            renditions[index] = imageEncoder.encode(current, format, null);
+        }
+
+        return Arrays.asList(renditions);
     }
-    
+
     /**
-     * Fallback resize method using Java's built-in graphics
+     * @return Whether {@link #renderImage} can currently write the format
+     */
+    public boolean canEncode(ImageFormat format) {
+        return imageEncoder.canEncode(format);
+    }
+
+    /**
+     * @return Hash of the settings {@link #renderImage} encodes the format
+     * with, null if it has none
+     */
+    public String encoderSettingsHash(ImageFormat format, Integer quality) {
+        return imageEncoder.settingsHash(format, quality);
+    }
+
+    /**
+     * Renders a variant of an image: scales it to the given size, then crops
+     * the center to the given crop size
      * @param imageData Original image data
-     * @param newWidth Target width
-     * @param newHeight Target height
-     * @param outputFormat Output format
-     * @return Resized image data
-     * @throws IOException if image processing fails
+     * @param scaled Size to scale to, at most the size of the image
+     * @param crop Size of the result, at most the scaled size
+     * @param format Output format
+     * @param quality Quality from 1 to 100, null for the configured default
+     * @return Encoded variant
+     * @throws IOException if the image cannot be decoded or encoded
      */
-    public byte[] resizeImageWithJava(byte[] imageData, int newWidth, int newHeight, String outputFormat) 
+    public byte[] renderImage(byte[] imageData, Dimension scaled, Dimension crop, ImageFormat format, Integer quality)
             throws IOException {
-        
-        try (ByteArrayInputStream bis = new ByteArrayInputStream(imageData)) {
-            var originalImage = ImageIO.read(bis);
-            if (originalImage == null) {
-                throw new IOException("Unable to read image data");
-            }
-            
-            var resizedImage = new BufferedImage(newWidth, newHeight, BufferedImage.TYPE_INT_RGB);
-            var g2d = resizedImage.createGraphics();
-            
-            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-            g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-            
-            g2d.drawImage(originalImage, 0, 0, newWidth, newHeight, null);
-            g2d.dispose();
-
-            try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-                ImageIO.write(resizedImage, outputFormat.equals("jpg") ? "jpeg" : outputFormat, baos);
-                return baos.toByteArray();
-            }
+        var preserveAlpha = format.supportsAlpha();
+        var filter = JavaResizeEngine.Filter.fromName(photoConfiguration.getResize().getFilter());
+
+        var image = decodeForResize(imageData, scaled.width, scaled.height);
+        // The engine also converts to RGB, so an image with alpha goes through it even at its own size
+        if (image.getWidth() != scaled.width || image.getHeight() != scaled.height
+                || !preserveAlpha && image.getColorModel().hasAlpha()) {
+            image = downscale(image, scaled.width, scaled.height, filter, preserveAlpha);
+        }
+        if (crop.width < image.getWidth() || crop.height < image.getHeight()) {
+            image = image.getSubimage((image.getWidth() - crop.width) / 2, (image.getHeight() - crop.height) / 2,
+                    crop.width, crop.height);
         }
+
+        return imageEncoder.encode(image, format, quality);
     }
-    
+
     /**
-     * Main resize method that tries ImageMagick first, falls back to Java
+     * Halves the image with a box filter while it is at least twice the target
+     * size, then resamples the rest of the way with the given kernel
+     */
+    private BufferedImage downscale(BufferedImage image, int newWidth, int newHeight,
+                                    JavaResizeEngine.Filter filter, boolean preserveAlpha) {
+        var current = image;
+        while (current.getWidth() / 2 >= newWidth && current.getHeight() / 2 >= newHeight) {
+            current = javaResizeEngine.resize(current, current.getWidth() / 2, current.getHeight() / 2,
+                    JavaResizeEngine.Filter.AREA, preserveAlpha);
+        }
+        return javaResizeEngine.resize(current, newWidth, newHeight, filter, preserveAlpha);
+    }
+
+    /**
+     * Decodes an image for resizing. Large JPEGs are decoded with power of two
+     * source subsampling so the decoded raster stays at least twice the target
+     * size, which leaves the final high quality resample a small job
      * @param imageData Original image data
      * @param newWidth Target width
      * @param newHeight Target height
+     * @return Decoded, possibly subsampled image
+     * @throws IOException if the image cannot be decoded
+     */
+    public BufferedImage decodeForResize(byte[] imageData, int newWidth, int newHeight) throws IOException {
+        return imageIoResizeEngine.decodeForResize(new ByteArrayInputStream(imageData), newWidth, newHeight);
+    }
+
+    /**
+     * Decodes an image file for resizing, like {@link #decodeForResize(byte[], int, int)};
+     * the encoded data is read from the file as it is decoded
+     */
+    public BufferedImage decodeForResize(Path source, int newWidth, int newHeight) throws IOException {
+        return imageIoResizeEngine.decodeForResize(source.toFile(), newWidth, newHeight);
+    }
+
+    /**
+     * Main resize method. The engine is picked by {@link ResizeEngineRouter}
+     * from photo.resize.engine and the size of the image
+     * @param source Original image file
+     * @param original Size of the original, as probed by the caller
+     * @param newWidth Target width
+     * @param newHeight Target height
      * @param contentType Original content type
      * @return Resized image data
      * @throws IOException if resize fails
      */
-    public byte[] resizeImage(byte[] imageData, int newWidth, int newHeight, String contentType) throws IOException {
-        var outputFormat = getFileExtension(contentType);
-        
-        try {
-            return resizeImageWithImageMagick(imageData, newWidth, newHeight, outputFormat);
-        } catch (Exception e) {
-            System.out.println("ImageMagick resize failed, falling back to Java: " + e.getMessage());
-            return resizeImageWithJava(imageData, newWidth, newHeight, outputFormat);
-        }
+    public byte[] resizeImage(Path source, Dimension original, int newWidth, int newHeight, String contentType)
+            throws IOException {
+        return resizeEngineRouter.resize(source, (long) original.width * original.height, newWidth, newHeight,
+                ImageFormat.fromContentType(contentType));
     }
     
     /**
      * Extracts file extension from content type
      * @param contentType The content type
-     * @return File extension (jpg, png)
+     * @return File extension (jpg, png, webp, avif); jpg for unknown types
      */
     private String getFileExtension(String contentType) {
-        if (contentType == null) return "jpg";
-        switch (contentType.toLowerCase()) {
-            case "image/png":
-                return "png";
-            case "image/jpg":
-            case "image/jpeg":
-                return "jpg";
-            default:
-                return "jpg";
-        }
+        return ImageFormat.fromContentType(contentType).getExtension();
     }
 }
\ No newline at end of file
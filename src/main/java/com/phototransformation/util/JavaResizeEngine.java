@@ -0,0 +1,367 @@
+package com.phototransformation.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+import com.phototransformation.config.PhotoConfiguration;
+
+/**
+ * Pure Java resampler using separable convolution kernels on primitive rasters.
+ * The output is cut into horizontal stripes which are processed in parallel;
+ * each stripe runs the horizontal pass over just the source rows it needs into
+ * a small planar float buffer and then the vertical pass, so the intermediate
+ * memory stays proportional to the stripe instead of the whole image.
+ */
+@Component
+public class JavaResizeEngine implements DisposableBean {
+
+    /**
+     * Resampling kernels. Radius is in source pixels at 1:1 scale and grows with
+     * the downscale factor so every source pixel contributes to the output.
+     */
+    public enum Filter {
+        LANCZOS3(3.0),
+        BICUBIC(2.0),
+        AREA(0.5);
+
+        private final double radius;
+
+        Filter(double radius) {
+            this.radius = radius;
+        }
+
+        public static Filter fromName(String name) {
+            if (name == null || name.isEmpty()) {
+                return LANCZOS3;
+            }
+            return valueOf(name.trim().toUpperCase());
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final int parallelism;
+
+    public JavaResizeEngine(final PhotoConfiguration photoConfiguration) {
+        var threads = photoConfiguration.getResize().getThreads();
+        this.parallelism = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Resizes an image to the exact target size
+     * @param source Decoded source image of any type
+     * @param newWidth Target width
+     * @param newHeight Target height
+     * @param filter Resampling kernel
+     * @param preserveAlpha Whether to keep the alpha channel of sources that have one
+     * @return TYPE_INT_ARGB image if alpha is kept, TYPE_INT_RGB otherwise
+     */
+    public BufferedImage resize(BufferedImage source, int newWidth, int newHeight, Filter filter, boolean preserveAlpha) {
+        var alpha = preserveAlpha && source.getColorModel().hasAlpha();
+        var channels = alpha ? 4 : 3;
+        var sourceWidth = source.getWidth();
+
+        var horizontal = new Contributions(sourceWidth, newWidth, filter);
+        var vertical = new Contributions(source.getHeight(), newHeight, filter);
+
+        var result = new BufferedImage(newWidth, newHeight, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        var output = ((DataBufferInt) result.getRaster().getDataBuffer()).getData();
+
+        var stripes = Math.min(newHeight, parallelism * 2);
+        var tasks = new ArrayList<Callable<Void>>(stripes);
+        for (var i = 0; i < stripes; i++) {
+            var from = (int) ((long) newHeight * i / stripes);
+            var to = (int) ((long) newHeight * (i + 1) / stripes);
+            tasks.add(() -> {
+                resizeStripe(source, from, to, channels, horizontal, vertical, output);
+                return null;
+            });
+        }
+
+        for (var future : pool.invokeAll(tasks)) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Resize interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Resize failed", e.getCause());
+            }
+        }
+
+        return result;
+    }
+
+    private void resizeStripe(BufferedImage source, int from, int to, int channels,
+                              Contributions horizontal, Contributions vertical, int[] output) {
+        var sourceWidth = source.getWidth();
+        var newWidth = horizontal.size;
+        var sourceFrom = vertical.starts[from];
+        var sourceTo = vertical.starts[to - 1] + vertical.window;
+
+        // Horizontal pass: source rows -> planar premultiplied float rows of the target width
+        var planes = new float[channels][(sourceTo - sourceFrom) * newWidth];
+        var row = new int[sourceWidth];
+        var samples = new float[channels][sourceWidth];
+        var rowSamples = new int[sourceWidth * 4];
+
+        for (var sy = sourceFrom; sy < sourceTo; sy++) {
+            readRow(source, sy, row, rowSamples);
+            unpack(row, samples, channels);
+
+            var base = (sy - sourceFrom) * newWidth;
+            if (channels == 3) {
+                horizontalRgb(samples, planes, base, horizontal);
+            } else {
+                horizontalArgb(samples, planes, base, horizontal);
+            }
+        }
+
+        // Vertical pass: contiguous rows of the stripe buffer, inner loop over x
+        var accumulators = new float[channels][newWidth];
+        for (var y = from; y < to; y++) {
+            var start = vertical.starts[y] - sourceFrom;
+            var offset = y * vertical.window;
+            for (var c = 0; c < channels; c++) {
+                var acc = accumulators[c];
+                Arrays.fill(acc, 0f);
+                var plane = planes[c];
+                for (var k = 0; k < vertical.window; k++) {
+                    var weight = vertical.weights[offset + k];
+                    if (weight == 0f) {
+                        continue;
+                    }
+                    var base = (start + k) * newWidth;
+                    for (var x = 0; x < newWidth; x++) {
+                        acc[x] += weight * plane[base + x];
+                    }
+                }
+            }
+            pack(accumulators, channels, output, y * newWidth, newWidth);
+        }
+    }
+
+    private static void horizontalRgb(float[][] samples, float[][] planes, int base, Contributions horizontal) {
+        float[] r = samples[0], g = samples[1], b = samples[2];
+        float[] outR = planes[0], outG = planes[1], outB = planes[2];
+        var weights = horizontal.weights;
+        var window = horizontal.window;
+        for (var x = 0; x < horizontal.size; x++) {
+            var start = horizontal.starts[x];
+            var offset = x * window;
+            float sumR = 0f, sumG = 0f, sumB = 0f;
+            for (var k = 0; k < window; k++) {
+                var weight = weights[offset + k];
+                sumR += weight * r[start + k];
+                sumG += weight * g[start + k];
+                sumB += weight * b[start + k];
+            }
+            outR[base + x] = sumR;
+            outG[base + x] = sumG;
+            outB[base + x] = sumB;
+        }
+    }
+
+    private static void horizontalArgb(float[][] samples, float[][] planes, int base, Contributions horizontal) {
+        float[] r = samples[0], g = samples[1], b = samples[2], a = samples[3];
+        float[] outR = planes[0], outG = planes[1], outB = planes[2], outA = planes[3];
+        var weights = horizontal.weights;
+        var window = horizontal.window;
+        for (var x = 0; x < horizontal.size; x++) {
+            var start = horizontal.starts[x];
+            var offset = x * window;
+            float sumR = 0f, sumG = 0f, sumB = 0f, sumA = 0f;
+            for (var k = 0; k < window; k++) {
+                var weight = weights[offset + k];
+                sumR += weight * r[start + k];
+                sumG += weight * g[start + k];
+                sumB += weight * b[start + k];
+                sumA += weight * a[start + k];
+            }
+            outR[base + x] = sumR;
+            outG[base + x] = sumG;
+            outB[base + x] = sumB;
+            outA[base + x] = sumA;
+        }
+    }
+
+    /**
+     * Reads one row as packed ARGB, avoiding the per pixel color model lookup of
+     * getRGB for the layouts ImageIO produces for PNG and JPEG.
+     */
+    private static void readRow(BufferedImage source, int y, int[] row, int[] samples) {
+        var width = source.getWidth();
+        var raster = source.getRaster();
+        switch (source.getType()) {
+            case BufferedImage.TYPE_INT_RGB:
+                raster.getDataElements(0, y, width, 1, row);
+                for (var x = 0; x < width; x++) {
+                    row[x] |= 0xFF000000;
+                }
+                break;
+            case BufferedImage.TYPE_INT_ARGB:
+                raster.getDataElements(0, y, width, 1, row);
+                break;
+            case BufferedImage.TYPE_3BYTE_BGR:
+                raster.getPixels(0, y, width, 1, samples);
+                for (int x = 0, i = 0; x < width; x++, i += 3) {
+                    row[x] = 0xFF000000 | samples[i] << 16 | samples[i + 1] << 8 | samples[i + 2];
+                }
+                break;
+            case BufferedImage.TYPE_4BYTE_ABGR:
+                raster.getPixels(0, y, width, 1, samples);
+                for (int x = 0, i = 0; x < width; x++, i += 4) {
+                    row[x] = samples[i + 3] << 24 | samples[i] << 16 | samples[i + 1] << 8 | samples[i + 2];
+                }
+                break;
+            case BufferedImage.TYPE_BYTE_GRAY:
+                raster.getPixels(0, y, width, 1, samples);
+                for (var x = 0; x < width; x++) {
+                    var g = samples[x];
+                    row[x] = 0xFF000000 | g << 16 | g << 8 | g;
+                }
+                break;
+            default:
+                source.getRGB(0, y, width, 1, row, 0, width);
+        }
+    }
+
+    private static void unpack(int[] row, float[][] samples, int channels) {
+        var r = samples[0];
+        var g = samples[1];
+        var b = samples[2];
+        if (channels == 3) {
+            for (var x = 0; x < row.length; x++) {
+                var p = row[x];
+                r[x] = (p >> 16) & 0xFF;
+                g[x] = (p >> 8) & 0xFF;
+                b[x] = p & 0xFF;
+            }
+            return;
+        }
+
+        // Premultiply so transparent pixels do not bleed their color into neighbours
+        var a = samples[3];
+        for (var x = 0; x < row.length; x++) {
+            var p = row[x];
+            var alpha = (p >>> 24) / 255f;
+            a[x] = p >>> 24;
+            r[x] = ((p >> 16) & 0xFF) * alpha;
+            g[x] = ((p >> 8) & 0xFF) * alpha;
+            b[x] = (p & 0xFF) * alpha;
+        }
+    }
+
+    private static void pack(float[][] acc, int channels, int[] output, int offset, int width) {
+        var r = acc[0];
+        var g = acc[1];
+        var b = acc[2];
+        if (channels == 3) {
+            for (var x = 0; x < width; x++) {
+                output[offset + x] = 0xFF000000 | clamp(r[x]) << 16 | clamp(g[x]) << 8 | clamp(b[x]);
+            }
+            return;
+        }
+
+        var a = acc[3];
+        for (var x = 0; x < width; x++) {
+            var alpha = clamp(a[x]);
+            if (alpha == 0) {
+                output[offset + x] = 0;
+                continue;
+            }
+            var unpremultiply = 255f / alpha;
+            output[offset + x] = alpha << 24
+                    | clamp(r[x] * unpremultiply) << 16
+                    | clamp(g[x] * unpremultiply) << 8
+                    | clamp(b[x] * unpremultiply);
+        }
+    }
+
+    private static int clamp(float value) {
+        var rounded = Math.round(value);
+        return rounded < 0 ? 0 : Math.min(rounded, 255);
+    }
+
+    private static double kernel(Filter filter, double x) {
+        x = Math.abs(x);
+        switch (filter) {
+            case LANCZOS3:
+                if (x == 0) {
+                    return 1;
+                }
+                if (x >= 3) {
+                    return 0;
+                }
+                var pix = Math.PI * x;
+                return 3 * Math.sin(pix) * Math.sin(pix / 3) / (pix * pix);
+            case BICUBIC:
+                // Catmull-Rom (a = -0.5)
+                if (x < 1) {
+                    return (1.5 * x - 2.5) * x * x + 1;
+                }
+                if (x < 2) {
+                    return ((-0.5 * x + 2.5) * x - 4) * x + 2;
+                }
+                return 0;
+            default:
+                return x < 0.5 ? 1 : 0;
+        }
+    }
+
+    /**
+     * Precomputed, normalized filter taps for one axis. Every target index uses
+     * the same window length so the inner loops have a fixed trip count.
+     */
+    private static class Contributions {
+
+        final int size;
+        final int window;
+        final int[] starts;
+        final float[] weights;
+
+        Contributions(int sourceSize, int targetSize, Filter filter) {
+            var scale = (double) sourceSize / targetSize;
+            var filterScale = Math.max(scale, 1.0);
+            var support = filter.radius * filterScale;
+
+            this.size = targetSize;
+            this.window = Math.min(sourceSize, (int) Math.ceil(support) * 2 + 1);
+            this.starts = new int[targetSize];
+            this.weights = new float[targetSize * window];
+
+            for (var i = 0; i < targetSize; i++) {
+                var center = (i + 0.5) * scale;
+                var start = (int) Math.floor(center - support);
+                start = Math.max(0, Math.min(start, sourceSize - window));
+
+                var sum = 0.0;
+                var taps = new double[window];
+                for (var k = 0; k < window; k++) {
+                    var j = start + k;
+                    taps[k] = filter == Filter.AREA
+                            ? Math.max(0, Math.min(j + 1, center + support) - Math.max(j, center - support))
+                            : kernel(filter, (j + 0.5 - center) / filterScale);
+                    sum += taps[k];
+                }
+                for (var k = 0; k < window; k++) {
+                    weights[i * window + k] = (float) (sum != 0 ? taps[k] / sum : 0);
+                }
+                starts[i] = start;
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,116 @@
+package com.phototransformation.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Timers and counters of the upload and download pipeline. Each stage is
+ * timed as {@code photo.stage{stage=...}} and every resize as
+ * {@code photo.resize{engine=...,fallback=...}}, both with percentile
+ * histograms so latency distributions can be compared across releases on
+ * {@code /actuator/prometheus}. Photo bytes are counted as
+ * {@code photo.bytes{direction=in|out}} and rejected uploads as
+ * {@code photo.upload.rejected{reason=...}}.
+ */
+@Component
+public class PipelineMetrics {
+
+    public static final String PROBE = "probe";
+    public static final String RENDITIONS = "renditions";
+    /** Encryption runs while the blob store reads the stream, the two are timed together */
+    public static final String ENCRYPT = "encrypt";
+    public static final String DB_SAVE = "db_save";
+    public static final String DECRYPT = "decrypt";
+    public static final String ZIP_ENTRY = "zip_entry";
+
+    public static final String REJECTED_FORMAT = "format";
+    public static final String REJECTED_DIMENSIONS = "dimensions";
+    public static final String REJECTED_SIZE = "size";
+
+    /**
+     * A pipeline step that may throw a checked exception
+     */
+    @FunctionalInterface
+    public interface Stage<T, E extends Exception> {
+        T run() throws E;
+    }
+
+    private final MeterRegistry registry;
+    private final Counter bytesIn;
+    private final Counter bytesOut;
+
+    public PipelineMetrics(final MeterRegistry registry) {
+        this.registry = registry;
+        this.bytesIn = bytes("in");
+        this.bytesOut = bytes("out");
+    }
+
+    /**
+     * Runs a stage and records its duration, whether it succeeds or not
+     * @return What the stage returned
+     */
+    public <T, E extends Exception> T time(String stage, Stage<T, E> work) throws E {
+        var start = System.nanoTime();
+        try {
+            return work.run();
+        } finally {
+            record(stage, System.nanoTime() - start);
+        }
+    }
+
+    public void record(String stage, long nanos) {
+        Timer.builder("photo.stage")
+                .description("Duration of a stage of the photo pipeline")
+                .tag("stage", stage)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param engine Engine that produced the result
+     * @param fallback Whether it stood in for the engine selected first
+     * @param nanos Time from the start of the first attempt
+     */
+    public void recordResize(String engine, boolean fallback, long nanos) {
+        Timer.builder("photo.resize")
+                .description("Duration of resizing an uploaded photo")
+                .tag("engine", engine)
+                .tag("fallback", String.valueOf(fallback))
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void bytesIn(long bytes) {
+        bytesIn.increment(bytes);
+    }
+
+    public void bytesOut(long bytes) {
+        bytesOut.increment(bytes);
+    }
+
+    /**
+     * @param reason One of the REJECTED_ constants
+     */
+    public void rejected(String reason) {
+        Counter.builder("photo.upload.rejected")
+                .description("Uploads rejected before processing")
+                .tag("reason", reason)
+                .register(registry)
+                .increment();
+    }
+
+    private Counter bytes(String direction) {
+        return Counter.builder("photo.bytes")
+                .description("Photo bytes uploaded (in) and served by downloads, renders and ZIP exports (out)")
+                .tag("direction", direction)
+                .baseUnit("bytes")
+                .register(registry);
+    }
+}
@@ -0,0 +1,34 @@
+package com.phototransformation.util;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * A way of turning an image file into a smaller encoded image. The engine
+ * used for an image is picked by {@link ResizeEngineRouter}.
+ */
+public interface ResizeEngine {
+
+    /**
+     * @return Name of the engine, as used in {@code photo.resize.engine}
+     */
+    String getName();
+
+    /**
+     * Checks that the engine can run at all, e.g. that its binary starts
+     * @throws IOException if it cannot
+     */
+    void probe() throws IOException;
+
+    /**
+     * Resizes an image file
+     * @param source Original image file
+     * @param newWidth Target width
+     * @param newHeight Target height
+     * @param format Format of the original, as resolved by the caller; the
+     * result is written in it too
+     * @return Resized image data
+     * @throws IOException if the image cannot be resized
+     */
+    byte[] resize(Path source, int newWidth, int newHeight, ImageFormat format) throws IOException;
+}
@@ -0,0 +1,149 @@
+package com.phototransformation.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.phototransformation.config.PhotoConfiguration;
+
+/**
+ * Picks the {@link ResizeEngine} for each image. {@code photo.resize.engine}
+ * names the engine to use, or is {@code auto} to resize images of up to
+ * {@code photo.resize.java-max-pixels} source pixels in the JVM, where they
+ * are done before an ImageMagick round trip would be, and larger ones with
+ * ImageMagick, which decodes them outside the heap.
+ * <p>
+ * Every engine other than the in-JVM one is guarded by its breaker in
+ * {@link EngineCircuitBreakers}, which opens when the engine fails its startup
+ * probe or fails repeatedly. Images the engine skips or fails are resized in
+ * the JVM.
+ */
+@Component
+public class ResizeEngineRouter {
+
+    public static final String AUTO = "auto";
+
+    private static final Logger log = LoggerFactory.getLogger(ResizeEngineRouter.class);
+
+    private final PhotoConfiguration photoConfiguration;
+    private final ResizeEngine fallback;
+    private final Map<String, ResizeEngine> guarded = new LinkedHashMap<>();
+    private final EngineCircuitBreakers engineCircuitBreakers;
+    private final PipelineMetrics pipelineMetrics;
+
+    public ResizeEngineRouter(final PhotoConfiguration photoConfiguration, final List<ResizeEngine> engines,
+                              final EngineCircuitBreakers engineCircuitBreakers,
+                              final PipelineMetrics pipelineMetrics) {
+        this.photoConfiguration = photoConfiguration;
+        this.engineCircuitBreakers = engineCircuitBreakers;
+        this.pipelineMetrics = pipelineMetrics;
+        this.fallback = engines.stream()
+                .filter(engine -> ImageIoResizeEngine.NAME.equals(engine.getName()))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("No " + ImageIoResizeEngine.NAME + " resize engine"));
+        for (var engine : engines) {
+            if (engine != fallback) {
+                guarded.put(engine.getName(), engine);
+            }
+        }
+
+        var configured = configuredEngine();
+        if (!AUTO.equals(configured) && !fallback.getName().equals(configured) && !guarded.containsKey(configured)) {
+            throw new IllegalArgumentException("Unknown photo.resize.engine: " + configured);
+        }
+    }
+
+    /**
+     * Probes the engines the configuration can route to, so one that cannot
+     * run is skipped from the first image on
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void probeEngines() {
+        var configured = configuredEngine();
+        for (var engine : guarded.values()) {
+            if (!AUTO.equals(configured) && !engine.getName().equals(configured)) {
+                continue;
+            }
+            try {
+                engine.probe();
+                log.info("Resize engine {} is available", engine.getName());
+            } catch (IOException | RuntimeException e) {
+                engineCircuitBreakers.get(engine.getName()).open();
+                log.warn("Resize engine {} is not available, resizing in the JVM instead: {}",
+                        engine.getName(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Resizes an image file with the engine selected for its size, falling
+     * back to the in-JVM engine
+     * @param source Original image file
+     * @param sourcePixels Width times height of the original image
+     * @param newWidth Target width
+     * @param newHeight Target height
+     * @param format Format of the original, the result is written in it too
+     * @return Resized image data
+     * @throws IOException if the in-JVM engine fails as well
+     */
+    public byte[] resize(Path source, long sourcePixels, int newWidth, int newHeight, ImageFormat format)
+            throws IOException {
+        var start = System.nanoTime();
+        var selected = select(sourcePixels);
+        var engine = guarded.get(selected);
+        var breaker = engine != null ? engineCircuitBreakers.get(selected) : null;
+        if (breaker != null && breaker.tryAcquire()) {
+            var name = engine.getName();
+            try {
+                var resized = engine.resize(source, newWidth, newHeight, format);
+                breaker.succeeded();
+                pipelineMetrics.recordResize(name, false, System.nanoTime() - start);
+                return resized;
+            } catch (InterruptedIOException e) {
+                breaker.release();
+                throw e;
+            } catch (RejectedExecutionException e) {
+                // Busy rather than broken, not counted as a failure
+                breaker.release();
+                log.debug("Resize engine {} is busy, resizing in the JVM: {}", name, e.getMessage());
+            } catch (IOException | RuntimeException e) {
+                breaker.failed();
+                log.warn("Resize engine {} failed, resizing in the JVM: {}", name, e.getMessage());
+            }
+        }
+        var resized = fallback.resize(source, newWidth, newHeight, format);
+        pipelineMetrics.recordResize(fallback.getName(), !fallback.getName().equals(selected),
+                System.nanoTime() - start);
+        return resized;
+    }
+
+    /**
+     * @return Name of the engine the configuration selects for an image of
+     * the given size, before its breaker is consulted
+     */
+    String select(long sourcePixels) {
+        var configured = configuredEngine();
+        if (!AUTO.equals(configured)) {
+            return configured;
+        }
+        return sourcePixels <= photoConfiguration.getResize().getJavaMaxPixels()
+                ? fallback.getName()
+                : ImageMagickResizeEngine.NAME;
+    }
+
+    private String configuredEngine() {
+        var engine = photoConfiguration.getResize().getEngine();
+        return engine != null && !engine.isEmpty() ? engine.trim().toLowerCase(Locale.ROOT) : AUTO;
+    }
+}
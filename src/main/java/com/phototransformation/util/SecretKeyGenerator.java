@@ -1,15 +1,19 @@
 package com.phototransformation.util;
 
 import java.io.BufferedReader;
-import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.List;
 
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
@@ -22,8 +26,19 @@ public class SecretKeyGenerator {
 
     private static final String ALGORITHM = "AES";
     private static final String SECRET_KEY_FILE = "secretKey.key";
+    private static final String KEYRING_FILE = "secretKey.keyring";
     private static final int KEY_LENGTH = 256;
 
+    private final Path directory;
+
+    public SecretKeyGenerator() {
+        this(Paths.get(""));
+    }
+
+    SecretKeyGenerator(Path directory) {
+        this.directory = directory;
+    }
+
     /**
      * Loads the secret key from the file system, generates a new one if not found
      * 
@@ -32,7 +47,7 @@ public class SecretKeyGenerator {
      * @throws IOException              if file operations fail
      */
     public SecretKey loadOrGenerateSecretKey() throws NoSuchAlgorithmException, IOException {
-        var keyPath = Paths.get(SECRET_KEY_FILE);
+        var keyPath = directory.resolve(SECRET_KEY_FILE);
 
         if (Files.exists(keyPath)) {
             return loadSecretKeyFromFile();
@@ -68,11 +83,11 @@ public class SecretKeyGenerator {
         var encoded = secretKey.getEncoded();
         var encodedKey = Base64.getEncoder().encodeToString(encoded);
 
-        try (FileWriter writer = new FileWriter(SECRET_KEY_FILE)) {
+        try (FileWriter writer = new FileWriter(directory.resolve(SECRET_KEY_FILE).toFile())) {
             writer.write(encodedKey);
         }
 
-        System.out.println("Secret key saved to: " + new File(SECRET_KEY_FILE).getAbsolutePath());
+        System.out.println("Secret key saved to: " + directory.resolve(SECRET_KEY_FILE).toAbsolutePath());
     }
 
     /**
@@ -83,11 +98,46 @@ public class SecretKeyGenerator {
      */
     private SecretKey loadSecretKeyFromFile() throws IOException {
         String encodedKey;
-        try (BufferedReader reader = new BufferedReader(new FileReader(SECRET_KEY_FILE))) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(directory.resolve(SECRET_KEY_FILE).toFile()))) {
             encodedKey = reader.readLine();
         }
 
         var decodedKey = Base64.getDecoder().decode(encodedKey);
         return new SecretKeySpec(decodedKey, ALGORITHM);
     }
-}
\ No newline at end of file
+
+    /**
+     * Loads every key that has ever been the current one, oldest first, so data
+     * sealed with a key that has since been replaced in the key file can still
+     * be decrypted after a restart
+     * 
+     * @return The keys of the keyring file, empty if it does not exist yet
+     * @throws IOException if file operations fail
+     */
+    public List<SecretKey> loadKeyring() throws IOException {
+        var keyringPath = directory.resolve(KEYRING_FILE);
+        var keys = new ArrayList<SecretKey>();
+        if (!Files.exists(keyringPath)) {
+            return keys;
+        }
+        for (var line : Files.readAllLines(keyringPath, StandardCharsets.US_ASCII)) {
+            if (!line.isBlank()) {
+                keys.add(new SecretKeySpec(Base64.getDecoder().decode(line.trim()), ALGORITHM));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Appends a key to the keyring file. Must be called before any data is
+     * sealed with the key, the key file alone does not survive a rotation
+     * 
+     * @param secretKey The key to keep
+     * @throws IOException if file operations fail
+     */
+    public void addToKeyring(SecretKey secretKey) throws IOException {
+        var line = Base64.getEncoder().encodeToString(secretKey.getEncoded()) + System.lineSeparator();
+        Files.writeString(directory.resolve(KEYRING_FILE), line, StandardCharsets.US_ASCII,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.SYNC);
+    }
+}
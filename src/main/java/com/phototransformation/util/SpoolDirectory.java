@@ -0,0 +1,61 @@
+package com.phototransformation.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import com.phototransformation.config.PhotoConfiguration;
+
+/**
+ * Directory for the short-lived files of the processing pipeline: spooled
+ * uploads and the files exchanged with the ImageMagick workers, which read
+ * and write files rather than pipes. Set {@code photo.spool.path} to a
+ * RAM-backed directory such as {@code /dev/shm/photo-spool} to keep these
+ * round trips off the disk; by default a directory under the system temp
+ * directory is used. Files left behind by a previous run are removed at
+ * startup, so the directory must not be shared with anything else.
+ */
+@Component
+public class SpoolDirectory {
+
+    private static final Logger log = LoggerFactory.getLogger(SpoolDirectory.class);
+
+    private static final String DEFAULT_DIRECTORY = "photo-spool";
+
+    private final Path root;
+
+    public SpoolDirectory(final PhotoConfiguration photoConfiguration) throws IOException {
+        var path = photoConfiguration.getSpool().getPath();
+        this.root = (path != null && !path.isEmpty()
+                ? Path.of(path)
+                : Path.of(System.getProperty("java.io.tmpdir"), DEFAULT_DIRECTORY)).toAbsolutePath().normalize();
+
+        Files.createDirectories(root);
+        removeAbandonedFiles();
+    }
+
+    /**
+     * Creates a new empty file in the spool directory; the caller deletes it
+     * @param prefix File name prefix
+     * @param suffix File name suffix, e.g. the extension ImageMagick picks the format by
+     */
+    public Path createFile(String prefix, String suffix) throws IOException {
+        return Files.createTempFile(root, prefix, suffix);
+    }
+
+    private void removeAbandonedFiles() throws IOException {
+        try (var leftovers = Files.list(root)) {
+            leftovers.forEach(file -> {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    log.warn("Could not remove abandoned spool file {}", file, e);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.phototransformation.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.security.SecurityProperties;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+
+/**
+ * Runs the application as deployed without ACTUATOR_PASSWORD, which leaves
+ * spring.security.user.password empty
+ */
+@SpringBootTest(properties = { "ACTUATOR_PASSWORD=",
+        "spring.datasource.url=jdbc:h2:mem:securityconfigtest;DB_CLOSE_DELAY=-1",
+        "photo.storage.path=target/test-security-storage", "photo.render.cache-path=target/test-security-render-cache" })
+@AutoConfigureMockMvc
+@AutoConfigureObservability
+class SecurityConfigIntegrationTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private SecurityProperties securityProperties;
+
+    @Test
+    void actuatorShouldFallBackToAGeneratedPasswordWhenNoneIsConfigured() throws Exception {
+        var user = securityProperties.getUser();
+        assertThat(user.getName()).isEqualTo("actuator");
+        assertThat(user.isPasswordGenerated()).isTrue();
+        assertThat(user.getPassword()).isNotEmpty();
+
+        mockMvc.perform(get("/actuator/prometheus"))
+                .andExpect(status().isUnauthorized());
+        mockMvc.perform(get("/actuator/prometheus").header(HttpHeaders.AUTHORIZATION, basic("actuator", "")))
+                .andExpect(status().isUnauthorized());
+        mockMvc.perform(get("/actuator/prometheus").header(HttpHeaders.AUTHORIZATION, basic("actuator", user.getPassword())))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/actuator/health"))
+                .andExpect(status().isOk());
+    }
+
+    private static String basic(String name, String password) {
+        return "Basic " + Base64.getEncoder().encodeToString((name + ":" + password).getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -2,9 +2,12 @@ package com.phototransformation.controller;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.hamcrest.Matchers.containsString;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import java.awt.Color;
@@ -16,7 +19,9 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.GeneralSecurityException;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
 import javax.crypto.KeyGenerator;
@@ -28,6 +33,7 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.HttpHeaders;
@@ -37,9 +43,13 @@ import org.springframework.test.web.servlet.MockMvc;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.phototransformation.dto.PhotoUploadResponseDTO;
+import com.phototransformation.dto.UploadJobDTO;
 
-@SpringBootTest
+@SpringBootTest(properties = { "photo.storage.path=target/test-storage", "photo.render.cache-path=target/test-render-cache",
+        "spring.security.user.password=test-secret" })
 @AutoConfigureMockMvc
+// Metrics export, and with it /actuator/prometheus, is off in tests without this
+@AutoConfigureObservability
 @ExtendWith(SpringExtension.class)
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 class FileControllerIntegrationTest {
@@ -101,6 +111,8 @@ class FileControllerIntegrationTest {
         var downloadResult = mockMvc.perform(get("/api/files/download/" + storedFileName))
                 .andExpect(status().isOk())
                 .andExpect(header().string(HttpHeaders.CONTENT_DISPOSITION, containsString("attachment")))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, containsString("immutable")))
+                .andExpect(header().exists(HttpHeaders.LAST_MODIFIED))
                 .andReturn();
 
         var downloaded = downloadResult.getResponse().getContentAsByteArray();
@@ -111,7 +123,61 @@ class FileControllerIntegrationTest {
         assertThat(downloadedImage.getWidth()).isEqualTo(uploadedPhoto.getResizedWidth().intValue());
         assertThat(downloadedImage.getHeight()).isEqualTo(uploadedPhoto.getResizedHeight().intValue());
 
-        var zipResult = mockMvc.perform(get("/api/files/download-all"))
+        var rangeResult = mockMvc.perform(get("/api/files/download/" + storedFileName)
+                        .header(HttpHeaders.RANGE, "bytes=10-19"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 10-19/" + downloaded.length))
+                .andReturn();
+        assertThat(rangeResult.getResponse().getContentAsByteArray())
+                .isEqualTo(Arrays.copyOfRange(downloaded, 10, 20));
+
+        var etag = downloadResult.getResponse().getHeader(HttpHeaders.ETAG);
+        assertThat(etag).isEqualTo("\"" + uploadedPhoto.getEtag() + "\"");
+        mockMvc.perform(get("/api/files/download/" + storedFileName)
+                        .header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().bytes(new byte[0]));
+
+        var thumbnail = mockMvc.perform(get("/api/files/download/" + storedFileName).param("size", "thumbnail"))
+                .andExpect(status().isOk())
+                .andReturn();
+        var thumbnailImage = ImageIO.read(new ByteArrayInputStream(thumbnail.getResponse().getContentAsByteArray()));
+        assertThat(thumbnailImage.getWidth()).isEqualTo(150);
+        assertThat(thumbnailImage.getHeight()).isEqualTo(100);
+        assertThat(thumbnail.getResponse().getHeader(HttpHeaders.ETAG)).isNotEqualTo(etag);
+
+        // Uploading the same bytes again gets a new name but shares the stored photo
+        var duplicateResult = mockMvc.perform(multipart("/api/files/upload")
+                        .file(new MockMultipartFile("files", "copy.png", "image/png", imageBytes)))
+                .andExpect(status().isOk())
+                .andReturn();
+        var duplicate = objectMapper.readValue(duplicateResult.getResponse().getContentAsString(),
+                PhotoUploadResponseDTO.class).getUploadedPhotos().get(0);
+        assertThat(duplicate.getFileName()).isNotEqualTo(storedFileName);
+        assertThat(duplicate.getOriginalFileName()).isEqualTo("copy.png");
+        assertThat(duplicate.getEtag()).isEqualTo(uploadedPhoto.getEtag());
+        mockMvc.perform(get("/api/files/download/" + duplicate.getFileName()))
+                .andExpect(status().isOk())
+                .andExpect(content().bytes(downloaded));
+
+        var rendered = mockMvc.perform(get("/api/files/" + storedFileName + "/render")
+                        .param("w", "120").param("h", "120").param("fit", "cover").param("format", "jpg"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, "image/jpeg"))
+                .andReturn();
+        var renderedImage = ImageIO.read(new ByteArrayInputStream(rendered.getResponse().getContentAsByteArray()));
+        assertThat(renderedImage.getWidth()).isEqualTo(120);
+        assertThat(renderedImage.getHeight()).isEqualTo(120);
+        mockMvc.perform(get("/api/files/" + storedFileName + "/render")
+                        .param("w", "120").param("h", "120").param("fit", "cover").param("format", "jpg"))
+                .andExpect(status().isOk())
+                .andExpect(content().bytes(rendered.getResponse().getContentAsByteArray()));
+
+        // Restricted to this photo, other tests of the class upload into the same database
+        var zipStarted = mockMvc.perform(get("/api/files/download-all").param("ids", String.valueOf(uploadedPhoto.getId())))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        var zipResult = mockMvc.perform(asyncDispatch(zipStarted))
                 .andExpect(status().isOk())
                 .andReturn();
 
@@ -122,6 +188,7 @@ class FileControllerIntegrationTest {
             var entry = zis.getNextEntry();
             assertThat(entry).isNotNull();
             assertThat(entry.getName()).isEqualTo(uploadedPhoto.getOriginalFileName());
+            assertThat(entry.getMethod()).isEqualTo(ZipEntry.STORED);
             var extracted = zis.readAllBytes();
             assertThat(extracted).isNotEmpty();
         }
@@ -135,6 +202,49 @@ class FileControllerIntegrationTest {
         Files.writeString(path, encoded, StandardCharsets.UTF_8);
     }
 
+    @Test
+    void actuatorShouldOnlyExposeHealthWithoutCredentials() throws Exception {
+        mockMvc.perform(get("/actuator/health"))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/actuator/prometheus"))
+                .andExpect(status().isUnauthorized());
+        mockMvc.perform(get("/actuator/metrics"))
+                .andExpect(status().isUnauthorized());
+
+        var credentials = Base64.getEncoder().encodeToString("actuator:test-secret".getBytes(StandardCharsets.UTF_8));
+        mockMvc.perform(get("/actuator/prometheus").header(HttpHeaders.AUTHORIZATION, "Basic " + credentials))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("application=\"photo-transformation\"")));
+    }
+
+    @Test
+    void asyncUploadShouldCompleteInBackground() throws Exception {
+        var uploadResult = mockMvc.perform(multipart("/api/files/upload-async")
+                .file(new MockMultipartFile("files", "async-image.png", "image/png", createPngImageBytes(2400, 1600))))
+                .andExpect(status().isAccepted())
+                .andReturn();
+
+        var jobs = objectMapper.readValue(uploadResult.getResponse().getContentAsString(), UploadJobDTO[].class);
+        assertThat(jobs).hasSize(1);
+
+        var deadline = System.currentTimeMillis() + 30_000;
+        UploadJobDTO job;
+        do {
+            Thread.sleep(100);
+            var statusResult = mockMvc.perform(get("/api/files/jobs/" + jobs[0].getJobId()))
+                    .andExpect(status().isOk())
+                    .andReturn();
+            job = objectMapper.readValue(statusResult.getResponse().getContentAsString(), UploadJobDTO.class);
+        } while (!"COMPLETED".equals(job.getStatus()) && !"FAILED".equals(job.getStatus())
+                && System.currentTimeMillis() < deadline);
+
+        assertThat(job.getStatus()).isEqualTo("COMPLETED");
+        mockMvc.perform(get("/api/files/download/" + job.getFileName()))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/api/files/jobs/unknown"))
+                .andExpect(status().isNotFound());
+    }
+
     private byte[] createPngImageBytes(int width, int height) throws IOException {
         var image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
         var graphics = image.createGraphics();
@@ -11,14 +11,20 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
 import org.springframework.http.HttpStatusCode;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import com.phototransformation.controller.service.PhotoService;
 import com.phototransformation.dto.PhotoMetadataDTO;
+import com.phototransformation.dto.PhotoPageDTO;
 import com.phototransformation.dto.PhotoUploadResponseDTO;
 
 import java.util.List;
@@ -52,31 +58,64 @@ class FileControllerTest {
 
     @Test
     void downloadPhotoShouldReturnBytesFromService() {
-        var serviceResponse = ResponseEntity.ok(new byte[] { 9, 9, 9 });
+        Resource photo = new ByteArrayResource(new byte[] { 9, 9, 9 });
+        var serviceResponse = ResponseEntity.ok(photo);
 
-        when(photoService.downloadFile("sample.jpg")).thenReturn(serviceResponse);
+        var webRequest = new ServletWebRequest(new MockHttpServletRequest());
 
-        var response = controller.downloadPhoto("sample.jpg");
+        when(photoService.downloadFile("sample.jpg", null, webRequest)).thenReturn(serviceResponse);
+
+        var response = controller.downloadPhoto("sample.jpg", null, webRequest);
 
         assertThat(response).isSameAs(serviceResponse);
         assertThat(response.getStatusCode()).isEqualTo(HttpStatusCode.valueOf(200));
-        assertThat(response.getBody()).containsExactly(9, 9, 9);
-        verify(photoService, times(1)).downloadFile("sample.jpg");
+        assertThat(response.getBody()).isSameAs(photo);
+        verify(photoService, times(1)).downloadFile("sample.jpg", null, webRequest);
+        verifyNoMoreInteractions(photoService);
+    }
+
+    @Test
+    void renderPhotoShouldDelegateToService() {
+        Resource rendered = new ByteArrayResource(new byte[] { 4 });
+        var serviceResponse = ResponseEntity.ok(rendered);
+
+        var webRequest = new ServletWebRequest(new MockHttpServletRequest());
+
+        when(photoService.renderFile("sample.jpg", 300, 200, "cover", "png", null, webRequest)).thenReturn(serviceResponse);
+
+        var response = controller.renderPhoto("sample.jpg", 300, 200, "cover", "png", null, webRequest);
+
+        assertThat(response).isSameAs(serviceResponse);
+        verify(photoService, times(1)).renderFile("sample.jpg", 300, 200, "cover", "png", null, webRequest);
         verifyNoMoreInteractions(photoService);
     }
 
     @Test
     void downloadAllPhotosShouldReturnZipFromService() {
-        var zipResponse = ResponseEntity.ok(new byte[] { 5, 5, 5 });
+        StreamingResponseBody body = out -> out.write(new byte[] { 5, 5, 5 });
+        var zipResponse = ResponseEntity.ok(body);
 
-        when(photoService.downloadAllAsZip()).thenReturn(zipResponse);
+        when(photoService.downloadAllAsZip(null, null, null)).thenReturn(zipResponse);
 
-        var response = controller.downloadAllPhotosAsZip();
+        var response = controller.downloadAllPhotosAsZip(null, null, null);
 
         assertThat(response).isSameAs(zipResponse);
         assertThat(response.getStatusCode()).isEqualTo(HttpStatusCode.valueOf(200));
-        assertThat(response.getBody()).containsExactly(5, 5, 5);
-        verify(photoService, times(1)).downloadAllAsZip();
+        assertThat(response.getBody()).isSameAs(body);
+        verify(photoService, times(1)).downloadAllAsZip(null, null, null);
+        verifyNoMoreInteractions(photoService);
+    }
+
+    @Test
+    void listPhotosShouldDelegateToService() {
+        var page = ResponseEntity.ok(new PhotoPageDTO(List.of(new PhotoMetadataDTO()), "next"));
+
+        when(photoService.listPhotos("cursor", 20, true, null, null)).thenReturn(page);
+
+        var response = controller.listPhotos("cursor", 20, true, null, null);
+
+        assertThat(response).isSameAs(page);
+        verify(photoService, times(1)).listPhotos("cursor", 20, true, null, null);
         verifyNoMoreInteractions(photoService);
     }
 }
@@ -1,24 +1,56 @@
 package com.phototransformation.controller.service;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.multipart.MultipartFile;
 
+import com.phototransformation.config.PhotoConfiguration;
 import com.phototransformation.dto.PhotoMetadataDTO;
+import com.phototransformation.dto.PhotoPageDTO;
 import com.phototransformation.entity.Photo;
+import com.phototransformation.entity.PhotoRendition;
+import com.phototransformation.entity.UploadJob;
 import com.phototransformation.service.PhotoManagerServiceImpl;
+import com.phototransformation.service.PhotoUploadResult;
+import com.phototransformation.service.RenderService;
+import com.phototransformation.service.RenderSpec;
+import com.phototransformation.service.UploadJobService;
+import com.phototransformation.service.TransformationCapacityException;
+import com.phototransformation.service.UploadQueueFullException;
+import com.phototransformation.util.FormatUnavailableException;
+import com.phototransformation.util.ImageFormat;
+import com.phototransformation.util.PipelineMetrics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 
 @ExtendWith(MockitoExtension.class)
 class PhotoServiceTest {
@@ -26,9 +58,23 @@ class PhotoServiceTest {
     @Mock
     private PhotoManagerServiceImpl photoManagerService;
 
-    @InjectMocks
+    @Mock
+    private UploadJobService uploadJobService;
+
+    @Mock
+    private RenderService renderService;
+
     private PhotoServiceImpl photoService;
 
+    private final PipelineMetrics pipelineMetrics = new PipelineMetrics(new SimpleMeterRegistry());
+
+    @BeforeEach
+    void setUp() {
+        photoService = new PhotoServiceImpl(photoManagerService, uploadJobService, renderService, new PhotoConfiguration(), pipelineMetrics, Runnable::run);
+        lenient().when(renderService.canEncode(any())).thenReturn(true);
+        lenient().when(renderService.resolve(any())).thenAnswer(invocation -> invocation.getArgument(0));
+    }
+
     @Test
     void uploadShouldReturnBadRequestWhenFilesMissing() {
         var response = photoService.upload(null);
@@ -49,7 +95,8 @@ class PhotoServiceTest {
         savedPhoto.setOriginalFileName("image.jpg");
         savedPhoto.setContentType("image/jpeg");
 
-        when(photoManagerService.processAndSavePhotos(files)).thenReturn(List.of(savedPhoto));
+        when(photoManagerService.processAndSavePhotos(files))
+                .thenReturn(List.of(PhotoUploadResult.success("image.jpg", savedPhoto)));
 
         var response = photoService.upload(files);
 
@@ -58,6 +105,7 @@ class PhotoServiceTest {
         assertThat(response.getBody().isSuccess()).isTrue();
         assertThat(response.getBody().getUploadedPhotos()).hasSize(1);
         assertThat(response.getBody().getTotalUploaded()).isEqualTo(1);
+        assertThat(response.getBody().getTotalFailed()).isZero();
     }
 
     @Test
@@ -66,11 +114,97 @@ class PhotoServiceTest {
                 new MockMultipartFile("files", "invalid.bmp", "image/bmp", new byte[] { 1 })
         };
 
-        when(photoManagerService.processAndSavePhotos(files)).thenThrow(new IllegalArgumentException("Invalid"));
+        when(photoManagerService.processAndSavePhotos(files))
+                .thenReturn(List.of(PhotoUploadResult.failure("invalid.bmp", new IllegalArgumentException("Invalid"))));
 
         var response = photoService.upload(files);
 
         assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+        assertThat(response.getBody().getFailedUploads()).hasSize(1);
+    }
+
+    @Test
+    void uploadShouldReturnServiceUnavailableWhenNoImageWasAdmitted() throws Exception {
+        var files = new MultipartFile[] {
+                new MockMultipartFile("files", "image.jpg", "image/jpeg", new byte[] { 1, 2, 3 })
+        };
+
+        when(photoManagerService.processAndSavePhotos(files)).thenReturn(List.of(PhotoUploadResult.failure("image.jpg",
+                new TransformationCapacityException("Too many images are waiting", 30))));
+
+        var response = photoService.upload(files);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+        assertThat(response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER)).isEqualTo("30");
+        assertThat(response.getBody().getFailedUploads()).hasSize(1);
+    }
+
+    @Test
+    void uploadShouldReportPartialSuccessPerFile() throws Exception {
+        var files = new MultipartFile[] {
+                new MockMultipartFile("files", "image.jpg", "image/jpeg", new byte[] { 1, 2, 3 }),
+                new MockMultipartFile("files", "invalid.bmp", "image/bmp", new byte[] { 1 })
+        };
+
+        var savedPhoto = new Photo();
+        savedPhoto.setFileName("generated-name.jpg");
+        savedPhoto.setOriginalFileName("image.jpg");
+
+        when(photoManagerService.processAndSavePhotos(files)).thenReturn(List.of(
+                PhotoUploadResult.success("image.jpg", savedPhoto),
+                PhotoUploadResult.failure("invalid.bmp", new IllegalArgumentException("Invalid file format"))));
+
+        var response = photoService.upload(files);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody().isSuccess()).isFalse();
+        assertThat(response.getBody().getTotalUploaded()).isEqualTo(1);
+        assertThat(response.getBody().getTotalFailed()).isEqualTo(1);
+        assertThat(response.getBody().getFailedUploads().get(0).getOriginalFileName()).isEqualTo("invalid.bmp");
+        assertThat(response.getBody().getFailedUploads().get(0).getMessage()).isEqualTo("Invalid file format");
+    }
+
+    @Test
+    void uploadAsyncShouldReturnAcceptedJobs() throws Exception {
+        var files = new MultipartFile[] {
+                new MockMultipartFile("files", "image.jpg", "image/jpeg", new byte[] { 1, 2, 3 })
+        };
+        var job = new UploadJob();
+        job.setId("job-1");
+        job.setOriginalFileName("image.jpg");
+
+        when(uploadJobService.submit(files)).thenReturn(List.of(job));
+
+        var response = photoService.uploadAsync(files);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.ACCEPTED);
+        assertThat(response.getBody()).singleElement().satisfies(dto -> {
+            assertThat(dto.getJobId()).isEqualTo("job-1");
+            assertThat(dto.getStatus()).isEqualTo("QUEUED");
+        });
+    }
+
+    @Test
+    void uploadAsyncShouldReturnTooManyRequestsWhenQueueIsFull() throws Exception {
+        var files = new MultipartFile[] {
+                new MockMultipartFile("files", "image.jpg", "image/jpeg", new byte[] { 1, 2, 3 })
+        };
+
+        when(uploadJobService.submit(files)).thenThrow(new UploadQueueFullException("Upload queue is full", 30));
+
+        var response = photoService.uploadAsync(files);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+        assertThat(response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER)).isEqualTo("30");
+    }
+
+    @Test
+    void getUploadJobShouldReturnNotFoundWhenMissing() {
+        when(uploadJobService.getJob("missing")).thenThrow(new IllegalArgumentException("Not found"));
+
+        var response = photoService.getUploadJob("missing");
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
     }
 
     @Test
@@ -80,17 +214,102 @@ class PhotoServiceTest {
         metadata.setFileName(fileName);
         metadata.setOriginalFileName("image.jpg");
         metadata.setContentType("image/jpeg");
+        metadata.setUploadedAt(LocalDateTime.of(2024, 5, 1, 10, 0));
+        metadata.setEtag("abc123");
 
-        var photoData = new byte[] { 1, 2, 3 };
+        var photoResource = new ByteArrayResource(new byte[] { 1, 2, 3 });
+        var servletResponse = new MockHttpServletResponse();
 
         when(photoManagerService.getPhotoMetadata(fileName)).thenReturn(metadata);
-        when(photoManagerService.getPhotoData(fileName)).thenReturn(photoData);
+        when(photoManagerService.getPhotoResource(fileName)).thenReturn(photoResource);
 
-       var response = photoService.downloadFile(fileName);
+       var response = photoService.downloadFile(fileName, null, new ServletWebRequest(new MockHttpServletRequest("GET", "/"), servletResponse));
 
         assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
         assertThat(response.getHeaders().getContentDisposition().getFilename()).isEqualTo("image.jpg");
-        assertThat(response.getBody()).isEqualTo(photoData);
+        assertThat(response.getHeaders().getCacheControl()).contains("immutable", "max-age=31536000");
+        assertThat(response.getBody()).isSameAs(photoResource);
+        assertThat(servletResponse.getHeader(HttpHeaders.ETAG)).isEqualTo("\"abc123\"");
+    }
+
+    @Test
+    void downloadFileShouldServeRequestedRendition() throws Exception {
+        var configuration = new PhotoConfiguration();
+        var thumbnail = new PhotoConfiguration.Rendition();
+        thumbnail.setName("thumbnail");
+        configuration.getRenditions().add(thumbnail);
+        photoService = new PhotoServiceImpl(photoManagerService, uploadJobService, renderService, configuration, pipelineMetrics, Runnable::run);
+
+        var fileName = "generated-name.jpg";
+        var metadata = new PhotoMetadataDTO();
+        metadata.setOriginalFileName("image.jpg");
+        metadata.setContentType("image/jpeg");
+        metadata.setUploadedAt(LocalDateTime.of(2024, 5, 1, 10, 0));
+        metadata.setEtag("original");
+        var rendition = new PhotoRendition();
+        rendition.setName("thumbnail");
+        rendition.setEtag("small");
+        var renditionResource = new ByteArrayResource(new byte[] { 4 });
+        var servletResponse = new MockHttpServletResponse();
+
+        when(photoManagerService.getPhotoMetadata(fileName)).thenReturn(metadata);
+        when(photoManagerService.getRendition(fileName, "thumbnail")).thenReturn(rendition);
+        when(photoManagerService.getRenditionResource(rendition)).thenReturn(renditionResource);
+
+        var response = photoService.downloadFile(fileName, "thumbnail",
+                new ServletWebRequest(new MockHttpServletRequest("GET", "/"), servletResponse));
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody()).isSameAs(renditionResource);
+        assertThat(servletResponse.getHeader(HttpHeaders.ETAG)).isEqualTo("\"small\"");
+        verify(photoManagerService, never()).getPhotoResource(fileName);
+    }
+
+    @Test
+    void downloadFileShouldRejectUnknownSize() {
+        var response = photoService.downloadFile("generated-name.jpg", "huge",
+                new ServletWebRequest(new MockHttpServletRequest()));
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
+    @Test
+    void downloadFileShouldAnswerNotModifiedWithoutReadingPhotoWhenEtagMatches() throws Exception {
+        var fileName = "generated-name.jpg";
+        var metadata = new PhotoMetadataDTO();
+        metadata.setUploadedAt(LocalDateTime.of(2024, 5, 1, 10, 0));
+        metadata.setEtag("abc123");
+
+        var request = new MockHttpServletRequest("GET", "/");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"abc123\"");
+
+        when(photoManagerService.getPhotoMetadata(fileName)).thenReturn(metadata);
+
+        var response = photoService.downloadFile(fileName, null, new ServletWebRequest(request, new MockHttpServletResponse()));
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+        assertThat(response.getBody()).isNull();
+        verify(photoManagerService, never()).getPhotoResource(fileName);
+    }
+
+    @Test
+    void downloadFileShouldAnswerNotModifiedWhenNotModifiedSinceUpload() throws Exception {
+        var fileName = "generated-name.jpg";
+        var uploadedAt = LocalDateTime.of(2024, 5, 1, 10, 0);
+        var metadata = new PhotoMetadataDTO();
+        metadata.setUploadedAt(uploadedAt);
+        metadata.setEtag("abc123");
+
+        var request = new MockHttpServletRequest("GET", "/");
+        request.addHeader(HttpHeaders.IF_MODIFIED_SINCE,
+                uploadedAt.plusDays(1).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+
+        when(photoManagerService.getPhotoMetadata(fileName)).thenReturn(metadata);
+
+        var response = photoService.downloadFile(fileName, null, new ServletWebRequest(request, new MockHttpServletResponse()));
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+        verify(photoManagerService, never()).getPhotoResource(fileName);
     }
 
     @Test
@@ -98,7 +317,194 @@ class PhotoServiceTest {
         var fileName = "missing";
         when(photoManagerService.getPhotoMetadata(fileName)).thenThrow(new IllegalArgumentException("Not found"));
 
-       var response = photoService.downloadFile(fileName);
+       var response = photoService.downloadFile(fileName, null, new ServletWebRequest(new MockHttpServletRequest()));
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+    }
+
+    @Test
+    void renderFileShouldServeRenderedVariantInPhotoFormat() throws Exception {
+        var fileName = "generated-name.png";
+        var metadata = new PhotoMetadataDTO();
+        metadata.setFileName(fileName);
+        metadata.setContentType("image/png");
+        metadata.setUploadedAt(LocalDateTime.of(2024, 5, 1, 10, 0));
+        metadata.setEtag("abc123");
+        var spec = new RenderSpec(300, null, RenderSpec.Fit.INSIDE, ImageFormat.PNG, null);
+        var servletResponse = new MockHttpServletResponse();
+
+        when(photoManagerService.getPhotoMetadata(fileName)).thenReturn(metadata);
+        when(renderService.render(metadata, spec)).thenReturn(new byte[] { 4, 2 });
+
+        var response = photoService.renderFile(fileName, 300, null, null, null, null,
+                new ServletWebRequest(new MockHttpServletRequest("GET", "/"), servletResponse));
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getHeaders().getContentType()).hasToString("image/png");
+        assertThat(response.getBody().getContentAsByteArray()).containsExactly(4, 2);
+        assertThat(servletResponse.getHeader(HttpHeaders.ETAG)).isEqualTo("\"abc123-w300-inside.png\"");
+    }
+
+    @Test
+    void renderFileShouldTagTheVariantWithItsEncoderSettings() throws Exception {
+        var fileName = "generated-name.jpg";
+        var metadata = new PhotoMetadataDTO();
+        metadata.setContentType("image/jpeg");
+        metadata.setUploadedAt(LocalDateTime.of(2024, 5, 1, 10, 0));
+        metadata.setEtag("abc123");
+        var spec = new RenderSpec(300, null, RenderSpec.Fit.INSIDE, ImageFormat.JPEG, null);
+        var resolved = spec.withEncoding("0a1b2c3d");
+        var servletResponse = new MockHttpServletResponse();
+
+        when(photoManagerService.getPhotoMetadata(fileName)).thenReturn(metadata);
+        when(renderService.resolve(spec)).thenReturn(resolved);
+        when(renderService.render(metadata, resolved)).thenReturn(new byte[] { 1 });
+
+        var response = photoService.renderFile(fileName, 300, null, null, null, null,
+                new ServletWebRequest(new MockHttpServletRequest("GET", "/"), servletResponse));
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(servletResponse.getHeader(HttpHeaders.ETAG)).isEqualTo("\"abc123-w300-inside-e0a1b2c3d.jpg\"");
+    }
+
+    @Test
+    void renderFileShouldNegotiateConfiguredFormatFromAccept() throws Exception {
+        var configuration = new PhotoConfiguration();
+        configuration.getEncoding().setNegotiatedFormats("avif,webp");
+        photoService = new PhotoServiceImpl(photoManagerService, uploadJobService, renderService, configuration, pipelineMetrics, Runnable::run);
+
+        var fileName = "generated-name.jpg";
+        var metadata = new PhotoMetadataDTO();
+        metadata.setContentType("image/jpeg");
+        metadata.setUploadedAt(LocalDateTime.of(2024, 5, 1, 10, 0));
+        var spec = new RenderSpec(300, null, RenderSpec.Fit.INSIDE, ImageFormat.WEBP, null);
+
+        var request = new MockHttpServletRequest("GET", "/");
+        request.addHeader(HttpHeaders.ACCEPT, "image/avif;q=0, image/webp, image/*, */*;q=0.8");
+
+        when(photoManagerService.getPhotoMetadata(fileName)).thenReturn(metadata);
+        when(renderService.render(metadata, spec)).thenReturn(new byte[] { 1 });
+
+        var response = photoService.renderFile(fileName, 300, null, null, null, null,
+                new ServletWebRequest(request, new MockHttpServletResponse()));
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getHeaders().getContentType()).hasToString("image/webp");
+        assertThat(response.getHeaders().getVary()).containsExactly(HttpHeaders.ACCEPT);
+    }
+
+    @Test
+    void renderFileShouldSkipNegotiatedFormatThatCannotBeEncoded() throws Exception {
+        var configuration = new PhotoConfiguration();
+        configuration.getEncoding().setNegotiatedFormats("webp");
+        photoService = new PhotoServiceImpl(photoManagerService, uploadJobService, renderService, configuration, pipelineMetrics, Runnable::run);
+
+        var fileName = "generated-name.jpg";
+        var metadata = new PhotoMetadataDTO();
+        metadata.setContentType("image/jpeg");
+        metadata.setUploadedAt(LocalDateTime.of(2024, 5, 1, 10, 0));
+        var spec = new RenderSpec(300, null, RenderSpec.Fit.INSIDE, ImageFormat.JPEG, null);
+
+        var request = new MockHttpServletRequest("GET", "/");
+        request.addHeader(HttpHeaders.ACCEPT, "image/webp, */*;q=0.8");
+
+        when(renderService.canEncode(ImageFormat.WEBP)).thenReturn(false);
+        when(photoManagerService.getPhotoMetadata(fileName)).thenReturn(metadata);
+        when(renderService.render(metadata, spec)).thenReturn(new byte[] { 1 });
+
+        var response = photoService.renderFile(fileName, 300, null, null, null, null,
+                new ServletWebRequest(request, new MockHttpServletResponse()));
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getHeaders().getContentType()).hasToString("image/jpeg");
+    }
+
+    @Test
+    void renderFileShouldAnswerNotAcceptableWhenNoEngineCanEncodeTheFormat() throws Exception {
+        var fileName = "generated-name.jpg";
+        var metadata = new PhotoMetadataDTO();
+        metadata.setContentType("image/jpeg");
+        metadata.setUploadedAt(LocalDateTime.of(2024, 5, 1, 10, 0));
+        var spec = new RenderSpec(300, null, RenderSpec.Fit.INSIDE, ImageFormat.AVIF, null);
+
+        when(photoManagerService.getPhotoMetadata(fileName)).thenReturn(metadata);
+        when(renderService.render(metadata, spec))
+                .thenThrow(new FormatUnavailableException(ImageFormat.AVIF, "ImageMagick is not available to encode avif"));
+
+        var response = photoService.renderFile(fileName, 300, null, null, "avif", null,
+                new ServletWebRequest(new MockHttpServletRequest("GET", "/"), new MockHttpServletResponse()));
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_ACCEPTABLE);
+    }
+
+    @Test
+    void renderFileShouldKeepPhotoFormatWhenAcceptOnlyHasWildcards() throws Exception {
+        var configuration = new PhotoConfiguration();
+        configuration.getEncoding().setNegotiatedFormats("webp");
+        photoService = new PhotoServiceImpl(photoManagerService, uploadJobService, renderService, configuration, pipelineMetrics, Runnable::run);
+
+        var fileName = "generated-name.jpg";
+        var metadata = new PhotoMetadataDTO();
+        metadata.setContentType("image/jpeg");
+        metadata.setUploadedAt(LocalDateTime.of(2024, 5, 1, 10, 0));
+        var spec = new RenderSpec(300, null, RenderSpec.Fit.INSIDE, ImageFormat.JPEG, null);
+
+        var request = new MockHttpServletRequest("GET", "/");
+        request.addHeader(HttpHeaders.ACCEPT, "image/*");
+
+        when(photoManagerService.getPhotoMetadata(fileName)).thenReturn(metadata);
+        when(renderService.render(metadata, spec)).thenReturn(new byte[] { 1 });
+
+        var response = photoService.renderFile(fileName, 300, null, null, null, null,
+                new ServletWebRequest(request, new MockHttpServletResponse()));
+
+        assertThat(response.getHeaders().getContentType()).hasToString("image/jpeg");
+        assertThat(response.getHeaders().getVary()).containsExactly(HttpHeaders.ACCEPT);
+    }
+
+    @Test
+    void renderFileShouldAnswerNotModifiedWithoutRendering() throws Exception {
+        var fileName = "generated-name.jpg";
+        var metadata = new PhotoMetadataDTO();
+        metadata.setContentType("image/jpeg");
+        metadata.setUploadedAt(LocalDateTime.of(2024, 5, 1, 10, 0));
+        metadata.setEtag("abc123");
+
+        var request = new MockHttpServletRequest("GET", "/");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"abc123-w100-h100-cover-q80.jpg\"");
+
+        when(photoManagerService.getPhotoMetadata(fileName)).thenReturn(metadata);
+
+        var response = photoService.renderFile(fileName, 100, 100, "cover", "jpeg", 80,
+                new ServletWebRequest(request, new MockHttpServletResponse()));
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+        verify(renderService, never()).render(any(), any());
+    }
+
+    @Test
+    void renderFileShouldRejectInvalidParametersBeforeLookingUpPhoto() throws Exception {
+        var webRequest = new ServletWebRequest(new MockHttpServletRequest());
+
+        assertThat(photoService.renderFile("a.jpg", null, null, null, null, null, webRequest).getStatusCode())
+                .isEqualTo(HttpStatus.BAD_REQUEST);
+        assertThat(photoService.renderFile("a.jpg", 5000, null, null, null, null, webRequest).getStatusCode())
+                .isEqualTo(HttpStatus.BAD_REQUEST);
+        assertThat(photoService.renderFile("a.jpg", 100, null, "cover", null, null, webRequest).getStatusCode())
+                .isEqualTo(HttpStatus.BAD_REQUEST);
+        assertThat(photoService.renderFile("a.jpg", 100, null, null, "gif", null, webRequest).getStatusCode())
+                .isEqualTo(HttpStatus.BAD_REQUEST);
+        assertThat(photoService.renderFile("a.jpg", 100, null, null, null, 0, webRequest).getStatusCode())
+                .isEqualTo(HttpStatus.BAD_REQUEST);
+        verify(photoManagerService, never()).getPhotoMetadata("a.jpg");
+    }
+
+    @Test
+    void renderFileShouldReturnNotFoundWhenMissing() throws Exception {
+        when(photoManagerService.getPhotoMetadata("missing")).thenThrow(new IllegalArgumentException("Not found"));
+
+        var response = photoService.renderFile("missing", 100, null, null, null, null,
+                new ServletWebRequest(new MockHttpServletRequest()));
 
         assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
     }
@@ -123,4 +529,104 @@ class PhotoServiceTest {
 
         assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
     }
+
+    @Test
+    void listPhotosShouldReturnPage() {
+        var page = new PhotoPageDTO(List.of(new PhotoMetadataDTO()), null);
+        when(photoManagerService.getPhotosPage(null, null, null, null, null)).thenReturn(page);
+
+        var response = photoService.listPhotos(null, null, null, null, null);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody()).isSameAs(page);
+    }
+
+    @Test
+    void listPhotosShouldReturnBadRequestForInvalidCursor() {
+        when(photoManagerService.getPhotosPage("garbage", null, null, null, null))
+                .thenThrow(new IllegalArgumentException("Invalid cursor: garbage"));
+
+        var response = photoService.listPhotos("garbage", null, null, null, null);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
+    @Test
+    void downloadAllAsZipShouldStreamStoredEntriesAcrossPagesInOrder() throws Exception {
+        var first = metadata("a.jpg", "same.jpg");
+        var second = metadata("b.jpg", "same.jpg");
+
+        when(photoManagerService.getPhotosPage(null, null, null, null, null))
+                .thenReturn(new PhotoPageDTO(List.of(first), "next"));
+        when(photoManagerService.getPhotosPage("next", null, null, null, null))
+                .thenReturn(new PhotoPageDTO(List.of(second), null));
+        when(photoManagerService.getPhotoData("a.jpg")).thenReturn(new byte[] { 1, 2 });
+        when(photoManagerService.getPhotoData("b.jpg")).thenReturn(new byte[] { 3 });
+
+        var response = photoService.downloadAllAsZip(null, null, null);
+        var out = new ByteArrayOutputStream();
+        response.getBody().writeTo(out);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        try (var zis = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            var entry = zis.getNextEntry();
+            assertThat(entry.getName()).isEqualTo("same.jpg");
+            assertThat(entry.getMethod()).isEqualTo(ZipEntry.STORED);
+            assertThat(zis.readAllBytes()).containsExactly(1, 2);
+
+            entry = zis.getNextEntry();
+            assertThat(entry.getName()).isEqualTo("same (1).jpg");
+            assertThat(zis.readAllBytes()).containsExactly(3);
+
+            assertThat(zis.getNextEntry()).isNull();
+        }
+    }
+
+    @Test
+    void downloadAllAsZipShouldExportOnlyRequestedIds() throws Exception {
+        var ids = List.of(7L);
+        when(photoManagerService.getPhotosMetadataByIds(ids, null, null))
+                .thenReturn(List.of(metadata("g.jpg", "garden.jpg")));
+        when(photoManagerService.getPhotoData("g.jpg")).thenReturn(new byte[] { 4 });
+
+        var response = photoService.downloadAllAsZip(ids, null, null);
+        var out = new ByteArrayOutputStream();
+        response.getBody().writeTo(out);
+
+        try (var zis = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            assertThat(zis.getNextEntry().getName()).isEqualTo("garden.jpg");
+            assertThat(zis.getNextEntry()).isNull();
+        }
+    }
+
+    @Test
+    void downloadAllAsZipShouldReturnNotFoundWhenNothingMatches() {
+        when(photoManagerService.getPhotosPage(null, null, null, null, null))
+                .thenReturn(new PhotoPageDTO(List.of(), null));
+
+        var response = photoService.downloadAllAsZip(null, null, null);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+    }
+
+    @Test
+    void downloadAllAsZipShouldFailTheStreamWhenAPhotoCannotBeRead() throws Exception {
+        when(photoManagerService.getPhotosPage(null, null, null, null, null))
+                .thenReturn(new PhotoPageDTO(List.of(metadata("a.jpg", "a.jpg")), null));
+        when(photoManagerService.getPhotoData("a.jpg")).thenThrow(new IllegalStateException("broken"));
+
+        var response = photoService.downloadAllAsZip(null, null, null);
+
+        assertThatThrownBy(() -> response.getBody().writeTo(new ByteArrayOutputStream()))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("a.jpg");
+    }
+
+    private static PhotoMetadataDTO metadata(String fileName, String originalFileName) {
+        var metadata = new PhotoMetadataDTO();
+        metadata.setFileName(fileName);
+        metadata.setOriginalFileName(originalFileName);
+        metadata.setContentType("image/jpeg");
+        return metadata;
+    }
 }
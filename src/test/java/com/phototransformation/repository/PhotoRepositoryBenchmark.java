@@ -0,0 +1,102 @@
+package com.phototransformation.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+
+import com.phototransformation.dto.PhotoMetadataDTO;
+import com.phototransformation.entity.Photo;
+import com.phototransformation.mapper.Mappers;
+
+/**
+ * Latency and heap allocation of listing 10k photos as managed entities versus
+ * the metadata projection. Excluded from the default build, run it with:
+ * mvn test -Dgroups=benchmark -DexcludedGroups=
+ */
+@Tag("benchmark")
+@DataJpaTest(properties = "spring.jpa.show-sql=false")
+class PhotoRepositoryBenchmark {
+
+    private static final int PHOTOS = 10_000;
+    private static final int ROUNDS = 10;
+
+    @Autowired
+    private PhotoRepository photoRepository;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Test
+    void compareEntityAndProjectionListing() {
+        var photos = new ArrayList<Photo>(PHOTOS);
+        for (var i = 0; i < PHOTOS; i++) {
+            var photo = new Photo();
+            photo.setOriginalFileName("photo-" + i + ".jpg");
+            photo.setFileName("stored-" + i + ".jpg");
+            photo.setContentType("image/jpeg");
+            photo.setFileSize(2_500_000L);
+            photo.setOriginalWidth(4000d);
+            photo.setOriginalHeight(3000d);
+            photo.setResizedWidth(1440d);
+            photo.setResizedHeight(1080d);
+            photo.setStorageKey("%064x".formatted(i));
+            photos.add(photo);
+        }
+        photoRepository.saveAll(photos);
+        entityManager.flush();
+        entityManager.clear();
+
+        Listing entities = () -> photoRepository.findAll().stream()
+                .map(Mappers::convertToDTO)
+                .collect(Collectors.toList());
+        Listing projections = () -> photoRepository.findAllProjectedBy().stream()
+                .map(Mappers::convertToDTO)
+                .collect(Collectors.toList());
+
+        var entityResult = measure(entities);
+        var projectionResult = measure(projections);
+
+        System.out.printf("list %d photos: entities %6.1f ms %7.1f MB allocated, projection %6.1f ms %7.1f MB allocated%n",
+                PHOTOS, entityResult[0], entityResult[1], projectionResult[0], projectionResult[1]);
+        assertThat(projections.list()).hasSize(PHOTOS);
+    }
+
+    /**
+     * @return Average milliseconds and megabytes allocated per listing
+     */
+    private double[] measure(Listing listing) {
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        var threadId = Thread.currentThread().getId();
+
+        for (var i = 0; i < ROUNDS; i++) {
+            listing.list();
+            entityManager.clear();
+        }
+
+        var nanos = 0L;
+        var bytes = 0L;
+        for (var i = 0; i < ROUNDS; i++) {
+            var allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+            var start = System.nanoTime();
+            listing.list();
+            nanos += System.nanoTime() - start;
+            bytes += threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+            entityManager.clear();
+        }
+        return new double[] { nanos / 1e6 / ROUNDS, bytes / 1024.0 / 1024.0 / ROUNDS };
+    }
+
+    @FunctionalInterface
+    private interface Listing {
+        List<PhotoMetadataDTO> list();
+    }
+}
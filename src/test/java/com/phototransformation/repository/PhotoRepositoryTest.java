@@ -0,0 +1,68 @@
+package com.phototransformation.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.LocalDateTime;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.PageRequest;
+
+import com.phototransformation.entity.Photo;
+
+@DataJpaTest
+class PhotoRepositoryTest {
+
+    private static final LocalDateTime BASE = LocalDateTime.of(2024, 3, 1, 12, 0);
+
+    @Autowired
+    private PhotoRepository photoRepository;
+
+    @BeforeEach
+    void setUp() {
+        // Two photos share an upload time so the id tie-breaker is exercised
+        save("a", BASE, true);
+        save("b", BASE.plusHours(1), false);
+        save("c", BASE.plusHours(1), true);
+        save("d", BASE.plusHours(2), true);
+    }
+
+    @Test
+    void findPageShouldWalkAllRowsNewestFirstWithoutGapsOrDuplicates() {
+        var first = photoRepository.findPage(null, null, null, null, null, PageRequest.of(0, 2));
+        var last = first.get(first.size() - 1);
+        var second = photoRepository.findPage(null, null, null, last.getUploadedAt(), last.getId(), PageRequest.of(0, 2));
+        var tail = second.get(second.size() - 1);
+        var third = photoRepository.findPage(null, null, null, tail.getUploadedAt(), tail.getId(), PageRequest.of(0, 2));
+
+        assertThat(first).extracting(PhotoMetadataView::getOriginalFileName).containsExactly("d", "c");
+        assertThat(second).extracting(PhotoMetadataView::getOriginalFileName).containsExactly("b", "a");
+        assertThat(third).isEmpty();
+    }
+
+    @Test
+    void findPageShouldApplyFilters() {
+        var processed = photoRepository.findPage(true, null, null, null, null, PageRequest.of(0, 10));
+        var inRange = photoRepository.findPage(null, BASE.plusMinutes(30), BASE.plusHours(1), null, null,
+                PageRequest.of(0, 10));
+
+        assertThat(processed).extracting(PhotoMetadataView::getOriginalFileName).containsExactly("d", "c", "a");
+        assertThat(inRange).extracting(PhotoMetadataView::getOriginalFileName).containsExactly("c", "b");
+    }
+
+    private void save(String name, LocalDateTime uploadedAt, boolean processed) {
+        var photo = new Photo();
+        photo.setOriginalFileName(name);
+        photo.setFileName(name + ".jpg");
+        photo.setContentType("image/jpeg");
+        photo.setFileSize(1L);
+        photo.setOriginalWidth(1d);
+        photo.setOriginalHeight(1d);
+        photo.setStorageKey("%064d".formatted(0));
+        photo.setUploadedAt(uploadedAt);
+        photo.setIsProcessed(processed);
+        photoRepository.save(photo);
+    }
+}
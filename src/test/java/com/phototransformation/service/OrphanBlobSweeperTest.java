@@ -0,0 +1,94 @@
+package com.phototransformation.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.phototransformation.config.PhotoConfiguration;
+import com.phototransformation.repository.PhotoRenditionRepository;
+import com.phototransformation.repository.PhotoRepository;
+import com.phototransformation.repository.UploadJobRepository;
+
+@ExtendWith(MockitoExtension.class)
+class OrphanBlobSweeperTest {
+
+    @Mock
+    private PhotoRepository photoRepository;
+
+    @Mock
+    private PhotoRenditionRepository photoRenditionRepository;
+
+    @Mock
+    private UploadJobRepository uploadJobRepository;
+
+    @TempDir
+    Path storageRoot;
+
+    private PhotoConfiguration photoConfiguration;
+    private PhotoStorageServiceImpl photoStorageService;
+    private OrphanBlobSweeper sweeper;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        photoConfiguration = new PhotoConfiguration();
+        photoConfiguration.getStorage().setPath(storageRoot.toString());
+        photoStorageService = new PhotoStorageServiceImpl(photoConfiguration);
+        sweeper = new OrphanBlobSweeper(photoConfiguration, photoStorageService, photoRepository,
+                photoRenditionRepository, uploadJobRepository);
+    }
+
+    @Test
+    void sweepShouldDeleteOnlyBlobsWithoutARow() throws Exception {
+        var photo = photoStorageService.store(new byte[] { 1 });
+        var rendition = photoStorageService.store(new byte[] { 2 });
+        var spooled = photoStorageService.store(new byte[] { 3 });
+        var orphan = photoStorageService.store(new byte[] { 4 });
+
+        when(photoRepository.findAllStorageKeys()).thenReturn(List.of(photo));
+        when(photoRenditionRepository.findAllStorageKeys()).thenReturn(List.of(rendition));
+        when(uploadJobRepository.findAllSpoolKeys()).thenReturn(List.of(spooled));
+
+        assertThat(sweeper.sweep()).isEqualTo(1);
+
+        assertThat(photoStorageService.exists(photo)).isTrue();
+        assertThat(photoStorageService.exists(rendition)).isTrue();
+        assertThat(photoStorageService.exists(spooled)).isTrue();
+        assertThat(photoStorageService.exists(orphan)).isFalse();
+    }
+
+    @Test
+    void startupShouldDeleteEveryBlobWhenTheDatabaseIsEmpty() throws Exception {
+        var first = photoStorageService.store(new byte[] { 1 });
+        var second = photoStorageService.store(new byte[] { 2 });
+
+        when(photoRepository.findAllStorageKeys()).thenReturn(List.of());
+        when(photoRenditionRepository.findAllStorageKeys()).thenReturn(List.of());
+        when(uploadJobRepository.findAllSpoolKeys()).thenReturn(List.of());
+
+        sweeper.afterSingletonsInstantiated();
+
+        assertThat(photoStorageService.exists(first)).isFalse();
+        assertThat(photoStorageService.exists(second)).isFalse();
+    }
+
+    @Test
+    void startupShouldKeepBlobsWhenSweepingIsOff() throws Exception {
+        photoConfiguration.getStorage().setSweepOrphans(false);
+        var key = photoStorageService.store(new byte[] { 1 });
+
+        sweeper.afterSingletonsInstantiated();
+
+        assertThat(photoStorageService.exists(key)).isTrue();
+        verifyNoInteractions(photoRepository, photoRenditionRepository, uploadJobRepository);
+    }
+}
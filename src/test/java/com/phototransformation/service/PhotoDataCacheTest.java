@@ -0,0 +1,73 @@
+package com.phototransformation.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+import com.phototransformation.config.PhotoConfiguration;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class PhotoDataCacheTest {
+
+    @Test
+    void shouldReturnStoredBytesUntilInvalidated() {
+        var cache = new PhotoDataCache(new PhotoConfiguration());
+
+        cache.put("a.jpg", new byte[] { 1, 2, 3 });
+
+        assertThat(cache.get("a.jpg")).containsExactly(1, 2, 3);
+        assertThat(cache.get("b.jpg")).isNull();
+
+        cache.invalidate("a.jpg");
+
+        assertThat(cache.get("a.jpg")).isNull();
+    }
+
+    @Test
+    void shouldKeepOffHeapEntriesAsCopies() {
+        var configuration = new PhotoConfiguration();
+        configuration.getCache().setOffHeap(true);
+        var cache = new PhotoDataCache(configuration);
+
+        cache.put("a.jpg", new byte[] { 4, 5 });
+        var first = cache.get("a.jpg");
+        first[0] = 9;
+
+        assertThat(cache.get("a.jpg")).containsExactly(4, 5);
+    }
+
+    @Test
+    void shouldSkipPhotosLargerThanEntryLimitOrWhenDisabled() {
+        var configuration = new PhotoConfiguration();
+        configuration.getCache().setMaxEntryBytes(2);
+        var limited = new PhotoDataCache(configuration);
+
+        limited.put("big.jpg", new byte[3]);
+
+        assertThat(limited.accepts(3)).isFalse();
+        assertThat(limited.get("big.jpg")).isNull();
+
+        var disabledConfiguration = new PhotoConfiguration();
+        disabledConfiguration.getCache().setEnabled(false);
+        var disabled = new PhotoDataCache(disabledConfiguration);
+
+        disabled.put("a.jpg", new byte[1]);
+
+        assertThat(disabled.get("a.jpg")).isNull();
+    }
+
+    @Test
+    void shouldReportHitsAndMisses() {
+        var registry = new SimpleMeterRegistry();
+        var cache = new PhotoDataCache(new PhotoConfiguration());
+        cache.bindTo(registry);
+
+        cache.put("a.jpg", new byte[] { 1 });
+        cache.get("a.jpg");
+        cache.get("missing.jpg");
+
+        assertThat(registry.get("cache.gets").tag("result", "hit").functionCounter().count()).isEqualTo(1);
+        assertThat(registry.get("cache.gets").tag("result", "miss").functionCounter().count()).isEqualTo(1);
+    }
+}
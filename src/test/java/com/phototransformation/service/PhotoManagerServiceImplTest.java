@@ -7,27 +7,55 @@ import static org.mockito.ArgumentMatchers.anyDouble;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
 import java.awt.Dimension;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.projection.SpelAwareProxyProjectionFactory;
 import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.multipart.MultipartFile;
 
+import com.phototransformation.config.PhotoConfiguration;
 import com.phototransformation.dto.PhotoMetadataDTO;
 import com.phototransformation.entity.Photo;
+import com.phototransformation.entity.PhotoRendition;
+import com.phototransformation.repository.PhotoMetadataView;
+import com.phototransformation.repository.PhotoRenditionRepository;
 import com.phototransformation.repository.PhotoRepository;
 import com.phototransformation.util.EncryptionUtil;
 import com.phototransformation.util.ImageProcessingUtil;
+import com.phototransformation.util.PipelineMetrics;
+import com.phototransformation.util.SpoolDirectory;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 
 @ExtendWith(MockitoExtension.class)
 class PhotoManagerServiceImplTest {
@@ -35,24 +63,56 @@ class PhotoManagerServiceImplTest {
     @Mock
     private PhotoRepository photoRepository;
 
+    @Mock
+    private PhotoRenditionRepository photoRenditionRepository;
+
     @Mock
     private ImageProcessingUtil imageProcessingUtil;
 
     @Mock
     private EncryptionUtil encryptionUtil;
 
-    @InjectMocks
+    @Mock
+    private PhotoStorageService photoStorageService;
+
+    @Mock
+    private RenderCache renderCache;
+
+    @TempDir
+    Path spoolPath;
+
+    private static final SpelAwareProxyProjectionFactory PROJECTIONS = new SpelAwareProxyProjectionFactory();
+
+    private PhotoConfiguration photoConfiguration;
+
+    private PhotoDataCache photoDataCache;
+
+    private SimpleMeterRegistry meterRegistry;
+
     private PhotoManagerServiceImpl photoManagerService;
 
     private MockMultipartFile jpegFile;
 
+    // Plaintext of the blobs stored through storeStreamsAs
+    private final List<byte[]> storedBlobs = new ArrayList<>();
+
     @BeforeEach
-    void setUp() {
+    void setUp() throws IOException {
+        photoConfiguration = new PhotoConfiguration();
+        photoConfiguration.getCache().setMaxEntryBytes(100);
+        photoConfiguration.getSpool().setPath(spoolPath.toString());
+        photoDataCache = new PhotoDataCache(photoConfiguration);
+        meterRegistry = new SimpleMeterRegistry();
+        photoManagerService = new PhotoManagerServiceImpl(photoConfiguration, photoRepository,
+                photoRenditionRepository, imageProcessingUtil, encryptionUtil, photoStorageService, photoDataCache,
+                renderCache, new SpoolDirectory(photoConfiguration), new TransformationAdmission(photoConfiguration),
+                new PipelineMetrics(meterRegistry), Runnable::run);
+
         jpegFile = new MockMultipartFile(
                 "files",
                 "sample.jpg",
                 "image/jpeg",
-                new byte[] { 1, 2, 3, 4 });
+                new byte[] { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0, 0, 16, 'J', 'F', 'I', 'F', 0, 1 });
     }
 
     @Test
@@ -61,17 +121,70 @@ class PhotoManagerServiceImplTest {
         when(imageProcessingUtil.getImageDimensions(any())).thenReturn(new Dimension(1000, 800));
         when(imageProcessingUtil.isValidImageSize(anyDouble(), anyDouble())).thenReturn(true);
         when(imageProcessingUtil.calculateNewDimensions(anyDouble(), anyDouble())).thenReturn(new Dimension(500, 400));
-        when(imageProcessingUtil.resizeImage(any(), anyInt(), anyInt(), eq(jpegFile.getContentType())))
+        when(imageProcessingUtil.resizeImage(any(), eq(new Dimension(1000, 800)), anyInt(), anyInt(), eq(jpegFile.getContentType())))
                 .thenReturn(new byte[] { 9, 9, 9 });
-        when(encryptionUtil.encrypt(any())).thenReturn(new byte[] { 7, 7 });
+        storeStreamsAs("key-7");
         when(photoRepository.save(any(Photo.class))).thenAnswer(invocation -> invocation.getArgument(0));
 
         var files = new MockMultipartFile[] { jpegFile, new MockMultipartFile("files", new byte[0]) };
 
-        var savedPhotos = photoManagerService.processAndSavePhotos(files);
+        var results = photoManagerService.processAndSavePhotos(files);
 
-        assertThat(savedPhotos).hasSize(1);
+        assertThat(results).hasSize(1);
+        assertThat(results.get(0).isSuccess()).isTrue();
         verify(photoRepository, times(1)).save(any(Photo.class));
+        verify(photoRepository).findFirstByContentHash(sha256(jpegFile.getBytes()));
+        verify(encryptionUtil).openEncrypting(any());
+        verifyNoMoreInteractions(photoRepository, imageProcessingUtil, encryptionUtil);
+    }
+
+    @Test
+    void processAndSavePhotosShouldReportFailuresPerFileInOriginalOrder() throws Exception {
+        var gifFile = new MockMultipartFile("files", "animation.gif", "image/gif", new byte[] { 1 });
+
+        when(imageProcessingUtil.isValidImageFormat(gifFile.getContentType())).thenReturn(false);
+        when(imageProcessingUtil.isValidImageFormat(jpegFile.getContentType())).thenReturn(true);
+        when(imageProcessingUtil.getImageDimensions(any())).thenReturn(new Dimension(800, 600));
+        when(imageProcessingUtil.isValidImageSize(anyDouble(), anyDouble())).thenReturn(true);
+        when(imageProcessingUtil.calculateNewDimensions(anyDouble(), anyDouble())).thenReturn(null);
+        storeStreamsAs("key-3");
+        when(photoRepository.save(any(Photo.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        var results = photoManagerService.processAndSavePhotos(new MockMultipartFile[] { gifFile, jpegFile });
+
+        assertThat(results).hasSize(2);
+        assertThat(results.get(0).isSuccess()).isFalse();
+        assertThat(results.get(0).getOriginalFileName()).isEqualTo("animation.gif");
+        assertThat(results.get(0).getError()).isInstanceOf(IllegalArgumentException.class);
+        assertThat(results.get(1).isSuccess()).isTrue();
+        assertThat(results.get(1).getPhoto().getOriginalFileName()).isEqualTo("sample.jpg");
+        verify(photoRepository, times(1)).save(any(Photo.class));
+        assertThat(meterRegistry.get("photo.upload.rejected").tag("reason", "format").counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("photo.stage").tag("stage", "db_save").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void processAndSavePhotoShouldRejectAnUnsupportedTypeWithoutReadingTheUpload() throws Exception {
+        var gifFile = mock(MultipartFile.class);
+        when(gifFile.getContentType()).thenReturn("image/gif");
+        when(imageProcessingUtil.isValidImageFormat("image/gif")).thenReturn(false);
+
+        assertThatThrownBy(() -> photoManagerService.processAndSavePhoto(gifFile))
+                .isInstanceOf(IllegalArgumentException.class);
+        verify(gifFile, never()).getInputStream();
+        assertThat(meterRegistry.get("photo.upload.rejected").tag("reason", "format").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void processAndSavePhotoShouldRejectContentThatIsNotOfTheDeclaredType() throws Exception {
+        var disguised = new MockMultipartFile("files", "photo.png", "image/png", jpegFile.getBytes());
+        when(imageProcessingUtil.isValidImageFormat("image/png")).thenReturn(true);
+
+        assertThatThrownBy(() -> photoManagerService.processAndSavePhoto(disguised))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("does not match");
+        assertThat(spoolPath).isEmptyDirectory();
+        assertThat(meterRegistry.get("photo.upload.rejected").tag("reason", "format").counter().count()).isEqualTo(1);
         verifyNoMoreInteractions(photoRepository, imageProcessingUtil, encryptionUtil);
     }
 
@@ -81,9 +194,9 @@ class PhotoManagerServiceImplTest {
         when(imageProcessingUtil.getImageDimensions(any())).thenReturn(new Dimension(2000, 1500));
         when(imageProcessingUtil.isValidImageSize(anyDouble(), anyDouble())).thenReturn(true);
         when(imageProcessingUtil.calculateNewDimensions(anyDouble(), anyDouble())).thenReturn(new Dimension(1000, 750));
-        when(imageProcessingUtil.resizeImage(any(), eq(1000), eq(750), eq(jpegFile.getContentType())))
+        when(imageProcessingUtil.resizeImage(any(), eq(new Dimension(2000, 1500)), eq(1000), eq(750), eq(jpegFile.getContentType())))
                 .thenReturn(new byte[] { 5, 5 });
-        when(encryptionUtil.encrypt(any())).thenReturn(new byte[] { 8, 8 });
+        storeStreamsAs("key-8");
         when(photoRepository.save(any(Photo.class))).thenAnswer(invocation -> invocation.getArgument(0));
 
         var savedPhoto = photoManagerService.processAndSavePhoto(jpegFile);
@@ -91,18 +204,29 @@ class PhotoManagerServiceImplTest {
         assertThat(savedPhoto.getResizedWidth()).isEqualTo(1000d);
         assertThat(savedPhoto.getResizedHeight()).isEqualTo(750d);
         assertThat(savedPhoto.getIsProcessed()).isTrue();
-        assertThat(savedPhoto.getEncryptedData()).containsExactly(8, 8);
+        assertThat(savedPhoto.getStorageKey()).isEqualTo("key-8");
+        assertThat(savedPhoto.getEtag()).isEqualTo(sha256(new byte[] { 5, 5 }));
+        assertThat(storedBlobs).containsExactly(new byte[] { 5, 5 });
         assertThat(savedPhoto.getProcessedAt()).isNotNull();
+        assertThat(savedPhoto.getContentHash()).isEqualTo(sha256(jpegFile.getBytes()));
+        verify(photoRepository).findFirstByContentHash(sha256(jpegFile.getBytes()));
+        verify(encryptionUtil).openEncrypting(any());
         verifyNoMoreInteractions(photoRepository, imageProcessingUtil, encryptionUtil);
     }
 
     @Test
     void processAndSavePhotoShouldNotResizeWhenDimensionsWithinLimit() throws Exception {
         when(imageProcessingUtil.isValidImageFormat(jpegFile.getContentType())).thenReturn(true);
-        when(imageProcessingUtil.getImageDimensions(any())).thenReturn(new Dimension(800, 600));
+        var spooled = new ArrayList<Path>();
+        when(imageProcessingUtil.getImageDimensions(any())).thenAnswer(invocation -> {
+            Path source = invocation.getArgument(0);
+            assertThat(source).hasBinaryContent(jpegFile.getBytes());
+            spooled.add(source);
+            return new Dimension(800, 600);
+        });
         when(imageProcessingUtil.isValidImageSize(anyDouble(), anyDouble())).thenReturn(true);
         when(imageProcessingUtil.calculateNewDimensions(anyDouble(), anyDouble())).thenReturn(null);
-        when(encryptionUtil.encrypt(any())).thenReturn(new byte[] { 3, 3 });
+        storeStreamsAs("key-3");
         when(photoRepository.save(any(Photo.class))).thenAnswer(invocation -> invocation.getArgument(0));
 
         var savedPhoto = photoManagerService.processAndSavePhoto(jpegFile);
@@ -110,24 +234,285 @@ class PhotoManagerServiceImplTest {
         assertThat(savedPhoto.getResizedWidth()).isEqualTo(800d);
         assertThat(savedPhoto.getResizedHeight()).isEqualTo(600d);
         assertThat(savedPhoto.getIsProcessed()).isFalse();
-        assertThat(savedPhoto.getEncryptedData()).containsExactly(3, 3);
+        assertThat(savedPhoto.getStorageKey()).isEqualTo("key-3");
+        assertThat(savedPhoto.getFileSize()).isEqualTo(12L);
+        // Stored as uploaded, so the upload hash doubles as the ETag
+        assertThat(savedPhoto.getEtag()).isEqualTo(sha256(jpegFile.getBytes()));
+        assertThat(storedBlobs).containsExactly(jpegFile.getBytes());
+        assertThat(spooled).singleElement().satisfies(source -> {
+            assertThat(source.getParent()).isEqualTo(spoolPath);
+            assertThat(source).doesNotExist();
+        });
+        verify(photoRepository).findFirstByContentHash(sha256(jpegFile.getBytes()));
+        verify(encryptionUtil).openEncrypting(any());
         verifyNoMoreInteractions(photoRepository, imageProcessingUtil, encryptionUtil);
     }
 
+    @Test
+    void processAndSavePhotoShouldStoreRenditionsSmallerThanOriginal() throws Exception {
+        photoConfiguration.getRenditions().add(rendition("thumbnail", 150));
+        photoConfiguration.getRenditions().add(rendition("preview", 800));
+
+        when(imageProcessingUtil.isValidImageFormat(jpegFile.getContentType())).thenReturn(true);
+        when(imageProcessingUtil.getImageDimensions(any())).thenReturn(new Dimension(600, 400));
+        when(imageProcessingUtil.isValidImageSize(anyDouble(), anyDouble())).thenReturn(true);
+        when(imageProcessingUtil.calculateNewDimensions(anyDouble(), anyDouble())).thenReturn(null);
+        when(imageProcessingUtil.calculateNewDimensions(600, 400, 150, 150)).thenReturn(new Dimension(150, 100));
+        when(imageProcessingUtil.calculateNewDimensions(600, 400, 800, 800)).thenReturn(null);
+        when(imageProcessingUtil.createRenditions(any(Path.class), eq(List.of(new Dimension(150, 100))), eq("image/jpeg")))
+                .thenReturn(List.of(new byte[] { 6 }));
+        when(encryptionUtil.encrypt(new byte[] { 6 })).thenReturn(new byte[] { 4 });
+        when(photoStorageService.store(new byte[] { 4 })).thenReturn("key-4");
+        storeStreamsAs("key-3");
+        when(photoRepository.save(any(Photo.class))).thenAnswer(invocation -> {
+            Photo photo = invocation.getArgument(0);
+            photo.setId(5L);
+            return photo;
+        });
+
+        photoManagerService.processAndSavePhoto(jpegFile);
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Iterable<PhotoRendition>> saved = ArgumentCaptor.forClass(Iterable.class);
+        verify(photoRenditionRepository).saveAll(saved.capture());
+        assertThat(saved.getValue()).singleElement().satisfies(rendition -> {
+            assertThat(rendition.getPhotoId()).isEqualTo(5L);
+            assertThat(rendition.getName()).isEqualTo("thumbnail");
+            assertThat(rendition.getWidth()).isEqualTo(150);
+            assertThat(rendition.getHeight()).isEqualTo(100);
+            assertThat(rendition.getStorageKey()).isEqualTo("key-4");
+        });
+    }
+
+    @Test
+    void processAndSavePhotoShouldReferenceExistingBlobsForDuplicateUpload() throws Exception {
+        var existing = new Photo();
+        existing.setId(3L);
+        existing.setContentType("image/jpeg");
+        existing.setFileSize(4L);
+        existing.setOriginalWidth(2000d);
+        existing.setOriginalHeight(1500d);
+        existing.setResizedWidth(1000d);
+        existing.setResizedHeight(750d);
+        existing.setIsProcessed(true);
+        existing.setEtag("etag");
+        existing.setStorageKey("key-8");
+
+        var thumbnail = new PhotoRendition();
+        thumbnail.setPhotoId(3L);
+        thumbnail.setName("thumbnail");
+        thumbnail.setWidth(150);
+        thumbnail.setHeight(113);
+        thumbnail.setStorageKey("thumb-8");
+
+        when(imageProcessingUtil.isValidImageFormat(jpegFile.getContentType())).thenReturn(true);
+        when(photoRepository.findFirstByContentHash(sha256(jpegFile.getBytes()))).thenReturn(existing);
+        when(photoRepository.save(any(Photo.class))).thenAnswer(invocation -> {
+            Photo photo = invocation.getArgument(0);
+            photo.setId(4L);
+            return photo;
+        });
+        when(photoRenditionRepository.findByPhotoId(3L)).thenReturn(List.of(thumbnail));
+
+        var savedPhoto = photoManagerService.processAndSavePhoto(jpegFile);
+
+        assertThat(savedPhoto.getOriginalFileName()).isEqualTo("sample.jpg");
+        assertThat(savedPhoto.getFileName()).endsWith(".jpg");
+        assertThat(savedPhoto.getStorageKey()).isEqualTo("key-8");
+        assertThat(savedPhoto.getEtag()).isEqualTo("etag");
+        assertThat(savedPhoto.getResizedWidth()).isEqualTo(1000d);
+        assertThat(savedPhoto.getContentHash()).isEqualTo(sha256(jpegFile.getBytes()));
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Iterable<PhotoRendition>> saved = ArgumentCaptor.forClass(Iterable.class);
+        verify(photoRenditionRepository).saveAll(saved.capture());
+        assertThat(saved.getValue()).singleElement().satisfies(rendition -> {
+            assertThat(rendition.getPhotoId()).isEqualTo(4L);
+            assertThat(rendition.getName()).isEqualTo("thumbnail");
+            assertThat(rendition.getStorageKey()).isEqualTo("thumb-8");
+        });
+        verifyNoMoreInteractions(imageProcessingUtil, encryptionUtil, photoStorageService);
+    }
+
+    @Test
+    void getRenditionResourceShouldDecryptOnceAndCache() throws Exception {
+        var rendition = new PhotoRendition();
+        rendition.setName("thumbnail");
+        rendition.setStorageKey("key-4");
+
+        when(photoStorageService.read("key-4")).thenReturn(new byte[] { 4 });
+        when(encryptionUtil.decrypt(new byte[] { 4 })).thenReturn(new byte[] { 6 });
+
+        assertThat(photoManagerService.getRenditionResource(rendition).getContentAsByteArray()).containsExactly(6);
+        assertThat(photoManagerService.getRenditionResource(rendition).getContentAsByteArray()).containsExactly(6);
+
+        verify(photoStorageService, times(1)).read("key-4");
+    }
+
     @Test
     void getPhotoDataShouldReturnDecryptedBytes() throws Exception {
         var storedPhoto = new Photo();
-        storedPhoto.setEncryptedData(new byte[] { 9, 4 });
+        storedPhoto.setFileName("sample");
+        storedPhoto.setStorageKey("stored");
 
         when(photoRepository.findByFileName("sample"))
                 .thenReturn(storedPhoto);
-        when(encryptionUtil.decrypt(any()))
+        when(photoStorageService.read("stored")).thenReturn(new byte[] { 9, 4 });
+        when(encryptionUtil.decrypt(new byte[] { 9, 4 }))
                 .thenReturn(new byte[] { 1, 1, 2 });
+        when(encryptionUtil.needsReEncryption(any())).thenReturn(false);
+        when(photoRepository.existsByFileName("sample")).thenReturn(true);
 
         var data = photoManagerService.getPhotoData("sample");
 
         assertThat(data).containsExactly(1, 1, 2);
-        verifyNoMoreInteractions(photoRepository, imageProcessingUtil, encryptionUtil);
+        verify(photoRepository).existsByFileName("sample");
+        verifyNoMoreInteractions(photoRepository, imageProcessingUtil, encryptionUtil, photoStorageService);
+    }
+
+    @Test
+    void getPhotoDataShouldNotCacheAPhotoDeletedWhileItWasRead() throws Exception {
+        var storedPhoto = new Photo();
+        storedPhoto.setFileName("sample");
+        storedPhoto.setStorageKey("stored");
+
+        when(photoRepository.findByFileName("sample")).thenReturn(storedPhoto);
+        when(photoStorageService.read("stored")).thenReturn(new byte[] { 9, 4 });
+        when(encryptionUtil.decrypt(new byte[] { 9, 4 })).thenReturn(new byte[] { 1, 1, 2 });
+        when(encryptionUtil.needsReEncryption(any())).thenReturn(false);
+        // deletePhoto committed between the lookup and the put
+        when(photoRepository.existsByFileName("sample")).thenReturn(false);
+
+        assertThat(photoManagerService.getPhotoData("sample")).containsExactly(1, 1, 2);
+
+        assertThat(photoDataCache.get("sample")).isNull();
+    }
+
+    @Test
+    void getPhotoDataShouldServeRepeatedReadsFromCache() throws Exception {
+        var storedPhoto = new Photo();
+        storedPhoto.setFileName("sample");
+        storedPhoto.setStorageKey("stored");
+
+        when(photoRepository.findByFileName("sample")).thenReturn(storedPhoto);
+        when(photoStorageService.read("stored")).thenReturn(new byte[] { 9, 4 });
+        when(encryptionUtil.decrypt(new byte[] { 9, 4 })).thenReturn(new byte[] { 1, 1, 2 });
+        when(encryptionUtil.needsReEncryption(any())).thenReturn(false);
+        when(photoRepository.existsByFileName("sample")).thenReturn(true);
+
+        photoManagerService.getPhotoData("sample");
+        var data = photoManagerService.getPhotoData("sample");
+        var resource = photoManagerService.getPhotoResource("sample");
+
+        assertThat(data).containsExactly(1, 1, 2);
+        assertThat(resource.getContentAsByteArray()).containsExactly(1, 1, 2);
+        verify(photoRepository, times(1)).findByFileName("sample");
+        verify(encryptionUtil, times(1)).decrypt(any());
+    }
+
+    @Test
+    void getPhotoDataShouldReEncryptLegacyData() throws Exception {
+        var storedPhoto = new Photo();
+        storedPhoto.setFileName("sample");
+        storedPhoto.setStorageKey("legacy");
+
+        when(photoRepository.findByFileName("sample")).thenReturn(storedPhoto);
+        when(photoStorageService.read("legacy")).thenReturn(new byte[] { 9, 4 });
+        when(encryptionUtil.decrypt(any())).thenReturn(new byte[] { 1, 1, 2 });
+        when(encryptionUtil.needsReEncryption(any())).thenReturn(true);
+        when(encryptionUtil.encrypt(any())).thenReturn(new byte[] { 5, 5, 5 });
+        when(photoStorageService.store(new byte[] { 5, 5, 5 })).thenReturn("migrated");
+        when(photoRepository.save(any(Photo.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        when(photoRepository.existsByFileName("sample")).thenReturn(true);
+
+        var data = photoManagerService.getPhotoData("sample");
+
+        assertThat(data).containsExactly(1, 1, 2);
+        assertThat(storedPhoto.getStorageKey()).isEqualTo("migrated");
+        verify(photoRepository).save(storedPhoto);
+        verify(photoRepository).existsByFileName("sample");
+        verify(photoRepository).countByStorageKey("legacy");
+        verify(photoStorageService).delete("legacy");
+        verifyNoMoreInteractions(photoRepository, imageProcessingUtil, encryptionUtil, photoStorageService);
+    }
+
+    @Test
+    void concurrentReadsShouldMigrateLegacyDataOnce() throws Exception {
+        var storedPhoto = new Photo();
+        storedPhoto.setFileName("sample");
+        storedPhoto.setStorageKey("legacy");
+        var storing = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+
+        when(photoRepository.findByFileName("sample")).thenReturn(storedPhoto);
+        when(photoStorageService.read("legacy")).thenReturn(new byte[] { 9, 4 });
+        when(encryptionUtil.decrypt(any())).thenReturn(new byte[] { 1, 1, 2 });
+        when(encryptionUtil.needsReEncryption(any())).thenReturn(true);
+        when(encryptionUtil.encrypt(any())).thenReturn(new byte[] { 5, 5, 5 });
+        when(photoStorageService.store(new byte[] { 5, 5, 5 })).thenAnswer(invocation -> {
+            storing.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return "migrated";
+        });
+        when(photoRepository.save(any(Photo.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        when(photoRepository.existsByFileName("sample")).thenReturn(true);
+
+        var first = CompletableFuture.supplyAsync(() -> getPhotoData("sample"));
+        assertThat(storing.await(5, TimeUnit.SECONDS)).isTrue();
+        var second = CompletableFuture.supplyAsync(() -> getPhotoData("sample"));
+        verify(photoStorageService, timeout(5000).times(2)).read("legacy");
+        release.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS)).containsExactly(1, 1, 2);
+        assertThat(second.get(5, TimeUnit.SECONDS)).containsExactly(1, 1, 2);
+        assertThat(storedPhoto.getStorageKey()).isEqualTo("migrated");
+        verify(photoStorageService, times(1)).store(any(byte[].class));
+        verify(photoRepository, times(1)).save(storedPhoto);
+        verify(photoStorageService, times(1)).delete("legacy");
+    }
+
+    @Test
+    void getPhotoDataShouldNotMigrateAgainWhenAnotherReaderAlreadyDid() throws Exception {
+        var legacyPhoto = new Photo();
+        legacyPhoto.setFileName("sample");
+        legacyPhoto.setStorageKey("legacy");
+        var migratedPhoto = new Photo();
+        migratedPhoto.setFileName("sample");
+        migratedPhoto.setStorageKey("migrated");
+
+        // The row changed between this reader's lookup and its migration
+        when(photoRepository.findByFileName("sample")).thenReturn(legacyPhoto, migratedPhoto);
+        when(photoStorageService.read("legacy")).thenReturn(new byte[] { 9, 4 });
+        when(encryptionUtil.decrypt(any())).thenReturn(new byte[] { 1, 1, 2 });
+        when(encryptionUtil.needsReEncryption(any())).thenReturn(true);
+        when(photoRepository.existsByFileName("sample")).thenReturn(true);
+
+        assertThat(photoManagerService.getPhotoData("sample")).containsExactly(1, 1, 2);
+
+        verify(photoStorageService, never()).store(any(byte[].class));
+        verify(photoRepository, never()).save(any(Photo.class));
+        verify(photoStorageService, never()).delete(any());
+    }
+
+    @Test
+    void getPhotoResourceShouldStreamWithoutReadingWholeBlob() throws Exception {
+        var storedPhoto = new Photo();
+        storedPhoto.setStorageKey("key");
+        storedPhoto.setOriginalFileName("original.jpg");
+        var header = new byte[EncryptionUtil.HEADER_LENGTH];
+
+        when(photoRepository.findByFileName("sample")).thenReturn(storedPhoto);
+        when(photoStorageService.open("key")).thenReturn(new ByteArrayInputStream(header));
+        when(encryptionUtil.needsReEncryption(header)).thenReturn(false);
+        when(photoStorageService.size("key")).thenReturn(1000L);
+        when(encryptionUtil.plaintextLength(header, 1000L)).thenReturn(958L);
+
+        var resource = photoManagerService.getPhotoResource("sample");
+
+        assertThat(resource.contentLength()).isEqualTo(958L);
+        assertThat(resource.getFilename()).isEqualTo("original.jpg");
+        verify(photoStorageService, times(0)).read(any());
+        verifyNoMoreInteractions(photoRepository, encryptionUtil, photoStorageService);
     }
 
     @Test
@@ -148,7 +533,7 @@ class PhotoManagerServiceImplTest {
         storedPhoto.setOriginalFileName("stored-original");
         storedPhoto.setContentType("image/jpeg");
 
-        when(photoRepository.findByFileName("stored")).thenReturn(storedPhoto);
+        when(photoRepository.findMetadataByFileName("stored")).thenReturn(projection(storedPhoto));
 
         var dto = photoManagerService.getPhotoMetadata("stored");
 
@@ -161,7 +546,7 @@ class PhotoManagerServiceImplTest {
 
     @Test
     void getPhotoMetadataShouldThrowWhenMissing() {
-        when(photoRepository.findByFileName("missing")).thenReturn(null);
+        when(photoRepository.findMetadataByFileName("missing")).thenReturn(null);
 
         assertThatThrownBy(() -> photoManagerService.getPhotoMetadata("missing"))
                 .isInstanceOf(IllegalArgumentException.class)
@@ -175,7 +560,7 @@ class PhotoManagerServiceImplTest {
         photo.setId(1L);
         photo.setFileName("file");
 
-        when(photoRepository.findAll()).thenReturn(List.of(photo));
+        when(photoRepository.findAllProjectedBy()).thenReturn(List.of(projection(photo)));
 
         var metadata = photoManagerService.getAllPhotosMetadata();
 
@@ -186,24 +571,167 @@ class PhotoManagerServiceImplTest {
     }
 
     @Test
-    void deletePhotoShouldRemoveWhenExists() throws Exception {
-        when(photoRepository.existsById(1L)).thenReturn(true);
+    void deletePhotoShouldRemoveRowAndBlobWhenExists() throws Exception {
+        var storedPhoto = new Photo();
+        storedPhoto.setId(1L);
+        storedPhoto.setFileName("sample");
+        storedPhoto.setStorageKey("blob");
+
+        when(photoRepository.findById(1L)).thenReturn(Optional.of(storedPhoto));
         doNothing().when(photoRepository).deleteById(1L);
 
+        var thumbnail = new PhotoRendition();
+        thumbnail.setStorageKey("thumb-blob");
+        when(photoRenditionRepository.findByPhotoId(1L)).thenReturn(List.of(thumbnail));
+
+        photoDataCache.put("sample", new byte[] { 1 });
+
         photoManagerService.deletePhoto(1L);
 
+        assertThat(photoDataCache.get("sample")).isNull();
         verify(photoRepository).deleteById(1L);
-        verifyNoMoreInteractions(photoRepository, imageProcessingUtil, encryptionUtil);
+        verify(photoRenditionRepository).deleteAll(List.of(thumbnail));
+        verify(renderCache).invalidate("sample");
+        verify(photoRepository).countByStorageKey("blob");
+        verify(photoStorageService).delete("blob");
+        verify(photoStorageService).delete("thumb-blob");
+        verifyNoMoreInteractions(photoRepository, imageProcessingUtil, encryptionUtil, photoStorageService);
+    }
+
+    @Test
+    void deletePhotoShouldKeepBlobsStillReferencedByDuplicates() throws Exception {
+        var storedPhoto = new Photo();
+        storedPhoto.setId(1L);
+        storedPhoto.setFileName("sample");
+        storedPhoto.setStorageKey("blob");
+
+        var thumbnail = new PhotoRendition();
+        thumbnail.setStorageKey("thumb-blob");
+
+        when(photoRepository.findById(1L)).thenReturn(Optional.of(storedPhoto));
+        when(photoRenditionRepository.findByPhotoId(1L)).thenReturn(List.of(thumbnail));
+        when(photoRepository.countByStorageKey("blob")).thenReturn(1L);
+        when(photoRenditionRepository.countByStorageKey("thumb-blob")).thenReturn(1L);
+
+        photoManagerService.deletePhoto(1L);
+
+        verify(photoRepository).deleteById(1L);
+        verify(photoRenditionRepository).deleteAll(List.of(thumbnail));
+        verifyNoMoreInteractions(photoStorageService);
     }
 
     @Test
     void deletePhotoShouldThrowWhenMissing() {
-        when(photoRepository.existsById(2L)).thenReturn(false);
+        when(photoRepository.findById(2L)).thenReturn(Optional.empty());
 
         assertThatThrownBy(() -> photoManagerService.deletePhoto(2L))
                 .isInstanceOf(IllegalArgumentException.class)
                 .hasMessageContaining("Photo not found");
+        verifyNoMoreInteractions(photoRepository, imageProcessingUtil, encryptionUtil, photoStorageService);
+    }
+
+    @Test
+    void getPhotosPageShouldReturnCursorWhenMoreRowsFollow() {
+        var newest = photoAt(3L, LocalDateTime.of(2024, 5, 3, 10, 0));
+        var middle = photoAt(2L, LocalDateTime.of(2024, 5, 2, 10, 0));
+        var oldest = photoAt(1L, LocalDateTime.of(2024, 5, 1, 10, 0));
+
+        when(photoRepository.findPage(null, null, null, null, null, PageRequest.of(0, 3)))
+                .thenReturn(List.of(projection(newest), projection(middle), projection(oldest)));
+
+        var page = photoManagerService.getPhotosPage(null, 2, null, null, null);
+
+        assertThat(page.getPhotos()).extracting(PhotoMetadataDTO::getId).containsExactly(3L, 2L);
+        assertThat(page.isHasMore()).isTrue();
+        var cursor = PhotoCursor.decode(page.getNextCursor());
+        assertThat(cursor.getId()).isEqualTo(2L);
+        assertThat(cursor.getUploadedAt()).isEqualTo(middle.getUploadedAt());
+        verifyNoMoreInteractions(photoRepository, imageProcessingUtil, encryptionUtil);
+    }
+
+    @Test
+    void getPhotosPageShouldContinueAfterCursorAndCapPageSize() {
+        photoConfiguration.getListing().setMaxPageSize(10);
+        var after = new PhotoCursor(LocalDateTime.of(2024, 5, 2, 10, 0), 2L);
+        var oldest = photoAt(1L, LocalDateTime.of(2024, 5, 1, 10, 0));
+
+        when(photoRepository.findPage(true, null, null, after.getUploadedAt(), 2L, PageRequest.of(0, 11)))
+                .thenReturn(List.of(projection(oldest)));
+
+        var page = photoManagerService.getPhotosPage(after.encode(), 1000, true, null, null);
+
+        assertThat(page.getPhotos()).extracting(PhotoMetadataDTO::getId).containsExactly(1L);
+        assertThat(page.isHasMore()).isFalse();
+        assertThat(page.getNextCursor()).isNull();
+    }
+
+    @Test
+    void getPhotosPageShouldRejectInvalidArguments() {
+        assertThatThrownBy(() -> photoManagerService.getPhotosPage("not-a-cursor", null, null, null, null))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> photoManagerService.getPhotosPage(null, 0, null, null, null))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> photoManagerService.getPhotosPage(null, null, null,
+                LocalDateTime.of(2024, 2, 1, 0, 0), LocalDateTime.of(2024, 1, 1, 0, 0)))
+                .isInstanceOf(IllegalArgumentException.class);
+        verifyNoMoreInteractions(photoRepository);
+    }
+
+    @Test
+    void getPhotosMetadataByIdsShouldApplyUploadTimeRange() {
+        var inside = photoAt(1L, LocalDateTime.of(2024, 5, 2, 10, 0));
+        var outside = photoAt(2L, LocalDateTime.of(2024, 6, 1, 10, 0));
+
+        when(photoRepository.findProjectedByIdIn(List.of(1L, 2L), Sort.by(Sort.Direction.DESC, "uploadedAt", "id")))
+                .thenReturn(List.of(projection(outside), projection(inside)));
+
+        var photos = photoManagerService.getPhotosMetadataByIds(List.of(1L, 2L),
+                LocalDateTime.of(2024, 5, 1, 0, 0), LocalDateTime.of(2024, 5, 31, 0, 0));
+
+        assertThat(photos).extracting(PhotoMetadataDTO::getId).containsExactly(1L);
         verifyNoMoreInteractions(photoRepository, imageProcessingUtil, encryptionUtil);
     }
 
+    private static Photo photoAt(Long id, LocalDateTime uploadedAt) {
+        var photo = new Photo();
+        photo.setId(id);
+        photo.setUploadedAt(uploadedAt);
+        return photo;
+    }
+
+    private static PhotoMetadataView projection(Photo photo) {
+        return PROJECTIONS.createProjection(PhotoMetadataView.class, photo);
+    }
+
+    private static PhotoConfiguration.Rendition rendition(String name, int maxSize) {
+        var rendition = new PhotoConfiguration.Rendition();
+        rendition.setName(name);
+        rendition.setMaxWidth(maxSize);
+        rendition.setMaxHeight(maxSize);
+        return rendition;
+    }
+
+    /**
+     * Passes the plaintext through the encryption mock unchanged and records
+     * what the storage mock reads
+     */
+    private void storeStreamsAs(String key) throws Exception {
+        when(encryptionUtil.openEncrypting(any())).thenAnswer(invocation -> invocation.getArgument(0));
+        when(photoStorageService.store(any(InputStream.class))).thenAnswer(invocation -> {
+            storedBlobs.add(invocation.<InputStream>getArgument(0).readAllBytes());
+            return key;
+        });
+    }
+
+    private byte[] getPhotoData(String fileName) {
+        try {
+            return photoManagerService.getPhotoData(fileName);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String sha256(byte[] data) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+    }
 }
@@ -0,0 +1,81 @@
+package com.phototransformation.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.phototransformation.config.PhotoConfiguration;
+
+class PhotoStorageServiceImplTest {
+
+    @TempDir
+    Path storageRoot;
+
+    private PhotoStorageServiceImpl photoStorageService;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        var photoConfiguration = new PhotoConfiguration();
+        photoConfiguration.getStorage().setPath(storageRoot.toString());
+        photoStorageService = new PhotoStorageServiceImpl(photoConfiguration);
+    }
+
+    @Test
+    void storeShouldWriteContentAddressedShardedBlob() throws Exception {
+        var data = "hello".getBytes(StandardCharsets.UTF_8);
+
+        var key = photoStorageService.store(data);
+
+        // SHA-256 of "hello"
+        assertThat(key).isEqualTo("2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824");
+        assertThat(storageRoot.resolve("2c").resolve("f2").resolve(key)).hasBinaryContent(data);
+        assertThat(photoStorageService.read(key)).isEqualTo(data);
+        assertThat(photoStorageService.size(key)).isEqualTo(data.length);
+        try (var tempFiles = Files.list(storageRoot.resolve("tmp"))) {
+            assertThat(tempFiles).isEmpty();
+        }
+    }
+
+    @Test
+    void storeShouldReturnSameKeyForSameContent() throws Exception {
+        var first = photoStorageService.store(new byte[] { 1, 2, 3 });
+        var second = photoStorageService.store(new byte[] { 1, 2, 3 });
+
+        assertThat(second).isEqualTo(first);
+        assertThat(photoStorageService.read(first)).containsExactly(1, 2, 3);
+    }
+
+    @Test
+    void deleteShouldRemoveBlob() throws Exception {
+        var key = photoStorageService.store(new byte[] { 4 });
+
+        assertThat(photoStorageService.delete(key)).isTrue();
+        assertThat(photoStorageService.exists(key)).isFalse();
+        assertThat(photoStorageService.delete(key)).isFalse();
+    }
+
+    @Test
+    void keysShouldListStoredBlobsOnly() throws Exception {
+        var first = photoStorageService.store(new byte[] { 1 });
+        var second = photoStorageService.store(new byte[] { 2 });
+        Files.writeString(storageRoot.resolve("tmp").resolve("blob_1.tmp"), "partial");
+        Files.writeString(storageRoot.resolve("README"), "not a blob");
+
+        try (var keys = photoStorageService.keys()) {
+            assertThat(keys).containsExactlyInAnyOrder(first, second);
+        }
+    }
+
+    @Test
+    void shouldRejectKeysThatAreNotHashes() {
+        assertThatThrownBy(() -> photoStorageService.read("../secretKey.key"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,119 @@
+package com.phototransformation.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.lenient;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.phototransformation.config.PhotoConfiguration;
+import com.phototransformation.util.EncryptionUtil;
+import com.phototransformation.util.ImageFormat;
+
+@ExtendWith(MockitoExtension.class)
+class RenderCacheTest {
+
+    private static final RenderSpec SMALL = new RenderSpec(100, null, RenderSpec.Fit.INSIDE, ImageFormat.JPEG, null);
+    private static final RenderSpec LARGE = new RenderSpec(800, null, RenderSpec.Fit.INSIDE, ImageFormat.JPEG, null);
+
+    @TempDir
+    Path cacheRoot;
+
+    @Mock
+    private EncryptionUtil encryptionUtil;
+
+    private PhotoConfiguration photoConfiguration;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        photoConfiguration = new PhotoConfiguration();
+        photoConfiguration.getRender().setCachePath(cacheRoot.toString());
+
+        // Stands in for encryption: flips every bit, so the files never hold the rendered bytes
+        lenient().when(encryptionUtil.encrypt(any())).thenAnswer(invocation -> flip(invocation.getArgument(0)));
+        lenient().when(encryptionUtil.decrypt(any())).thenAnswer(invocation -> flip(invocation.getArgument(0)));
+    }
+
+    @Test
+    void shouldStoreVariantsEncryptedOnDisk() throws Exception {
+        var cache = new RenderCache(photoConfiguration, encryptionUtil);
+
+        cache.put("a.jpg", SMALL, new byte[] { 1, 2, 3 });
+
+        assertThat(cache.get("a.jpg", SMALL)).containsExactly(1, 2, 3);
+        assertThat(cache.get("a.jpg", LARGE)).isNull();
+        assertThat(cache.get("b.jpg", SMALL)).isNull();
+        try (var files = Files.walk(cacheRoot)) {
+            assertThat(files.filter(Files::isRegularFile))
+                    .singleElement()
+                    .satisfies(file -> {
+                        assertThat(file.getFileName()).hasToString(SMALL.key());
+                        assertThat(Files.readAllBytes(file)).containsExactly(flip(new byte[] { 1, 2, 3 }));
+                    });
+        }
+    }
+
+    @Test
+    void shouldDeleteEvictedVariantsToStayWithinBudget() throws Exception {
+        photoConfiguration.getRender().setCacheMaxBytes(10);
+        var cache = new RenderCache(photoConfiguration, encryptionUtil);
+
+        cache.put("a.jpg", SMALL, new byte[6]);
+        cache.put("a.jpg", LARGE, new byte[6]);
+
+        var remaining = (cache.get("a.jpg", SMALL) != null ? 1 : 0) + (cache.get("a.jpg", LARGE) != null ? 1 : 0);
+        assertThat(remaining).isEqualTo(1);
+        try (var files = Files.walk(cacheRoot)) {
+            assertThat(files.filter(Files::isRegularFile)).hasSize(1);
+        }
+    }
+
+    @Test
+    void invalidateShouldDropEveryVariantOfThePhoto() throws Exception {
+        var cache = new RenderCache(photoConfiguration, encryptionUtil);
+
+        cache.put("a.jpg", SMALL, new byte[] { 1 });
+        cache.put("a.jpg", LARGE, new byte[] { 2 });
+        cache.put("b.jpg", SMALL, new byte[] { 3 });
+
+        cache.invalidate("a.jpg");
+
+        assertThat(cache.get("a.jpg", SMALL)).isNull();
+        assertThat(cache.get("a.jpg", LARGE)).isNull();
+        assertThat(cache.get("b.jpg", SMALL)).containsExactly(3);
+        try (var files = Files.walk(cacheRoot)) {
+            assertThat(files.filter(Files::isRegularFile)).hasSize(1);
+        }
+    }
+
+    @Test
+    void shouldKeepVariantsAcrossRestartsAndRemoveAbandonedTempFiles() throws Exception {
+        new RenderCache(photoConfiguration, encryptionUtil).put("a.jpg", SMALL, new byte[] { 1 });
+        Path photoDirectory;
+        try (var directories = Files.list(cacheRoot)) {
+            photoDirectory = directories.findFirst().orElseThrow();
+        }
+        var abandoned = Files.createFile(photoDirectory.resolve("render_1.tmp"));
+
+        var restarted = new RenderCache(photoConfiguration, encryptionUtil);
+
+        assertThat(restarted.get("a.jpg", SMALL)).containsExactly(1);
+        assertThat(abandoned).doesNotExist();
+    }
+
+    private static byte[] flip(byte[] data) {
+        var flipped = new byte[data.length];
+        for (var i = 0; i < data.length; i++) {
+            flipped[i] = (byte) ~data[i];
+        }
+        return flipped;
+    }
+}
@@ -0,0 +1,175 @@
+package com.phototransformation.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.awt.Dimension;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.phototransformation.config.PhotoConfiguration;
+import com.phototransformation.dto.PhotoMetadataDTO;
+import com.phototransformation.util.FormatUnavailableException;
+import com.phototransformation.util.ImageFormat;
+import com.phototransformation.util.ImageProcessingUtil;
+
+@ExtendWith(MockitoExtension.class)
+class RenderServiceImplTest {
+
+    @Mock
+    private PhotoManagerService photoManagerService;
+
+    @Mock
+    private ImageProcessingUtil imageProcessingUtil;
+
+    @Mock
+    private RenderCache renderCache;
+
+    private RenderServiceImpl renderService;
+
+    private PhotoMetadataDTO photo;
+
+    @BeforeEach
+    void setUp() {
+        renderService = new RenderServiceImpl(photoManagerService, imageProcessingUtil, renderCache,
+                new TransformationAdmission(new PhotoConfiguration()));
+
+        photo = new PhotoMetadataDTO();
+        photo.setFileName("a.jpg");
+        photo.setResizedWidth(600d);
+        photo.setResizedHeight(400d);
+        lenient().when(imageProcessingUtil.canEncode(any())).thenReturn(true);
+    }
+
+    @Test
+    void resolveShouldAddTheEncoderSettingsToTheKey() {
+        var spec = new RenderSpec(100, null, RenderSpec.Fit.INSIDE, ImageFormat.JPEG, null);
+
+        when(imageProcessingUtil.encoderSettingsHash(ImageFormat.JPEG, null)).thenReturn("0a1b2c3d");
+
+        assertThat(renderService.resolve(spec).key()).isEqualTo("w100-inside-e0a1b2c3d.jpg");
+    }
+
+    @Test
+    void renderShouldFailFastWhenTheFormatCannotBeEncoded() throws Exception {
+        var spec = new RenderSpec(100, null, RenderSpec.Fit.INSIDE, ImageFormat.WEBP, null);
+
+        when(imageProcessingUtil.canEncode(ImageFormat.WEBP)).thenReturn(false);
+
+        assertThatThrownBy(() -> renderService.render(photo, spec))
+                .isInstanceOf(FormatUnavailableException.class);
+        verify(photoManagerService, never()).getPhotoData(any());
+    }
+
+    @Test
+    void renderShouldServeCachedVariantWithoutReadingPhoto() throws Exception {
+        var spec = new RenderSpec(100, null, RenderSpec.Fit.INSIDE, ImageFormat.JPEG, null);
+
+        when(renderCache.get("a.jpg", spec)).thenReturn(new byte[] { 7 });
+
+        assertThat(renderService.render(photo, spec)).containsExactly(7);
+        verify(photoManagerService, never()).getPhotoData(any());
+    }
+
+    @Test
+    void renderShouldFitInsideBoxAndCacheResult() throws Exception {
+        var spec = new RenderSpec(300, 300, RenderSpec.Fit.INSIDE, ImageFormat.JPEG, 80);
+
+        when(photoManagerService.getPhotoData("a.jpg")).thenReturn(new byte[] { 1 });
+        when(imageProcessingUtil.calculateNewDimensions(600, 400, 300, 300)).thenReturn(new Dimension(300, 200));
+        when(imageProcessingUtil.renderImage(new byte[] { 1 }, new Dimension(300, 200), new Dimension(300, 200), ImageFormat.JPEG, 80))
+                .thenReturn(new byte[] { 2 });
+
+        assertThat(renderService.render(photo, spec)).containsExactly(2);
+        verify(renderCache).put("a.jpg", spec, new byte[] { 2 });
+    }
+
+    @Test
+    void renderShouldScaleToCoverBoxAndCropOverflow() throws Exception {
+        var spec = new RenderSpec(100, 100, RenderSpec.Fit.COVER, ImageFormat.PNG, null);
+
+        when(photoManagerService.getPhotoData("a.jpg")).thenReturn(new byte[] { 1 });
+        when(imageProcessingUtil.renderImage(new byte[] { 1 }, new Dimension(150, 100), new Dimension(100, 100), ImageFormat.PNG, null))
+                .thenReturn(new byte[] { 3 });
+
+        assertThat(renderService.render(photo, spec)).containsExactly(3);
+    }
+
+    @Test
+    void renderShouldNotEnlargeWhenFilling() throws Exception {
+        var spec = new RenderSpec(1000, 200, RenderSpec.Fit.FILL, ImageFormat.JPEG, null);
+
+        when(photoManagerService.getPhotoData("a.jpg")).thenReturn(new byte[] { 1 });
+        when(imageProcessingUtil.renderImage(new byte[] { 1 }, new Dimension(600, 200), new Dimension(600, 200), ImageFormat.JPEG, null))
+                .thenReturn(new byte[] { 4 });
+
+        assertThat(renderService.render(photo, spec)).containsExactly(4);
+    }
+
+    @Test
+    void concurrentRequestsForSameVariantShouldShareOneRender() throws Exception {
+        var spec = new RenderSpec(100, null, RenderSpec.Fit.INSIDE, ImageFormat.JPEG, null);
+        var renderStarted = new CountDownLatch(1);
+        var releaseRender = new CountDownLatch(1);
+
+        when(photoManagerService.getPhotoData("a.jpg")).thenReturn(new byte[] { 1 });
+        when(imageProcessingUtil.calculateNewDimensions(600, 400, 100, null)).thenReturn(new Dimension(100, 67));
+        when(imageProcessingUtil.renderImage(any(), any(), any(), eq(ImageFormat.JPEG), any())).thenAnswer(invocation -> {
+            renderStarted.countDown();
+            releaseRender.await(5, TimeUnit.SECONDS);
+            return new byte[] { 5 };
+        });
+
+        var executor = Executors.newFixedThreadPool(2);
+        try {
+            var first = CompletableFuture.supplyAsync(() -> renderQuietly(spec), executor);
+            assertThat(renderStarted.await(5, TimeUnit.SECONDS)).isTrue();
+
+            var waiting = new AtomicReference<Thread>();
+            var second = CompletableFuture.supplyAsync(() -> {
+                waiting.set(Thread.currentThread());
+                return renderQuietly(spec);
+            }, executor);
+            // Let the render finish only once the second request is parked on it
+            var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while ((waiting.get() == null || waiting.get().getState() != Thread.State.WAITING)
+                    && System.nanoTime() < deadline) {
+                Thread.onSpinWait();
+            }
+            releaseRender.countDown();
+
+            assertThat(first.get(5, TimeUnit.SECONDS)).containsExactly(5);
+            assertThat(second.get(5, TimeUnit.SECONDS)).containsExactly(5);
+        } finally {
+            releaseRender.countDown();
+            executor.shutdownNow();
+        }
+
+        verify(imageProcessingUtil, times(1)).renderImage(any(), any(), any(), any(), any());
+        verify(renderCache, times(1)).put(eq("a.jpg"), eq(spec), any());
+    }
+
+    private byte[] renderQuietly(RenderSpec spec) {
+        try {
+            return renderService.render(photo, spec);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.phototransformation.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.phototransformation.config.PhotoConfiguration;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class TransformationAdmissionTest {
+
+    private PhotoConfiguration configuration;
+
+    @BeforeEach
+    void setUp() {
+        configuration = new PhotoConfiguration();
+        // Room for one 1000x1000 image at 4 bytes per pixel
+        configuration.getAdmission().setMaxBytes(4_000_000);
+        configuration.getAdmission().setMaxWaitMs(50);
+    }
+
+    @Test
+    void permitsShouldCoverThePixelMemoryUpToTheWholeBudget() {
+        var admission = new TransformationAdmission(configuration);
+
+        assertThat(admission.permits(1, 1)).isEqualTo(1);
+        assertThat(admission.permits(500, 512)).isEqualTo(1000);
+        assertThat(admission.permits(5000, 5000)).isEqualTo(3906);
+    }
+
+    @Test
+    void acquireShouldWaitUntilMemoryIsReleased() throws Exception {
+        configuration.getAdmission().setMaxWaitMs(5000);
+        var admission = new TransformationAdmission(configuration);
+        var registry = new SimpleMeterRegistry();
+        admission.bindTo(registry);
+
+        var first = admission.acquire(1000, 1000);
+        var second = CompletableFuture.supplyAsync(() -> {
+            try (var permit = admission.acquire(800, 800)) {
+                return true;
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        while (registry.get("photo.admission.queue").gauge().value() < 1) {
+            Thread.sleep(5);
+        }
+        assertThat(second).isNotDone();
+
+        first.close();
+
+        assertThat(second.get(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(registry.get("photo.admission.wait").functionTimer().count()).isEqualTo(2);
+        assertThat(registry.get("photo.admission.reserved").gauge().value()).isZero();
+    }
+
+    @Test
+    void acquireShouldRejectWhenMemoryIsNotReleasedInTime() throws Exception {
+        var admission = new TransformationAdmission(configuration);
+        var registry = new SimpleMeterRegistry();
+        admission.bindTo(registry);
+
+        try (var permit = admission.acquire(5000, 5000)) {
+            assertThatThrownBy(() -> admission.acquire(10, 10))
+                    .isInstanceOf(TransformationCapacityException.class)
+                    .satisfies(e -> assertThat(((TransformationCapacityException) e).getRetryAfterSeconds()).isEqualTo(1));
+        }
+
+        assertThat(registry.get("photo.admission.rejected").functionCounter().count()).isEqualTo(1);
+        admission.acquire(10, 10).close();
+    }
+
+    @Test
+    void acquireShouldRejectWithoutWaitingWhenTheQueueIsFull() throws Exception {
+        configuration.getAdmission().setMaxQueued(0);
+        configuration.getAdmission().setMaxWaitMs(60000);
+        var admission = new TransformationAdmission(configuration);
+
+        try (var permit = admission.acquire(1000, 1000)) {
+            assertThatThrownBy(() -> admission.acquire(10, 10))
+                    .isInstanceOf(TransformationCapacityException.class)
+                    .hasMessageContaining("waiting");
+        }
+    }
+
+    @Test
+    void disabledAdmissionShouldNeverWait() throws Exception {
+        configuration.getAdmission().setEnabled(false);
+        var admission = new TransformationAdmission(configuration);
+
+        try (var first = admission.acquire(5000, 5000); var second = admission.acquire(5000, 5000)) {
+            assertThat(first).isNotNull();
+            assertThat(second).isNotNull();
+        }
+    }
+}
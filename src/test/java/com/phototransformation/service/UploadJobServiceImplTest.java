@@ -0,0 +1,263 @@
+package com.phototransformation.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.multipart.MultipartFile;
+
+import com.phototransformation.config.PhotoConfiguration;
+import com.phototransformation.entity.Photo;
+import com.phototransformation.entity.UploadJob;
+import com.phototransformation.repository.UploadJobRepository;
+import com.phototransformation.util.EncryptionUtil;
+import com.phototransformation.util.ImageProcessingUtil;
+import com.phototransformation.util.PipelineMetrics;
+import com.phototransformation.util.SpoolDirectory;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+@ExtendWith(MockitoExtension.class)
+class UploadJobServiceImplTest {
+
+    @Mock
+    private UploadJobRepository uploadJobRepository;
+
+    @Mock
+    private PhotoManagerService photoManagerService;
+
+    @Mock
+    private PhotoStorageService photoStorageService;
+
+    @Mock
+    private EncryptionUtil encryptionUtil;
+
+    @Mock
+    private ImageProcessingUtil imageProcessingUtil;
+
+    @TempDir
+    Path spoolPath;
+
+    private PhotoConfiguration photoConfiguration;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    // Jobs run when the test calls runQueued(), so their state can be checked in between
+    private final List<Runnable> executor = new ArrayList<>();
+    private final Map<String, UploadJob> jobs = new HashMap<>();
+    private final Map<String, byte[]> spooled = new HashMap<>();
+
+    private UploadJobServiceImpl uploadJobService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        photoConfiguration = new PhotoConfiguration();
+        photoConfiguration.getSpool().setPath(spoolPath.toString());
+        meterRegistry = new SimpleMeterRegistry();
+        uploadJobService = new UploadJobServiceImpl(photoConfiguration, uploadJobRepository, photoManagerService,
+                photoStorageService, encryptionUtil, imageProcessingUtil, new SpoolDirectory(photoConfiguration),
+                new PipelineMetrics(meterRegistry), executor::add);
+
+        lenient().when(uploadJobRepository.save(any(UploadJob.class))).thenAnswer(invocation -> {
+            UploadJob job = invocation.getArgument(0);
+            jobs.put(job.getId(), job);
+            return job;
+        });
+        lenient().when(uploadJobRepository.saveAll(any())).thenAnswer(invocation -> {
+            var saved = new ArrayList<UploadJob>();
+            for (UploadJob job : invocation.<Iterable<UploadJob>>getArgument(0)) {
+                jobs.put(job.getId(), job);
+                saved.add(job);
+            }
+            return saved;
+        });
+        lenient().when(uploadJobRepository.findById(any())).thenAnswer(invocation ->
+                Optional.ofNullable(jobs.get(invocation.<String>getArgument(0))));
+        lenient().when(imageProcessingUtil.isValidImageFormat("image/jpeg")).thenReturn(true);
+    }
+
+    @Test
+    void submitShouldQueueJobAndProcessItInTheBackground() throws Exception {
+        var savedPhoto = new Photo();
+        savedPhoto.setFileName("generated.jpg");
+
+        spoolAs("spool");
+        var processed = new ArrayList<Path>();
+        when(photoManagerService.processAndSavePhoto(eq("a.jpg"), eq("image/jpeg"), any())).thenAnswer(invocation -> {
+            Path source = invocation.getArgument(2);
+            assertThat(source).hasBinaryContent(new byte[] { 1, 2 });
+            processed.add(source);
+            return savedPhoto;
+        });
+
+        var submitted = uploadJobService.submit(files(jpeg("a.jpg", new byte[] { 1, 2 })));
+
+        assertThat(submitted).singleElement().satisfies(job -> {
+            assertThat(job.getStatus()).isEqualTo(UploadJob.Status.QUEUED);
+            assertThat(job.getSpoolKey()).isEqualTo("spool");
+        });
+        verify(photoManagerService, never()).processAndSavePhoto(any(), any(), any());
+
+        runQueued();
+
+        var job = uploadJobService.getJob(submitted.get(0).getId());
+        assertThat(job.getStatus()).isEqualTo(UploadJob.Status.COMPLETED);
+        assertThat(job.getPhotoFileName()).isEqualTo("generated.jpg");
+        assertThat(job.getFinishedAt()).isNotNull();
+        assertThat(processed).singleElement().satisfies(source -> {
+            assertThat(source.getParent()).isEqualTo(spoolPath);
+            assertThat(source).doesNotExist();
+        });
+        verify(photoStorageService).delete("spool");
+    }
+
+    @Test
+    void submitShouldRecordProcessingFailure() throws Exception {
+        spoolAs("spool");
+        when(photoManagerService.processAndSavePhoto(any(), any(), any()))
+                .thenThrow(new IllegalArgumentException("Image size exceeds maximum allowed dimensions (5000x5000)."));
+
+        var submitted = uploadJobService.submit(files(jpeg("a.jpg", new byte[] { 1 })));
+        runQueued();
+
+        var job = uploadJobService.getJob(submitted.get(0).getId());
+        assertThat(job.getStatus()).isEqualTo(UploadJob.Status.FAILED);
+        assertThat(job.getErrorMessage()).contains("maximum allowed dimensions");
+        verify(photoStorageService).delete("spool");
+    }
+
+    @Test
+    void submitShouldFailInvalidFormatsWithoutQueueing() throws Exception {
+        var submitted = uploadJobService.submit(files(
+                new MockMultipartFile("files", "a.gif", "image/gif", new byte[] { 1 })));
+
+        assertThat(submitted).singleElement().satisfies(job -> {
+            assertThat(job.getStatus()).isEqualTo(UploadJob.Status.FAILED);
+            assertThat(job.getSpoolKey()).isNull();
+        });
+        assertThat(executor).isEmpty();
+        assertThat(meterRegistry.get("photo.upload.rejected").tag("reason", "format").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void submitShouldLeaveNothingBehindWhenALaterFileFails() throws Exception {
+        spoolAs("spool");
+        var broken = new MockMultipartFile("files", "b.jpg", "image/jpeg", new byte[] { 1 }) {
+            @Override
+            public InputStream getInputStream() throws IOException {
+                throw new IOException("Upload was cut off");
+            }
+        };
+
+        assertThatThrownBy(() -> uploadJobService.submit(files(jpeg("a.jpg", new byte[] { 1 }), broken)))
+                .isInstanceOf(IOException.class);
+
+        assertThat(jobs).isEmpty();
+        assertThat(executor).isEmpty();
+        verify(photoStorageService).delete("spool");
+        verify(uploadJobRepository, never()).saveAll(any());
+
+        // The reservation was released
+        photoConfiguration.getJobs().setMaxQueued(2);
+        assertThat(uploadJobService.submit(files(jpeg("a.jpg", new byte[] { 1 }), jpeg("c.jpg", new byte[] { 1 }))))
+                .hasSize(2);
+    }
+
+    @Test
+    void submitShouldRejectBatchThatDoesNotFitTheQueue() throws Exception {
+        photoConfiguration.getJobs().setMaxQueued(2);
+        spoolAs("spool");
+
+        uploadJobService.submit(files(jpeg("a.jpg", new byte[] { 1 })));
+
+        assertThatThrownBy(() -> uploadJobService.submit(files(jpeg("b.jpg", new byte[] { 1 }), jpeg("c.jpg", new byte[] { 1 }))))
+                .isInstanceOf(UploadQueueFullException.class)
+                .satisfies(e -> assertThat(((UploadQueueFullException) e).getRetryAfterSeconds()).isEqualTo(30));
+        assertThat(jobs).hasSize(1);
+
+        runQueued();
+
+        assertThat(uploadJobService.submit(files(jpeg("b.jpg", new byte[] { 1 }), jpeg("c.jpg", new byte[] { 1 }))))
+                .hasSize(2);
+    }
+
+    @Test
+    void requeueUnfinishedJobsShouldResumeJobsLeftByPreviousRun() throws Exception {
+        var interrupted = new UploadJob();
+        interrupted.setId("job-1");
+        interrupted.setOriginalFileName("a.jpg");
+        interrupted.setContentType("image/jpeg");
+        interrupted.setSpoolKey("spool");
+        interrupted.setStatus(UploadJob.Status.PROCESSING);
+        jobs.put("job-1", interrupted);
+
+        var savedPhoto = new Photo();
+        savedPhoto.setFileName("generated.jpg");
+
+        when(uploadJobRepository.findByStatusInOrderByCreatedAtAsc(any())).thenReturn(List.of(interrupted));
+        spooled.put("spool", new byte[] { 1 });
+        spoolAs("spool");
+        when(photoManagerService.processAndSavePhoto(eq("a.jpg"), eq("image/jpeg"), any())).thenReturn(savedPhoto);
+
+        uploadJobService.requeueUnfinishedJobs();
+        runQueued();
+
+        assertThat(interrupted.getStatus()).isEqualTo(UploadJob.Status.COMPLETED);
+        assertThat(interrupted.getPhotoFileName()).isEqualTo("generated.jpg");
+    }
+
+    /**
+     * Spools uploads under the given key; the encryption mocks pass the bytes
+     * through unchanged
+     */
+    private void spoolAs(String key) throws Exception {
+        lenient().when(encryptionUtil.openEncrypting(any())).thenAnswer(invocation -> invocation.getArgument(0));
+        lenient().when(photoStorageService.store(any(InputStream.class))).thenAnswer(invocation -> {
+            spooled.put(key, invocation.<InputStream>getArgument(0).readAllBytes());
+            return key;
+        });
+        lenient().when(photoStorageService.open(any())).thenAnswer(invocation ->
+                new ByteArrayInputStream(spooled.get(invocation.<String>getArgument(0))));
+        lenient().doAnswer(invocation -> {
+            invocation.<InputStream>getArgument(0).transferTo(invocation.getArgument(1));
+            return null;
+        }).when(encryptionUtil).decrypt(any(InputStream.class), any(OutputStream.class));
+    }
+
+    private void runQueued() {
+        var queued = new ArrayList<>(executor);
+        executor.clear();
+        queued.forEach(Runnable::run);
+    }
+
+    private static MockMultipartFile jpeg(String name, byte[] data) {
+        return new MockMultipartFile("files", name, "image/jpeg", data);
+    }
+
+    private static MultipartFile[] files(MultipartFile... files) {
+        return files;
+    }
+}
@@ -0,0 +1,97 @@
+package com.phototransformation.util;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Per operation cost of encryption with the old per call key file read and
+ * provider lookup versus the cached key and cipher. Excluded from the default
+ * build, run it with: mvn test -Dgroups=benchmark -DexcludedGroups=
+ */
+@Tag("benchmark")
+class EncryptionUtilBenchmark {
+
+    private static final int WARMUP = 2_000;
+    private static final int ITERATIONS = 20_000;
+
+    private SecretKeyGenerator secretKeyGenerator;
+    private EncryptionUtil encryptionUtil;
+    private Path keyFilePath;
+    private byte[] originalKeyContent;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        keyFilePath = Path.of("secretKey.key");
+        originalKeyContent = Files.exists(keyFilePath) ? Files.readAllBytes(keyFilePath) : null;
+
+        secretKeyGenerator = new SecretKeyGenerator();
+        encryptionUtil = new EncryptionUtil();
+        ReflectionTestUtils.setField(encryptionUtil, "secretKeyGenerator", secretKeyGenerator);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (originalKeyContent != null) {
+            Files.write(keyFilePath, originalKeyContent);
+        } else {
+            Files.deleteIfExists(keyFilePath);
+        }
+    }
+
+    @Test
+    void compareLegacyAndCachedEncryption() throws Exception {
+        for (var size : new int[] { 1024, 64 * 1024, 1024 * 1024 }) {
+            var data = new byte[size];
+            new SecureRandom().nextBytes(data);
+            var iterations = Math.max(200, ITERATIONS / Math.max(1, size / 16384));
+
+            var legacy = measure(iterations, () -> legacyEncrypt(data));
+            var cached = measure(iterations, () -> encryptionUtil.encrypt(data));
+
+            System.out.printf("encrypt %8d bytes: legacy %9.1f us/op, cached %9.1f us/op (%.1fx)%n",
+                    size, legacy / 1000.0, cached / 1000.0, legacy / cached);
+        }
+    }
+
+    /**
+     * The encrypt path as it was before the key and cipher were cached
+     */
+    private byte[] legacyEncrypt(byte[] data) throws Exception {
+        var secretKey = secretKeyGenerator.loadOrGenerateSecretKey();
+        var cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        var iv = new byte[16];
+        new SecureRandom().nextBytes(iv);
+        cipher.init(Cipher.ENCRYPT_MODE, secretKey, new IvParameterSpec(iv));
+        var encryptedData = cipher.doFinal(data);
+        var encryptedWithIv = Arrays.copyOf(iv, 16 + encryptedData.length);
+        System.arraycopy(encryptedData, 0, encryptedWithIv, 16, encryptedData.length);
+        return encryptedWithIv;
+    }
+
+    private double measure(int iterations, Operation operation) throws Exception {
+        for (var i = 0; i < Math.min(WARMUP, iterations); i++) {
+            operation.run();
+        }
+        var start = System.nanoTime();
+        for (var i = 0; i < iterations; i++) {
+            operation.run();
+        }
+        return (System.nanoTime() - start) / (double) iterations;
+    }
+
+    @FunctionalInterface
+    private interface Operation {
+        byte[] run() throws Exception;
+    }
+}
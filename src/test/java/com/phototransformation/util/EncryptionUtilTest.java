@@ -1,20 +1,36 @@
 package com.phototransformation.util;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 
+import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.test.util.ReflectionTestUtils;
@@ -48,23 +64,284 @@ class EncryptionUtilTest {
         assertThat(encrypted).isNotEqualTo(original);
         assertThat(encrypted.length).isGreaterThan(original.length);
         assertThat(decrypted).isEqualTo(original);
-        verify(secretKeyGenerator, times(2)).loadOrGenerateSecretKey();
+        verify(secretKeyGenerator, times(1)).loadOrGenerateSecretKey();
+        verify(secretKeyGenerator).loadKeyring();
+        verify(secretKeyGenerator).addToKeyring(secretKey);
         verifyNoMoreInteractions(secretKeyGenerator);
     }
 
     @Test
-    void encryptShouldGenerateDifferentIvEachTime() throws Exception {
+    void encryptShouldGenerateDifferentNonceEachTime() throws Exception {
         var data = "same-data".getBytes(StandardCharsets.UTF_8);
 
         var encryptedOne = encryptionUtil.encrypt(data);
         var encryptedTwo = encryptionUtil.encrypt(data);
 
-        var ivOne = Arrays.copyOfRange(encryptedOne, 0, 16);
-        var ivTwo = Arrays.copyOfRange(encryptedTwo, 0, 16);
+        var headerOne = Arrays.copyOfRange(encryptedOne, 0, EncryptionUtil.HEADER_LENGTH);
+        var headerTwo = Arrays.copyOfRange(encryptedTwo, 0, EncryptionUtil.HEADER_LENGTH);
 
-        assertThat(ivOne).isNotEqualTo(ivTwo);
+        // Same magic, version, key id and chunk size; different nonce prefix
+        assertThat(Arrays.copyOf(headerOne, 18)).isEqualTo(Arrays.copyOf(headerTwo, 18));
+        assertThat(headerOne).isNotEqualTo(headerTwo);
 
-        verify(secretKeyGenerator, times(2)).loadOrGenerateSecretKey();
+        verify(secretKeyGenerator, times(1)).loadOrGenerateSecretKey();
+        verify(secretKeyGenerator).loadKeyring();
+        verify(secretKeyGenerator).addToKeyring(secretKey);
         verifyNoMoreInteractions(secretKeyGenerator);
     }
+
+    @Test
+    void reloadSecretKeyShouldPickUpReplacedKeyAndKeepOldOne() throws Exception {
+        var data = "rotate-me".getBytes(StandardCharsets.UTF_8);
+        var encryptedWithOldKey = encryptionUtil.encrypt(data);
+
+        var newKey = new byte[32];
+        Arrays.fill(newKey, (byte) 7);
+        secretKey = new SecretKeySpec(newKey, "AES");
+        encryptionUtil.reloadSecretKey();
+
+        var encryptedWithNewKey = encryptionUtil.encrypt(data);
+
+        assertThat(encryptionUtil.decrypt(encryptedWithNewKey)).isEqualTo(data);
+        assertThat(encryptionUtil.decrypt(encryptedWithOldKey)).isEqualTo(data);
+        assertThat(encryptionUtil.needsReEncryption(encryptedWithOldKey)).isTrue();
+        assertThat(encryptionUtil.needsReEncryption(encryptedWithNewKey)).isFalse();
+        verify(secretKeyGenerator, times(2)).loadOrGenerateSecretKey();
+        verify(secretKeyGenerator, times(2)).addToKeyring(any());
+    }
+
+    @Test
+    void envelopesShouldStayReadableWhileTheKeyIsReloaded() throws Exception {
+        var data = "concurrent-rotation".getBytes(StandardCharsets.UTF_8);
+        var keys = new SecretKey[] { secretKey, new SecretKeySpec(new byte[] {
+                1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16,
+                17, 18, 19, 20, 21, 22, 23, 24, 25, 26, 27, 28, 29, 30, 31, 32 }, "AES") };
+        encryptionUtil.encrypt(data);
+
+        var rotator = CompletableFuture.runAsync(() -> {
+            for (var i = 1; i <= 500; i++) {
+                secretKey = keys[i % 2];
+                try {
+                    encryptionUtil.reloadSecretKey();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        var encrypted = new ArrayList<byte[]>();
+        while (!rotator.isDone()) {
+            try (var in = encryptionUtil.openEncrypting(new ByteArrayInputStream(data))) {
+                encrypted.add(in.readAllBytes());
+            }
+        }
+        rotator.join();
+
+        for (var envelope : encrypted) {
+            assertThat(encryptionUtil.decrypt(envelope)).isEqualTo(data);
+        }
+    }
+
+    @Test
+    void keysShouldSurviveRotationAndRestart(@TempDir Path keyDirectory) throws Exception {
+        var data = "rotate-and-restart".getBytes(StandardCharsets.UTF_8);
+        var beforeRotation = new EncryptionUtil();
+        ReflectionTestUtils.setField(beforeRotation, "secretKeyGenerator", new SecretKeyGenerator(keyDirectory));
+        var encryptedWithOldKey = beforeRotation.encrypt(data);
+        var oldKey = new SecretKeyGenerator(keyDirectory).loadOrGenerateSecretKey();
+        var legacy = legacyEncrypt(data, oldKey);
+
+        // Rotation: the key file is replaced while the application is down
+        Files.delete(keyDirectory.resolve("secretKey.key"));
+        var afterRestart = new EncryptionUtil();
+        ReflectionTestUtils.setField(afterRestart, "secretKeyGenerator", new SecretKeyGenerator(keyDirectory));
+        var encryptedWithNewKey = afterRestart.encrypt(data);
+
+        assertThat(Arrays.copyOfRange(encryptedWithNewKey, 6, 14))
+                .isNotEqualTo(Arrays.copyOfRange(encryptedWithOldKey, 6, 14));
+        assertThat(afterRestart.decrypt(encryptedWithOldKey)).isEqualTo(data);
+        assertThat(afterRestart.decrypt(encryptedWithNewKey)).isEqualTo(data);
+        assertThat(afterRestart.decrypt(legacy)).isEqualTo(data);
+        assertThat(afterRestart.needsReEncryption(encryptedWithOldKey)).isTrue();
+        assertThat(new SecretKeyGenerator(keyDirectory).loadKeyring()).hasSize(2);
+    }
+
+    @Test
+    void streamingShouldRoundTripAcrossChunkBoundaries() throws Exception {
+        for (var length : new int[] { 0, 1, EncryptionUtil.DEFAULT_CHUNK_SIZE, 3 * EncryptionUtil.DEFAULT_CHUNK_SIZE + 17 }) {
+            var original = new byte[length];
+            new Random(length).nextBytes(original);
+
+            var encrypted = new ByteArrayOutputStream();
+            encryptionUtil.encrypt(new ByteArrayInputStream(original), encrypted);
+            var decrypted = new ByteArrayOutputStream();
+            encryptionUtil.decrypt(new ByteArrayInputStream(encrypted.toByteArray()), decrypted);
+
+            assertThat(encrypted.size())
+                    .isEqualTo(EncryptionUtil.ciphertextLength(length, EncryptionUtil.DEFAULT_CHUNK_SIZE));
+            assertThat(EncryptionUtil.plaintextLength(encrypted.size(), EncryptionUtil.DEFAULT_CHUNK_SIZE))
+                    .isEqualTo(length);
+            assertThat(decrypted.toByteArray()).isEqualTo(original);
+        }
+    }
+
+    @Test
+    void openEncryptingShouldProduceEnvelopeThatDecrypts() throws Exception {
+        for (var length : new int[] { 0, 1, EncryptionUtil.DEFAULT_CHUNK_SIZE, 3 * EncryptionUtil.DEFAULT_CHUNK_SIZE + 17 }) {
+            var original = new byte[length];
+            new Random(length).nextBytes(original);
+
+            byte[] encrypted;
+            try (var in = encryptionUtil.openEncrypting(new ByteArrayInputStream(original))) {
+                // Small reads cross the header and chunk boundaries
+                var out = new ByteArrayOutputStream();
+                var buffer = new byte[1000];
+                for (var read = in.read(buffer); read != -1; read = in.read(buffer)) {
+                    out.write(buffer, 0, read);
+                }
+                encrypted = out.toByteArray();
+            }
+
+            assertThat(encrypted.length)
+                    .isEqualTo(EncryptionUtil.ciphertextLength(length, EncryptionUtil.DEFAULT_CHUNK_SIZE));
+            assertThat(encryptionUtil.decrypt(encrypted)).isEqualTo(original);
+        }
+    }
+
+    @Test
+    void decryptShouldRejectTamperedOrTruncatedData() throws Exception {
+        var original = new byte[2 * EncryptionUtil.DEFAULT_CHUNK_SIZE + 5];
+        var encrypted = encryptionUtil.encrypt(original);
+
+        var tampered = encrypted.clone();
+        tampered[EncryptionUtil.HEADER_LENGTH + 10] ^= 1;
+        var truncated = Arrays.copyOf(encrypted,
+                EncryptionUtil.HEADER_LENGTH + EncryptionUtil.DEFAULT_CHUNK_SIZE + EncryptionUtil.TAG_LENGTH);
+
+        assertThatThrownBy(() -> encryptionUtil.decrypt(tampered)).isInstanceOf(GeneralSecurityException.class);
+        assertThatThrownBy(() -> encryptionUtil.decrypt(truncated)).isInstanceOf(GeneralSecurityException.class);
+    }
+
+    @Test
+    void decryptShouldReadLegacyCbcData() throws Exception {
+        var data = "legacy".getBytes(StandardCharsets.UTF_8);
+        var legacy = legacyEncrypt(data, secretKey);
+
+        assertThat(encryptionUtil.decrypt(legacy)).isEqualTo(data);
+        assertThat(encryptionUtil.needsReEncryption(legacy)).isTrue();
+    }
+
+    @Test
+    void legacyDataShouldStayReadableAfterRotation() throws Exception {
+        var data = "legacy".getBytes(StandardCharsets.UTF_8);
+        var legacy = legacyEncrypt(data, secretKey);
+        encryptionUtil.encrypt(data);
+
+        var newKey = new byte[32];
+        Arrays.fill(newKey, (byte) 7);
+        secretKey = new SecretKeySpec(newKey, "AES");
+        encryptionUtil.reloadSecretKey();
+
+        assertThat(encryptionUtil.decrypt(legacy)).isEqualTo(data);
+    }
+
+    /**
+     * Old AES/CBC format: 16 byte IV followed by the ciphertext
+     */
+    private static byte[] legacyEncrypt(byte[] data, SecretKey key) throws GeneralSecurityException {
+        var iv = new byte[16];
+        Arrays.fill(iv, (byte) 3);
+        var cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(iv));
+        var ciphertext = cipher.doFinal(data);
+        var legacy = Arrays.copyOf(iv, iv.length + ciphertext.length);
+        System.arraycopy(ciphertext, 0, legacy, iv.length, ciphertext.length);
+        return legacy;
+    }
+
+    @Test
+    void openDecryptingShouldSeekToAnyPosition() throws Exception {
+        var original = new byte[3 * EncryptionUtil.DEFAULT_CHUNK_SIZE + 100];
+        new Random(13).nextBytes(original);
+        var encrypted = encryptionUtil.encrypt(original);
+        var start = 2 * EncryptionUtil.DEFAULT_CHUNK_SIZE - 5;
+
+        try (var in = encryptionUtil.openDecrypting(new SeekableInMemoryByteChannel(encrypted))) {
+            assertThat(in.length()).isEqualTo(original.length);
+            assertThat(in.skip(start)).isEqualTo(start);
+            assertThat(in.readAllBytes()).isEqualTo(Arrays.copyOfRange(original, start, original.length));
+        }
+        try (var in = encryptionUtil.openDecrypting(new SeekableInMemoryByteChannel(encrypted))) {
+            assertThat(in.readAllBytes()).isEqualTo(original);
+        }
+    }
+
+    @Test
+    void openDecryptingShouldFailOnTamperedChunk() throws Exception {
+        var encrypted = encryptionUtil.encrypt(new byte[2 * EncryptionUtil.DEFAULT_CHUNK_SIZE]);
+        encrypted[encrypted.length - 1] ^= 1;
+
+        try (var in = encryptionUtil.openDecrypting(new SeekableInMemoryByteChannel(encrypted))) {
+            in.skip(2 * EncryptionUtil.DEFAULT_CHUNK_SIZE - 1);
+            assertThatThrownBy(in::readAllBytes).isInstanceOf(IOException.class);
+        }
+    }
+
+    /**
+     * Minimal read-only channel over a byte array
+     */
+    private static final class SeekableInMemoryByteChannel implements SeekableByteChannel {
+
+        private final byte[] data;
+        private long position;
+
+        SeekableInMemoryByteChannel(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (position >= data.length) {
+                return -1;
+            }
+            var count = (int) Math.min(dst.remaining(), data.length - position);
+            dst.put(data, (int) position, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long position() {
+            return position;
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) {
+            position = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() {
+            return data.length;
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
 }
@@ -0,0 +1,176 @@
+package com.phototransformation.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+import javax.imageio.metadata.IIOMetadataNode;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.phototransformation.config.PhotoConfiguration;
+
+class ImageEncoderTest {
+
+    private PhotoConfiguration configuration;
+
+    @BeforeEach
+    void setUp() {
+        configuration = new PhotoConfiguration();
+    }
+
+    @Test
+    void encodeShouldWriteProgressiveJpegWithConfiguredSubsampling() throws IOException {
+        configuration.getEncoding().setJpegSubsampling("4:2:2");
+        var encoder = new ImageEncoder(configuration, null, new EngineCircuitBreakers(configuration), null);
+
+        var jpeg = encoder.encode(noise(64, 64, BufferedImage.TYPE_INT_RGB), ImageFormat.JPEG, null);
+
+        var tree = jpegMetadata(jpeg);
+        var luma = (IIOMetadataNode) tree.getElementsByTagName("componentSpec").item(0);
+        assertThat(luma.getAttribute("HsamplingFactor")).isEqualTo("2");
+        assertThat(luma.getAttribute("VsamplingFactor")).isEqualTo("1");
+        var frame = (IIOMetadataNode) tree.getElementsByTagName("sof").item(0);
+        assertThat(frame.getAttribute("process")).isEqualTo("2");
+    }
+
+    @Test
+    void encodeShouldWriteBaselineJpegWhenProgressiveIsOff() throws IOException {
+        configuration.getEncoding().setJpegProgressive(false);
+        var encoder = new ImageEncoder(configuration, null, new EngineCircuitBreakers(configuration), null);
+
+        var jpeg = encoder.encode(noise(64, 64, BufferedImage.TYPE_INT_RGB), ImageFormat.JPEG, null);
+
+        var frame = (IIOMetadataNode) jpegMetadata(jpeg).getElementsByTagName("sof").item(0);
+        assertThat(frame.getAttribute("process")).isNotEqualTo("2");
+    }
+
+    @Test
+    void encodeShouldUseRequestedQuality() throws IOException {
+        var encoder = new ImageEncoder(configuration, null, new EngineCircuitBreakers(configuration), null);
+        var image = noise(128, 128, BufferedImage.TYPE_INT_RGB);
+
+        var low = encoder.encode(image, ImageFormat.JPEG, 20);
+        var high = encoder.encode(image, ImageFormat.JPEG, 95);
+
+        assertThat(low.length).isLessThan(high.length);
+    }
+
+    @Test
+    void encodeShouldFlattenAlphaOntoWhiteForJpeg() throws IOException {
+        var encoder = new ImageEncoder(configuration, null, new EngineCircuitBreakers(configuration), null);
+        var transparent = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+
+        var decoded = ImageIO.read(new ByteArrayInputStream(encoder.encode(transparent, ImageFormat.JPEG, 90)));
+
+        assertThat(decoded.getColorModel().hasAlpha()).isFalse();
+        assertThat(new Color(decoded.getRGB(8, 8)).getRed()).isGreaterThan(245);
+    }
+
+    @Test
+    void encodeShouldKeepAlphaForPng() throws IOException {
+        var encoder = new ImageEncoder(configuration, null, new EngineCircuitBreakers(configuration), null);
+
+        var png = encoder.encode(new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB), ImageFormat.PNG, null);
+
+        assertThat(ImageIO.read(new ByteArrayInputStream(png)).getColorModel().hasAlpha()).isTrue();
+    }
+
+    @Test
+    void imageMagickOptionsShouldMatchJavaSettings() {
+        configuration.getEncoding().setJpegQuality(82);
+        var encoder = new ImageEncoder(configuration, null, new EngineCircuitBreakers(configuration), null);
+
+        assertThat(encoder.imageMagickOptions(ImageFormat.JPEG, null))
+                .isEqualTo("-quality 82 -interlace JPEG -sampling-factor 2x2");
+        assertThat(encoder.imageMagickOptions(ImageFormat.WEBP, null)).isEqualTo("-quality 80");
+        assertThat(encoder.imageMagickOptions(ImageFormat.AVIF, 45)).isEqualTo("-quality 45");
+        assertThat(encoder.imageMagickOptions(ImageFormat.PNG, 45)).isEmpty();
+    }
+
+    @Test
+    void settingsHashShouldFollowTheResolvedEncoderSettings() {
+        var defaults = new ImageEncoder(configuration, null, new EngineCircuitBreakers(configuration), null);
+        var jpegDefault = defaults.settingsHash(ImageFormat.JPEG, null);
+        var webpDefault = defaults.settingsHash(ImageFormat.WEBP, null);
+
+        assertThat(jpegDefault).matches("[0-9a-f]{8}");
+        assertThat(defaults.settingsHash(ImageFormat.JPEG, 75)).isEqualTo(jpegDefault);
+        assertThat(defaults.settingsHash(ImageFormat.PNG, null)).isNull();
+
+        configuration.getEncoding().setJpegSubsampling("4:4:4");
+        configuration.getEncoding().setWebpQuality(90);
+        var changed = new ImageEncoder(configuration, null, new EngineCircuitBreakers(configuration), null);
+
+        assertThat(changed.settingsHash(ImageFormat.JPEG, null)).isNotEqualTo(jpegDefault);
+        assertThat(changed.settingsHash(ImageFormat.WEBP, null)).isNotEqualTo(webpDefault);
+        assertThat(changed.settingsHash(ImageFormat.AVIF, null)).isEqualTo(defaults.settingsHash(ImageFormat.AVIF, null));
+    }
+
+    @Test
+    void encodeShouldStopCallingImageMagickOnceItsBreakerIsOpen(@TempDir Path spoolPath) throws Exception {
+        configuration.getSpool().setPath(spoolPath.toString());
+        configuration.getResize().setBreakerFailureThreshold(1);
+        var pool = mock(ImageMagickWorkerPool.class);
+        doThrow(new IOException("Cannot run program \"magick\"")).when(pool).convert(any(), any(), any());
+        var encoder = new ImageEncoder(configuration, pool, new EngineCircuitBreakers(configuration),
+                new SpoolDirectory(configuration));
+        var image = noise(8, 8, BufferedImage.TYPE_INT_RGB);
+
+        assertThatThrownBy(() -> encoder.encode(image, ImageFormat.WEBP, null))
+                .isInstanceOf(FormatUnavailableException.class)
+                .hasMessageContaining("failed");
+        assertThat(encoder.canEncode(ImageFormat.WEBP)).isFalse();
+        assertThat(encoder.canEncode(ImageFormat.JPEG)).isTrue();
+        assertThatThrownBy(() -> encoder.encode(image, ImageFormat.AVIF, null))
+                .isInstanceOf(FormatUnavailableException.class)
+                .hasMessageContaining("not available");
+
+        verify(pool, times(1)).convert(any(), any(), any());
+        assertThat(spoolPath).isEmptyDirectory();
+    }
+
+    @Test
+    void constructorShouldRejectUnknownSubsampling() {
+        configuration.getEncoding().setJpegSubsampling("4:1:1");
+
+        assertThatThrownBy(() -> new ImageEncoder(configuration, null, new EngineCircuitBreakers(configuration), null))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("4:1:1");
+    }
+
+    private static IIOMetadataNode jpegMetadata(byte[] jpeg) throws IOException {
+        var reader = ImageIO.getImageReadersByFormatName("jpeg").next();
+        try (var input = ImageIO.createImageInputStream(new ByteArrayInputStream(jpeg))) {
+            reader.setInput(input);
+            return (IIOMetadataNode) reader.getImageMetadata(0).getAsTree("javax_imageio_jpeg_image_1.0");
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    private static BufferedImage noise(int width, int height, int type) {
+        var image = new BufferedImage(width, height, type);
+        var random = new Random(42);
+        for (var y = 0; y < height; y++) {
+            for (var x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt(0xFFFFFF));
+            }
+        }
+        return image;
+    }
+}
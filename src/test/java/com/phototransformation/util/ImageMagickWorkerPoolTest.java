@@ -0,0 +1,214 @@
+package com.phototransformation.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.phototransformation.config.PhotoConfiguration;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Runs the pool against a shell script standing in for {@code magick -script -}:
+ * it prints the marker of every command line, sleeps on "slow" and exits on
+ * "crash", and logs each start so restarts can be counted
+ */
+@DisabledOnOs(OS.WINDOWS)
+class ImageMagickWorkerPoolTest {
+
+    @TempDir
+    Path directory;
+
+    private PhotoConfiguration configuration;
+    private Path starts;
+    private ImageMagickWorkerPool pool;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        starts = directory.resolve("starts");
+        var script = directory.resolve("magick");
+        Files.writeString(script, String.join("\n",
+                "#!/bin/sh",
+                "echo started >> '" + starts + "'",
+                "while IFS= read -r line; do",
+                "  case \"$line\" in",
+                "    *slow*) sleep 2 ;;",
+                "    *crash*) exit 1 ;;",
+                "  esac",
+                "  printf '%s\\n' \"$line\" | sed -n 's/.*-print \"\\(.*\\)\\\\n\".*/\\1/p'",
+                "done",
+                ""));
+        Files.setPosixFilePermissions(script, PosixFilePermissions.fromString("rwx------"));
+
+        configuration = new PhotoConfiguration();
+        configuration.getImagemagick().setPath(script.toString());
+        configuration.getImagemagick().setWorkers(1);
+        configuration.getImagemagick().setJobTimeoutMs(5000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (pool != null) {
+            pool.destroy();
+        }
+    }
+
+    @Test
+    void executeShouldReuseTheWorkerProcess() throws Exception {
+        pool = new ImageMagickWorkerPool(configuration);
+
+        pool.execute("");
+        pool.execute("");
+
+        assertThat(startCount()).isEqualTo(1);
+    }
+
+    @Test
+    void callerShouldWaitForTheBusyWorker() throws Exception {
+        configuration.getImagemagick().setMaxQueued(1);
+        pool = new ImageMagickWorkerPool(configuration);
+        var registry = new SimpleMeterRegistry();
+        pool.bindTo(registry);
+        pool.execute("");
+
+        var slow = CompletableFuture.runAsync(() -> execute("slow"));
+        awaitIdleWorkers(registry, 0);
+        var waiting = CompletableFuture.runAsync(() -> execute(""));
+        while (registry.get("photo.imagemagick.waiting").gauge().value() < 1) {
+            Thread.sleep(5);
+        }
+
+        slow.get(10, TimeUnit.SECONDS);
+        waiting.get(10, TimeUnit.SECONDS);
+        assertThat(registry.get("photo.imagemagick.waiting").gauge().value()).isZero();
+    }
+
+    @Test
+    void idleWorkerShouldBeHandedOutEvenWhenNoCallerMayWait() throws Exception {
+        configuration.getImagemagick().setMaxQueued(0);
+        pool = new ImageMagickWorkerPool(configuration);
+
+        pool.execute("");
+        pool.execute("");
+
+        assertThat(startCount()).isEqualTo(1);
+    }
+
+    @Test
+    void callerShouldBeRejectedWhenTheQueueIsFull() throws Exception {
+        configuration.getImagemagick().setMaxQueued(0);
+        pool = new ImageMagickWorkerPool(configuration);
+        var registry = new SimpleMeterRegistry();
+        pool.bindTo(registry);
+        pool.execute("");
+
+        var slow = CompletableFuture.runAsync(() -> execute("slow"));
+        awaitIdleWorkers(registry, 0);
+
+        assertThatThrownBy(() -> pool.execute(""))
+                .isInstanceOf(RejectedExecutionException.class)
+                .hasMessageContaining("queue is full");
+        slow.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void callerShouldBeRejectedWhenNoWorkerFreesUpInTime() throws Exception {
+        configuration.getImagemagick().setQueueTimeoutMs(50);
+        pool = new ImageMagickWorkerPool(configuration);
+        var registry = new SimpleMeterRegistry();
+        pool.bindTo(registry);
+        pool.execute("");
+
+        var slow = CompletableFuture.runAsync(() -> execute("slow"));
+        awaitIdleWorkers(registry, 0);
+
+        assertThatThrownBy(() -> pool.execute(""))
+                .isInstanceOf(RejectedExecutionException.class)
+                .hasMessageContaining("in time");
+        slow.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void jobTimeoutShouldReplaceTheWorker() throws Exception {
+        configuration.getImagemagick().setJobTimeoutMs(200);
+        pool = new ImageMagickWorkerPool(configuration);
+
+        assertThatThrownBy(() -> pool.execute("slow"))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("timed out");
+
+        pool.execute("");
+        assertThat(startCount()).isEqualTo(2);
+    }
+
+    @Test
+    void crashedWorkerShouldBeRestarted() throws Exception {
+        pool = new ImageMagickWorkerPool(configuration);
+        pool.execute("");
+
+        assertThatThrownBy(() -> pool.execute("crash"))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("crashed");
+
+        pool.execute("");
+        assertThat(startCount()).isEqualTo(2);
+    }
+
+    @Test
+    void interruptedCallerShouldNotHandBackAWorkerMidScript() throws Exception {
+        pool = new ImageMagickWorkerPool(configuration);
+        var registry = new SimpleMeterRegistry();
+        pool.bindTo(registry);
+        pool.execute("");
+
+        var thread = new AtomicReference<Thread>();
+        var interrupted = CompletableFuture.runAsync(() -> {
+            thread.set(Thread.currentThread());
+            execute("slow");
+        });
+        awaitIdleWorkers(registry, 0);
+        thread.get().interrupt();
+
+        assertThatThrownBy(() -> interrupted.get(10, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasRootCauseInstanceOf(InterruptedException.class);
+        pool.execute("");
+        assertThat(startCount()).isEqualTo(2);
+    }
+
+    private void execute(String commands) {
+        try {
+            pool.execute(commands);
+        } catch (IOException | InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void awaitIdleWorkers(SimpleMeterRegistry registry, int idle) throws InterruptedException {
+        while (registry.get("photo.imagemagick.idle").gauge().value() != idle) {
+            Thread.sleep(5);
+        }
+    }
+
+    private long startCount() throws IOException {
+        try (var lines = Files.lines(starts)) {
+            return lines.count();
+        }
+    }
+}
@@ -1,18 +1,35 @@
 package com.phototransformation.util;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.assertj.core.data.Offset.offset;
 
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.test.util.ReflectionTestUtils;
 
 import com.phototransformation.config.PhotoConfiguration;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
 class ImageProcessingUtilTest {
 
     private ImageProcessingUtil imageProcessingUtil;
 
+    @TempDir
+    Path tempDir;
+
     @BeforeEach
     void setUp() {
         imageProcessingUtil = new ImageProcessingUtil();
@@ -30,6 +47,16 @@ class ImageProcessingUtilTest {
         configuration.setResize(resize);
 
         ReflectionTestUtils.setField(imageProcessingUtil, "photoConfiguration", configuration);
+        var javaResizeEngine = new JavaResizeEngine(configuration);
+        var engineCircuitBreakers = new EngineCircuitBreakers(configuration);
+        var imageEncoder = new ImageEncoder(configuration, null, engineCircuitBreakers, null);
+        var imageIoResizeEngine = new ImageIoResizeEngine(configuration, javaResizeEngine, imageEncoder);
+        ReflectionTestUtils.setField(imageProcessingUtil, "javaResizeEngine", javaResizeEngine);
+        ReflectionTestUtils.setField(imageProcessingUtil, "imageIoResizeEngine", imageIoResizeEngine);
+        ReflectionTestUtils.setField(imageProcessingUtil, "resizeEngineRouter",
+                new ResizeEngineRouter(configuration, List.of(imageIoResizeEngine), engineCircuitBreakers,
+                        new PipelineMetrics(new SimpleMeterRegistry())));
+        ReflectionTestUtils.setField(imageProcessingUtil, "imageEncoder", imageEncoder);
     }
 
     @Test
@@ -61,4 +88,118 @@ class ImageProcessingUtilTest {
 
         assertThat(newDimensions).isNull();
     }
+
+    @Test
+    void calculateNewDimensionsShouldFitOnlyGivenBound() {
+        var newDimensions = imageProcessingUtil.calculateNewDimensions(4000, 2000, null, 500);
+
+        assertThat(newDimensions.width).isEqualTo(1000);
+        assertThat(newDimensions.height).isEqualTo(500);
+        assertThat(imageProcessingUtil.calculateNewDimensions(4000, 2000, null, null)).isNull();
+    }
+
+    @Test
+    void probeImageShouldReadHeaderOfPng() throws IOException {
+        var info = imageProcessingUtil.probeImage(createImageBytes(320, 200, BufferedImage.TYPE_INT_ARGB, "png"));
+
+        assertThat(info.getWidth()).isEqualTo(320);
+        assertThat(info.getHeight()).isEqualTo(200);
+        assertThat(info.getFormatName()).isEqualTo("png");
+        assertThat(info.hasAlpha()).isTrue();
+    }
+
+    @Test
+    void probeImageShouldReadHeaderOfJpeg() throws IOException {
+        var info = imageProcessingUtil.probeImage(createImageBytes(640, 480, BufferedImage.TYPE_INT_RGB, "jpeg"));
+
+        assertThat(info.getWidth()).isEqualTo(640);
+        assertThat(info.getHeight()).isEqualTo(480);
+        assertThat(info.getFormatName()).isEqualTo("jpeg");
+        assertThat(info.hasAlpha()).isFalse();
+    }
+
+    @Test
+    void getImageDimensionsShouldReadHeaderOfFile() throws IOException {
+        var source = write("photo.jpg", createImageBytes(640, 480, BufferedImage.TYPE_INT_RGB, "jpeg"));
+
+        assertThat(imageProcessingUtil.getImageDimensions(source)).isEqualTo(new Dimension(640, 480));
+    }
+
+    @Test
+    void getImageDimensionsShouldRejectNonImageData() throws IOException {
+        var source = write("garbage.jpg", new byte[] { 1, 2, 3, 4 });
+
+        assertThatThrownBy(() -> imageProcessingUtil.getImageDimensions(source))
+                .isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void resizeImageShouldKeepPngAlpha() throws IOException {
+        var resized = imageProcessingUtil.resizeImage(
+                write("photo.png", createImageBytes(400, 300, BufferedImage.TYPE_INT_ARGB, "png")), new Dimension(400, 300),
+                200, 150, "image/png");
+
+        var info = imageProcessingUtil.probeImage(resized);
+        assertThat(info.getWidth()).isEqualTo(200);
+        assertThat(info.getHeight()).isEqualTo(150);
+        assertThat(info.hasAlpha()).isTrue();
+    }
+
+    @Test
+    void decodeSubsamplingShouldKeepDecodedImageAtLeastTwiceTheTarget() {
+        assertThat(ImageIoResizeEngine.decodeSubsampling(5000, 4000, 1350, 1080)).isEqualTo(1);
+        assertThat(ImageIoResizeEngine.decodeSubsampling(5000, 4000, 1000, 800)).isEqualTo(2);
+        assertThat(ImageIoResizeEngine.decodeSubsampling(5000, 4000, 150, 120)).isEqualTo(8);
+    }
+
+    @Test
+    void decodeForResizeShouldSubsampleLargeJpegs() throws IOException {
+        var jpeg = createImageBytes(2000, 1600, BufferedImage.TYPE_INT_RGB, "jpeg");
+
+        var decoded = imageProcessingUtil.decodeForResize(jpeg, 240, 192);
+
+        assertThat(decoded.getWidth()).isEqualTo(500);
+        assertThat(decoded.getHeight()).isEqualTo(400);
+    }
+
+    @Test
+    void createRenditionsShouldReturnEverySizeInRequestedOrder() throws IOException {
+        var jpeg = createImageBytes(1600, 1200, BufferedImage.TYPE_INT_RGB, "jpeg");
+
+        var renditions = imageProcessingUtil.createRenditions(write("photo.jpg", jpeg),
+                List.of(new Dimension(200, 150), new Dimension(800, 600)), "image/jpeg");
+
+        assertThat(renditions).hasSize(2);
+        var thumbnail = imageProcessingUtil.probeImage(renditions.get(0));
+        assertThat(thumbnail.getWidth()).isEqualTo(200);
+        assertThat(thumbnail.getHeight()).isEqualTo(150);
+        var preview = imageProcessingUtil.probeImage(renditions.get(1));
+        assertThat(preview.getWidth()).isEqualTo(800);
+        assertThat(preview.getHeight()).isEqualTo(600);
+    }
+
+    @Test
+    void renderImageShouldCropCenterAndConvertToJpeg() throws IOException {
+        var png = createImageBytes(600, 400, BufferedImage.TYPE_INT_ARGB, "png");
+
+        var rendered = imageProcessingUtil.renderImage(png, new Dimension(150, 100), new Dimension(100, 100), ImageFormat.JPEG, 80);
+
+        var info = imageProcessingUtil.probeImage(rendered);
+        assertThat(info.getFormatName()).isEqualTo("jpeg");
+        assertThat(info.getWidth()).isEqualTo(100);
+        assertThat(info.getHeight()).isEqualTo(100);
+        assertThat(info.hasAlpha()).isFalse();
+    }
+
+    private Path write(String name, byte[] data) throws IOException {
+        return Files.write(tempDir.resolve(name), data);
+    }
+
+    private byte[] createImageBytes(int width, int height, int type, String format) throws IOException {
+        var image = new BufferedImage(width, height, type);
+        try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+            ImageIO.write(image, format, baos);
+            return baos.toByteArray();
+        }
+    }
 }
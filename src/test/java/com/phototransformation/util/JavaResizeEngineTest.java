@@ -0,0 +1,73 @@
+package com.phototransformation.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.phototransformation.config.PhotoConfiguration;
+
+class JavaResizeEngineTest {
+
+    private JavaResizeEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        var configuration = new PhotoConfiguration();
+        configuration.getResize().setThreads(2);
+        engine = new JavaResizeEngine(configuration);
+    }
+
+    @AfterEach
+    void tearDown() {
+        engine.destroy();
+    }
+
+    @Test
+    void resizeShouldProduceRequestedSizeAndKeepSolidColor() {
+        var source = createImage(400, 300, BufferedImage.TYPE_3BYTE_BGR, new Color(200, 100, 50));
+
+        for (var filter : JavaResizeEngine.Filter.values()) {
+            var resized = engine.resize(source, 123, 77, filter, true);
+
+            assertThat(resized.getWidth()).isEqualTo(123);
+            assertThat(resized.getHeight()).isEqualTo(77);
+            assertThat(resized.getRGB(60, 40)).isEqualTo(new Color(200, 100, 50).getRGB());
+        }
+    }
+
+    @Test
+    void resizeShouldPreserveAlphaWhenRequested() {
+        var source = createImage(200, 200, BufferedImage.TYPE_INT_ARGB, new Color(10, 20, 30, 128));
+
+        var resized = engine.resize(source, 50, 50, JavaResizeEngine.Filter.LANCZOS3, true);
+
+        assertThat(resized.getType()).isEqualTo(BufferedImage.TYPE_INT_ARGB);
+        assertThat(resized.getRGB(25, 25) >>> 24).isEqualTo(128);
+    }
+
+    @Test
+    void resizeShouldDropAlphaWhenNotRequested() {
+        var source = createImage(200, 200, BufferedImage.TYPE_INT_ARGB, new Color(10, 20, 30, 128));
+
+        var resized = engine.resize(source, 50, 50, JavaResizeEngine.Filter.BICUBIC, false);
+
+        assertThat(resized.getType()).isEqualTo(BufferedImage.TYPE_INT_RGB);
+        assertThat(resized.getColorModel().hasAlpha()).isFalse();
+    }
+
+    private BufferedImage createImage(int width, int height, int type, Color color) {
+        var image = new BufferedImage(width, height, type);
+        var graphics = image.createGraphics();
+        graphics.setComposite(AlphaComposite.Src);
+        graphics.setColor(color);
+        graphics.fillRect(0, 0, width, height);
+        graphics.dispose();
+        return image;
+    }
+}
@@ -0,0 +1,165 @@
+package com.phototransformation.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.phototransformation.config.PhotoConfiguration;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ResizeEngineRouterTest {
+
+    private static final Path SOURCE = Path.of("photo.jpg");
+    private static final long LARGE = 25_000_000;
+    private static final long SMALL = 1_000_000;
+
+    private PhotoConfiguration configuration;
+    private FakeEngine java;
+    private FakeEngine imageMagick;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        configuration = new PhotoConfiguration();
+        configuration.getResize().setBreakerFailureThreshold(2);
+        java = new FakeEngine(ImageIoResizeEngine.NAME);
+        imageMagick = new FakeEngine(ImageMagickResizeEngine.NAME);
+    }
+
+    @Test
+    void autoShouldResizeSmallImagesInTheJvmAndLargeOnesWithImageMagick() throws IOException {
+        var router = router();
+
+        assertThat(router.resize(SOURCE, SMALL, 100, 100, ImageFormat.JPEG)).containsExactly(1);
+        assertThat(router.resize(SOURCE, LARGE, 100, 100, ImageFormat.JPEG)).containsExactly(2);
+        assertThat(java.calls).isEqualTo(1);
+        assertThat(imageMagick.calls).isEqualTo(1);
+    }
+
+    @Test
+    void configuredEngineShouldBeUsedForEverySize() throws IOException {
+        configuration.getResize().setEngine("ImageMagick");
+        var router = router();
+
+        router.resize(SOURCE, SMALL, 100, 100, ImageFormat.JPEG);
+
+        assertThat(imageMagick.calls).isEqualTo(1);
+        assertThat(java.calls).isZero();
+    }
+
+    @Test
+    void failedProbeShouldKeepEngineOutOfTheWay() throws IOException {
+        imageMagick.probeFailure = new IOException("Cannot run program \"magick\"");
+        var router = router();
+
+        router.probeEngines();
+
+        assertThat(router.resize(SOURCE, LARGE, 100, 100, ImageFormat.JPEG)).containsExactly(1);
+        assertThat(imageMagick.calls).isZero();
+    }
+
+    @Test
+    void consecutiveFailuresShouldOpenTheBreaker() throws IOException {
+        imageMagick.failure = new IOException("worker crashed");
+        var router = router();
+
+        for (var i = 0; i < 4; i++) {
+            assertThat(router.resize(SOURCE, LARGE, 100, 100, ImageFormat.JPEG)).containsExactly(1);
+        }
+
+        assertThat(imageMagick.calls).isEqualTo(2);
+        assertThat(java.calls).isEqualTo(4);
+        assertThat(meterRegistry.get("photo.resize").tags("engine", "java", "fallback", "true").timer().count())
+                .isEqualTo(4);
+    }
+
+    @Test
+    void breakerShouldLetATrialThroughAfterTheOpenPeriodAndCloseOnSuccess() throws IOException {
+        configuration.getResize().setBreakerOpenMs(0);
+        imageMagick.failure = new IOException("worker crashed");
+        var router = router();
+        router.resize(SOURCE, LARGE, 100, 100, ImageFormat.JPEG);
+        router.resize(SOURCE, LARGE, 100, 100, ImageFormat.JPEG);
+
+        imageMagick.failure = null;
+
+        assertThat(router.resize(SOURCE, LARGE, 100, 100, ImageFormat.JPEG)).containsExactly(2);
+        assertThat(router.resize(SOURCE, LARGE, 100, 100, ImageFormat.JPEG)).containsExactly(2);
+        assertThat(imageMagick.calls).isEqualTo(4);
+    }
+
+    @Test
+    void busyEngineShouldNotOpenTheBreaker() throws IOException {
+        imageMagick.failure = new RejectedExecutionException("ImageMagick worker queue is full");
+        var router = router();
+        for (var i = 0; i < 3; i++) {
+            router.resize(SOURCE, LARGE, 100, 100, ImageFormat.JPEG);
+        }
+
+        imageMagick.failure = null;
+
+        assertThat(router.resize(SOURCE, LARGE, 100, 100, ImageFormat.JPEG)).containsExactly(2);
+    }
+
+    @Test
+    void constructorShouldRejectUnknownEngine() {
+        configuration.getResize().setEngine("gpu");
+
+        assertThatThrownBy(this::router)
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("gpu");
+    }
+
+    private ResizeEngineRouter router() {
+        return new ResizeEngineRouter(configuration, List.of(java, imageMagick), new EngineCircuitBreakers(configuration),
+                new PipelineMetrics(meterRegistry));
+    }
+
+    /**
+     * Returns a single byte identifying the engine: 1 for java, 2 for any other
+     */
+    private static class FakeEngine implements ResizeEngine {
+
+        private final String name;
+        private int calls;
+        private Exception failure;
+        private IOException probeFailure;
+
+        FakeEngine(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void probe() throws IOException {
+            if (probeFailure != null) {
+                throw probeFailure;
+            }
+        }
+
+        @Override
+        public byte[] resize(Path source, int newWidth, int newHeight, ImageFormat format) throws IOException {
+            calls++;
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            }
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            }
+            return new byte[] { (byte) (ImageIoResizeEngine.NAME.equals(name) ? 1 : 2) };
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.phototransformation.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.phototransformation.config.PhotoConfiguration;
+
+class SpoolDirectoryTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void shouldCreateFilesInConfiguredDirectory() throws Exception {
+        var spoolPath = tempDir.resolve("spool");
+        var configuration = new PhotoConfiguration();
+        configuration.getSpool().setPath(spoolPath.toString());
+
+        var file = new SpoolDirectory(configuration).createFile("output_", ".webp");
+
+        assertThat(file).exists().hasParent(spoolPath);
+        assertThat(file.getFileName().toString()).startsWith("output_").endsWith(".webp");
+    }
+
+    @Test
+    void shouldRemoveAbandonedFilesAtStartup() throws Exception {
+        var configuration = new PhotoConfiguration();
+        configuration.getSpool().setPath(tempDir.toString());
+        var abandoned = Files.createFile(tempDir.resolve("upload_1.tmp"));
+
+        new SpoolDirectory(configuration);
+
+        assertThat(abandoned).doesNotExist();
+    }
+}